@@ -1,8 +1,19 @@
 import java.awt.Color;
+import java.awt.image.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.zip.*;
+
+import javax.imageio.ImageIO;
 
 import javalib.impworld.World;
 import javalib.impworld.WorldScene;
+import javalib.worldimages.ComputedPixelImage;
 import javalib.worldimages.OutlineMode;
 import javalib.worldimages.Posn;
 import javalib.worldimages.RectangleImage;
@@ -24,40 +35,3685 @@ class Edge {
     this.connected = false;
   }
 
-  // the maze has connected the cells this edge connect - update connected
-  // variable
-  public void connected() {
-    this.connected = true;
+  // the maze has connected the cells this edge connect - update connected
+  // variable
+  public void connected() {
+    this.connected = true;
+  }
+
+  // draw this edge if the two cells it connects are indeed connected - otherwise
+  // do nothing
+  public void drawIfNotConnected(UI ui) {
+    if (!this.connected) {
+      if (this.vertical) {
+        ui.drawEdge(this.cellRow, this.cellCol, this.cellRow, this.cellCol + 1);
+      }
+      else {
+        ui.drawEdge(this.cellRow, this.cellCol, this.cellRow + 1, this.cellCol);
+      }
+    }
+  }
+
+  // get the Posn representation of the "main" cell of this edge
+  // the "main" cell is either above or to the left of the other cell
+  public Posn getMainPosn() {
+    return new Posn(this.cellCol, this.cellRow);
+  }
+
+  // get the Posn representation of the "other" cell in this edge
+  // the "other" cell is either below or to the right of the main cell
+  public Posn getOtherPosn() {
+    if (this.vertical) {
+      return new Posn(this.cellCol + 1, this.cellRow);
+    }
+    else {
+      return new Posn(this.cellCol, this.cellRow + 1);
+    }
+  }
+
+  // get the id of the wall this edge stands for in a grid with the given
+  // number of columns - see MazeGrid
+  public int wallId(int numCols) {
+    int cell = this.cellRow * numCols + this.cellCol;
+    if (this.vertical) {
+      return MazeGrid.wallId(cell, MazeGrid.RIGHT);
+    }
+    else {
+      return MazeGrid.wallId(cell, MazeGrid.DOWN);
+    }
+  }
+}
+
+// Compact storage for the walls of a maze. Cells are addressed by a single int
+// (row * numCols + col) and every cell owns two bits of a packed bitset: one
+// for the wall to its right and one for the wall below it. A set bit means the
+// wall has been knocked down. The id of a wall is the index of its bit, so
+// wall ids are 2 * cell + RIGHT and 2 * cell + DOWN.
+class MazeGrid implements MazeGraph {
+  public static final int RIGHT = 0;
+  public static final int DOWN = 1;
+
+  public final int numRows;
+  public final int numCols;
+  public final int numCells;
+
+  final long[] passages;
+
+  // constructor for a grid with every wall standing
+  MazeGrid(int rows, int cols) {
+    this.numRows = rows;
+    this.numCols = cols;
+    this.numCells = rows * cols;
+    this.passages = new long[(int) ((2L * this.numCells + 63) >>> 6)];
+  }
+
+  // constructor for a copy of the given grid
+  MazeGrid(MazeGrid other) {
+    this.numRows = other.numRows;
+    this.numCols = other.numCols;
+    this.numCells = other.numCells;
+    this.passages = other.passages.clone();
+  }
+
+  // get the number of rows
+  public int numRows() {
+    return this.numRows;
+  }
+
+  // get the number of columns
+  public int numCols() {
+    return this.numCols;
+  }
+
+  // get the number of cells
+  public int numCells() {
+    return this.numCells;
+  }
+
+  // get the index of the cell at the given column and row
+  public int index(int col, int row) {
+    return row * this.numCols + col;
+  }
+
+  // get the index of the cell at the given Posn (x is the column, y the row)
+  public int index(Posn p) {
+    return this.index(p.x, p.y);
+  }
+
+  // get the column of the given cell
+  public int colOf(int cell) {
+    return cell % this.numCols;
+  }
+
+  // get the row of the given cell
+  public int rowOf(int cell) {
+    return cell / this.numCols;
+  }
+
+  // get the Posn representation of the given cell
+  public Posn toPosn(int cell) {
+    return new Posn(this.colOf(cell), this.rowOf(cell));
+  }
+
+  // get the id of the wall on the given side (RIGHT or DOWN) of a cell
+  public static int wallId(int cell, int side) {
+    return 2 * cell + side;
+  }
+
+  // get the cell that owns the given wall - it is above or to the left of the
+  // wall
+  public static int cellOf(int wall) {
+    return wall >>> 1;
+  }
+
+  // get the cell on the other side of the given wall - it is below or to the
+  // right of the wall
+  public int otherCell(int wall) {
+    if ((wall & 1) == RIGHT) {
+      return cellOf(wall) + 1;
+    }
+    else {
+      return cellOf(wall) + this.numCols;
+    }
+  }
+
+  // get the id of the wall between two neighboring cells, in either order
+  public int wallBetween(int cell1, int cell2) {
+    int first = Math.min(cell1, cell2);
+    if (Math.abs(cell1 - cell2) == 1 && this.rowOf(cell1) == this.rowOf(cell2)) {
+      return wallId(first, RIGHT);
+    }
+    else {
+      return wallId(first, DOWN);
+    }
+  }
+
+  // is the given wall part of the maze? walls on the right and bottom border
+  // belong to the perimeter and are never part of the maze
+  public boolean isInnerWall(int wall) {
+    int cell = cellOf(wall);
+    if ((wall & 1) == RIGHT) {
+      return this.colOf(cell) < this.numCols - 1;
+    }
+    else {
+      return this.rowOf(cell) < this.numRows - 1;
+    }
+  }
+
+  // has the given wall been knocked down?
+  public boolean isOpen(int wall) {
+    return (this.passages[wall >>> 6] & (1L << wall)) != 0;
+  }
+
+  // knock down the given wall
+  public void open(int wall) {
+    this.passages[wall >>> 6] |= 1L << wall;
+  }
+
+  // put the given wall back up
+  public void close(int wall) {
+    this.passages[wall >>> 6] &= ~(1L << wall);
+  }
+
+  // get the bits of the 64 walls from the given one on - bit i is set if wall
+  // first + i has been knocked down. Walls come in row-major order, two to a
+  // cell, so the walls of a run of cells in a row are a run of bits, and a
+  // rectangle of cells is one run of bits per row.
+  public long wallBits(int first) {
+    int word = first >>> 6;
+    int shift = first & 63;
+    long bits = this.passages[word] >>> shift;
+    if (shift != 0 && word + 1 < this.passages.length) {
+      bits |= this.passages[word + 1] << (64 - shift);
+    }
+    return bits;
+  }
+
+  // write the cells connected to the given cell into out (which must hold at
+  // least 4 cells) and return how many there are. Neighbors always come in
+  // the order right, down, left, up.
+  public int neighbors(int cell, int[] out) {
+    int count = 0;
+    int col = this.colOf(cell);
+    if (col < this.numCols - 1 && this.isOpen(wallId(cell, RIGHT))) {
+      out[count++] = cell + 1;
+    }
+    if (cell + this.numCols < this.numCells && this.isOpen(wallId(cell, DOWN))) {
+      out[count++] = cell + this.numCols;
+    }
+    if (col > 0 && this.isOpen(wallId(cell - 1, RIGHT))) {
+      out[count++] = cell - 1;
+    }
+    if (cell >= this.numCols && this.isOpen(wallId(cell - this.numCols, DOWN))) {
+      out[count++] = cell - this.numCols;
+    }
+    return count;
+  }
+
+  // count the cells connected to the given cell
+  public int degree(int cell) {
+    int count = 0;
+    int col = this.colOf(cell);
+    if (col < this.numCols - 1 && this.isOpen(wallId(cell, RIGHT))) {
+      count++;
+    }
+    if (cell + this.numCols < this.numCells && this.isOpen(wallId(cell, DOWN))) {
+      count++;
+    }
+    if (col > 0 && this.isOpen(wallId(cell - 1, RIGHT))) {
+      count++;
+    }
+    if (cell >= this.numCols && this.isOpen(wallId(cell - this.numCols, DOWN))) {
+      count++;
+    }
+    return count;
+  }
+}
+
+// Seeded random streams for the generators. A maze is identified by a single
+// long seed, and every region of it (a tile, a row, ...) draws from its own
+// SplittableRandom derived from the seed and the region number. A region always
+// sees the same stream no matter which thread builds it or in which order, so
+// parallel and chunked runs come out bit-identical to a serial run.
+class MazeRandom {
+  static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+  static final SplittableRandom SEEDS = new SplittableRandom();
+
+  // get a fresh seed for a maze nobody asked to reproduce
+  public static synchronized long newSeed() {
+    return SEEDS.nextLong();
+  }
+
+  // scramble the bits of z (the finalizer of SplitMix64)
+  public static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  // get the random stream of the given region of the maze with the given seed
+  public static SplittableRandom forRegion(long seed, long region) {
+    return new SplittableRandom(mix(seed + GOLDEN_GAMMA * (region + 1)));
+  }
+
+  // shuffle the first length ints of the array (Fisher-Yates)
+  public static void shuffle(int[] arr, int length, SplittableRandom rand) {
+    for (int i = length - 1; i > 0; i--) {
+      int j = rand.nextInt(i + 1);
+      int tmp = arr[i];
+      arr[i] = arr[j];
+      arr[j] = tmp;
+    }
+  }
+}
+
+// Disjoint sets of the ints 0 to size - 1, stored in flat arrays. find walks up
+// iteratively and halves the path as it goes (every node it passes is pointed
+// at its grandparent), and union links the root of lower rank under the root of
+// higher rank, so trees stay O(log n) deep and no call ever recurses.
+class DisjointSet {
+  final int[] parent;
+  final byte[] rank;
+  int numSets;
+  long numFinds;
+  long numLinks;
+
+  // constructor - every element starts out in a set of its own
+  DisjointSet(int size) {
+    this.parent = new int[size];
+    this.rank = new byte[size];
+    for (int i = 0; i < size; i++) {
+      this.parent[i] = i;
+    }
+    this.numSets = size;
+    this.numFinds = 0;
+    this.numLinks = 0;
+  }
+
+  // get the number of elements
+  public int size() {
+    return this.parent.length;
+  }
+
+  // get the representative of the set holding x
+  public int find(int x) {
+    this.numFinds++;
+    while (this.parent[x] != x) {
+      this.parent[x] = this.parent[this.parent[x]];
+      x = this.parent[x];
+    }
+    return x;
+  }
+
+  // are x and y in the same set?
+  public boolean sameSet(int x, int y) {
+    return this.find(x) == this.find(y);
+  }
+
+  // merge the sets holding x and y - return false if they were already merged.
+  // When both roots have the same rank the root of x goes under the root of y.
+  public boolean union(int x, int y) {
+    int xRoot = this.find(x);
+    int yRoot = this.find(y);
+    if (xRoot == yRoot) {
+      return false;
+    }
+    if (this.rank[xRoot] > this.rank[yRoot]) {
+      this.parent[yRoot] = xRoot;
+    }
+    else {
+      this.parent[xRoot] = yRoot;
+      if (this.rank[xRoot] == this.rank[yRoot]) {
+        this.rank[yRoot]++;
+      }
+    }
+    this.numSets--;
+    this.numLinks++;
+    return true;
+  }
+}
+
+// Read-only view of the passages of a maze, using the cell and wall numbering
+// of MazeGrid. Searches and indexes only ever read a maze through this, so they
+// run the same on a MazeGrid that is still being built and on a FrozenMaze
+// shared between threads.
+interface MazeGraph {
+  // get the number of rows
+  int numRows();
+
+  // get the number of columns
+  int numCols();
+
+  // get the number of cells
+  int numCells();
+
+  // has the given wall been knocked down?
+  boolean isOpen(int wall);
+
+  // write the cells connected to the given cell into out (which must hold at
+  // least 4 cells) in the order right, down, left, up and return how many
+  // there are
+  int neighbors(int cell, int[] out);
+
+  // get the column of the given cell
+  default int colOf(int cell) {
+    return cell % this.numCols();
+  }
+
+  // get the row of the given cell
+  default int rowOf(int cell) {
+    return cell / this.numCols();
+  }
+}
+
+// An immutable snapshot of a finished maze. It keeps a private copy of the
+// packed wall bits that nothing can change after construction, and every field
+// is final, so any number of threads can read it at the same time without
+// locks, independently of the Maze it came from and of any animation state.
+final class FrozenMaze implements MazeGraph {
+  private final MazeGrid grid;
+  public final long seed;
+  public final MazeAlgorithm algorithm;
+
+  // constructor - copies the walls of the given grid
+  FrozenMaze(MazeGrid grid, long seed, MazeAlgorithm algorithm) {
+    this.grid = new MazeGrid(grid);
+    this.seed = seed;
+    this.algorithm = algorithm;
+  }
+
+  // get the number of rows
+  public int numRows() {
+    return this.grid.numRows;
+  }
+
+  // get the number of columns
+  public int numCols() {
+    return this.grid.numCols;
+  }
+
+  // get the number of cells
+  public int numCells() {
+    return this.grid.numCells;
+  }
+
+  // has the given wall been knocked down?
+  public boolean isOpen(int wall) {
+    return this.grid.isOpen(wall);
+  }
+
+  // write the cells connected to the given cell into out - see MazeGraph
+  public int neighbors(int cell, int[] out) {
+    return this.grid.neighbors(cell, out);
+  }
+
+  // count the cells connected to the given cell
+  public int degree(int cell) {
+    return this.grid.degree(cell);
+  }
+
+  // get a new, mutable copy of the walls
+  public MazeGrid thaw() {
+    return new MazeGrid(this.grid);
+  }
+}
+
+// Runs kruskal's algorithm over a MazeGrid one wall at a time. Every inner wall
+// id is shuffled into an array once and a cursor walks that array, so each wall
+// is looked at exactly once and building a whole maze is linear in the number
+// of walls (plus the cost of the union-find)
+class KruskalEngine {
+  final MazeGrid grid;
+  // the shuffled walls - the ones before cursor have been looked at, and the
+  // first numLogged of those are the walls step knocked down, in order
+  final int[] walls;
+  int cursor;
+  int numLogged;
+  final DisjointSet sets;
+  int numUnions;
+
+  // constructor - shuffles every inner wall of the grid with the given random
+  KruskalEngine(MazeGrid grid, SplittableRandom rand) {
+    this.grid = grid;
+    this.walls = new int[grid.numRows * (grid.numCols - 1) + (grid.numRows - 1) * grid.numCols];
+    int count = 0;
+    // all the horizontal walls
+    for (int cell = 0; cell < grid.numCells - grid.numCols; cell++) {
+      this.walls[count++] = MazeGrid.wallId(cell, MazeGrid.DOWN);
+    }
+    // all the vertical walls
+    for (int cell = 0; cell < grid.numCells; cell++) {
+      if (grid.colOf(cell) < grid.numCols - 1) {
+        this.walls[count++] = MazeGrid.wallId(cell, MazeGrid.RIGHT);
+      }
+    }
+    MazeRandom.shuffle(this.walls, this.walls.length, rand);
+    this.cursor = 0;
+    this.sets = new DisjointSet(grid.numCells);
+    this.numUnions = 0;
+  }
+
+  // has every cell been joined into a single tree?
+  public boolean finished() {
+    return this.numUnions >= this.grid.numCells - 1 || this.cursor >= this.walls.length;
+  }
+
+  // look at the next wall and knock it down if the cells on either side of it
+  // are not connected yet - return whether the wall was knocked down
+  public boolean step() {
+    if (this.cursor >= this.walls.length) {
+      return false;
+    }
+    int wall = this.walls[this.cursor++];
+    int c1 = MazeGrid.cellOf(wall);
+    if (this.sets.union(c1, this.grid.otherCell(wall))) {
+      this.numUnions++;
+      this.grid.open(wall);
+      // never past the cursor, so only walls already looked at are overwritten
+      this.walls[this.numLogged++] = wall;
+      return true;
+    }
+    return false;
+  }
+
+  // run the algorithm to completion
+  public void run() {
+    while (!this.finished()) {
+      this.step();
+    }
+  }
+
+  // join the trees of two neighboring cells and knock down the wall between
+  // them - return false, leaving the wall up, if they are already joined
+  public boolean union(int c1, int c2) {
+    if (!this.sets.union(c1, c2)) {
+      return false;
+    }
+    this.numUnions++;
+    this.grid.open(this.grid.wallBetween(c1, c2));
+    return true;
+  }
+
+  // get the representative of given cell
+  public int getRep(int cell) {
+    return this.sets.find(cell);
+  }
+}
+
+// A binary min-heap of cells keyed by longs, with decrease-key. The heap, the
+// position of every cell in it and every cell's key live in int and long arrays
+// indexed by cell, so pushing, popping and decreasing allocate nothing.
+class IndexedMinHeap {
+  int[] heap = new int[0];
+  // where each cell sits in heap, -1 if it isn't in the heap
+  int[] pos = new int[0];
+  long[] key = new long[0];
+  int size;
+
+  // empty the heap and make room for cells 0 to numCells - 1
+  public void reset(int numCells) {
+    if (this.pos.length < numCells) {
+      this.heap = new int[numCells];
+      this.pos = new int[numCells];
+      this.key = new long[numCells];
+      Arrays.fill(this.pos, -1);
+    }
+    else {
+      for (int i = 0; i < this.size; i++) {
+        this.pos[this.heap[i]] = -1;
+      }
+    }
+    this.size = 0;
+  }
+
+  // is the heap empty?
+  public boolean isEmpty() {
+    return this.size == 0;
+  }
+
+  // is the given cell in the heap?
+  public boolean contains(int cell) {
+    return this.pos[cell] >= 0;
+  }
+
+  // add a cell that isn't in the heap yet
+  public void insert(int cell, long k) {
+    this.key[cell] = k;
+    this.heap[this.size] = cell;
+    this.pos[cell] = this.size;
+    this.size++;
+    this.siftUp(this.size - 1);
+  }
+
+  // lower the key of a cell already in the heap
+  public void decreaseKey(int cell, long k) {
+    this.key[cell] = k;
+    this.siftUp(this.pos[cell]);
+  }
+
+  // remove and return the cell with the smallest key
+  public int pollMin() {
+    int min = this.heap[0];
+    this.size--;
+    this.pos[min] = -1;
+    if (this.size > 0) {
+      this.heap[0] = this.heap[this.size];
+      this.pos[this.heap[0]] = 0;
+      this.siftDown(0);
+    }
+    return min;
+  }
+
+  // move the cell at index i up until its parent is no bigger
+  void siftUp(int i) {
+    int cell = this.heap[i];
+    long k = this.key[cell];
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (this.key[this.heap[parent]] <= k) {
+        break;
+      }
+      this.heap[i] = this.heap[parent];
+      this.pos[this.heap[i]] = i;
+      i = parent;
+    }
+    this.heap[i] = cell;
+    this.pos[cell] = i;
+  }
+
+  // move the cell at index i down until its children are no smaller
+  void siftDown(int i) {
+    int cell = this.heap[i];
+    long k = this.key[cell];
+    while (2 * i + 1 < this.size) {
+      int child = 2 * i + 1;
+      if (child + 1 < this.size && this.key[this.heap[child + 1]] < this.key[this.heap[child]]) {
+        child++;
+      }
+      if (this.key[this.heap[child]] >= k) {
+        break;
+      }
+      this.heap[i] = this.heap[child];
+      this.pos[this.heap[i]] = i;
+      i = child;
+    }
+    this.heap[i] = cell;
+    this.pos[cell] = i;
+  }
+}
+
+// A monotone priority queue of cells keyed by non-negative ints, for dijkstra.
+// Keys pushed must never be smaller than the last key popped. Bucket b holds
+// the keys whose highest bit that differs from the last popped key is bit
+// b - 1, and bucket 0 the keys equal to it, so a push is O(1) and every entry
+// moves down through at most 32 buckets in its life. There is no
+// decrease-key: a cell is pushed again and the stale copy skipped when popped.
+class RadixHeap {
+  int[][] keys = new int[33][16];
+  int[][] vals = new int[33][16];
+  final int[] sizes = new int[33];
+  int last;
+  int size;
+
+  // empty the heap, keeping its buckets
+  public void reset() {
+    Arrays.fill(this.sizes, 0);
+    this.last = 0;
+    this.size = 0;
+  }
+
+  // is the heap empty?
+  public boolean isEmpty() {
+    return this.size == 0;
+  }
+
+  // get the key of the last cell popped
+  public int lastKey() {
+    return this.last;
+  }
+
+  // add a cell with the given key - DOES NOT ERROR CHECK that key >= lastKey()
+  public void push(int key, int cell) {
+    this.add(32 - Integer.numberOfLeadingZeros(key ^ this.last), key, cell);
+    this.size++;
+  }
+
+  // remove and return a cell with the smallest key
+  public int pollMin() {
+    if (this.sizes[0] == 0) {
+      int b = 1;
+      while (this.sizes[b] == 0) {
+        b++;
+      }
+      int[] bucketKeys = this.keys[b];
+      int[] bucketVals = this.vals[b];
+      int count = this.sizes[b];
+      int min = Integer.MAX_VALUE;
+      for (int i = 0; i < count; i++) {
+        min = Math.min(min, bucketKeys[i]);
+      }
+      // every key in the bucket now agrees with the new last key above bit
+      // b - 1, so they all land in lower buckets
+      this.last = min;
+      this.sizes[b] = 0;
+      for (int i = 0; i < count; i++) {
+        this.add(32 - Integer.numberOfLeadingZeros(bucketKeys[i] ^ min), bucketKeys[i],
+            bucketVals[i]);
+      }
+    }
+    this.size--;
+    return this.vals[0][--this.sizes[0]];
+  }
+
+  // append a key and cell to the given bucket, growing it if it is full
+  void add(int b, int key, int cell) {
+    int n = this.sizes[b];
+    if (n == this.keys[b].length) {
+      this.keys[b] = Arrays.copyOf(this.keys[b], 2 * n);
+      this.vals[b] = Arrays.copyOf(this.vals[b], 2 * n);
+    }
+    this.keys[b][n] = key;
+    this.vals[b][n] = cell;
+    this.sizes[b] = n + 1;
+  }
+}
+
+// Breadth and depth first search over a MazeGraph using only primitive arrays: a
+// bitset of discovered cells, the cell each cell was discovered from, an int[]
+// used as the queue or the stack, and the order cells were visited in. The
+// arrays only grow when a bigger maze comes along, so searching allocates
+// nothing once the engine is warm. A cell is marked when it is pushed, so each
+// cell is pushed at most once and a search is O(numCells). On a perfect maze
+// this visits cells in exactly the order of a search that marks cells when they
+// are popped.
+class SearchEngine {
+  long[] visited = new long[0];
+  int[] cameFrom = new int[0];
+  int[] worklist = new int[0];
+  int[] order = new int[0];
+  int numVisited;
+  final int[] neighbors = new int[4];
+  // only used by A* and dijkstra
+  int[] distance = new int[0];
+  long[] closed = new long[0];
+  final IndexedMinHeap open = new IndexedMinHeap();
+  final RadixHeap radix = new RadixHeap();
+  // only used by the goal side of a bidirectional search
+  long[] visitedBack = new long[0];
+  int[] cameFromBack = new int[0];
+  int[] worklistBack = new int[0];
+
+  // get the arrays ready for a search of a grid with the given number of cells
+  void prepare(int numCells) {
+    if (this.cameFrom.length < numCells) {
+      this.visited = new long[(numCells + 63) >>> 6];
+      this.cameFrom = new int[numCells];
+      this.worklist = new int[numCells];
+      this.order = new int[numCells];
+    }
+    else {
+      Arrays.fill(this.visited, 0, (numCells + 63) >>> 6, 0L);
+    }
+    this.numVisited = 0;
+  }
+
+  // has the given cell been discovered by the last search?
+  public boolean isVisited(int cell) {
+    return (this.visited[cell >>> 6] & (1L << cell)) != 0;
+  }
+
+  // mark the given cell as discovered from the other cell
+  void discover(int cell, int from) {
+    this.visited[cell >>> 6] |= 1L << cell;
+    this.cameFrom[cell] = from;
+  }
+
+  // BFS from start until goal is visited - return whether goal was found
+  public boolean bfs(MazeGraph grid, int start, int goal) {
+    this.prepare(grid.numCells());
+    int head = 0;
+    int tail = 0;
+    this.discover(start, start);
+    this.worklist[tail++] = start;
+    while (head < tail) {
+      int next = this.worklist[head++];
+      this.order[this.numVisited++] = next;
+      if (next == goal) {
+        return true;
+      }
+      int count = grid.neighbors(next, this.neighbors);
+      for (int i = 0; i < count; i++) {
+        int n = this.neighbors[i];
+        if (!this.isVisited(n)) {
+          this.discover(n, next);
+          this.worklist[tail++] = n;
+        }
+      }
+    }
+    return false;
+  }
+
+  // BFS from both start and goal at once, a whole level at a time on whichever
+  // side has the smaller frontier, until the two sides meet - return whether
+  // they met. Cells go in order when either side expands them. Once the sides
+  // meet, cameFrom is fixed up along the goal side so that it leads from goal
+  // all the way back to start, just like after bfs. On a perfect maze the path
+  // is the only one there is; on a maze with loops it is a path, but not always
+  // a shortest one.
+  public boolean bidirectionalBfs(MazeGraph grid, int start, int goal) {
+    this.prepare(grid.numCells());
+    if (this.cameFromBack.length < grid.numCells()) {
+      this.visitedBack = new long[this.visited.length];
+      this.cameFromBack = new int[grid.numCells()];
+      this.worklistBack = new int[grid.numCells()];
+    }
+    else {
+      Arrays.fill(this.visitedBack, 0, (grid.numCells() + 63) >>> 6, 0L);
+    }
+    this.discover(start, start);
+    if (start == goal) {
+      this.order[this.numVisited++] = start;
+      return true;
+    }
+    this.visitedBack[goal >>> 6] |= 1L << goal;
+    this.cameFromBack[goal] = goal;
+    int head = 0;
+    int tail = 0;
+    int headBack = 0;
+    int tailBack = 0;
+    this.worklist[tail++] = start;
+    this.worklistBack[tailBack++] = goal;
+    while (head < tail && headBack < tailBack) {
+      if (tail - head <= tailBack - headBack) {
+        int levelEnd = tail;
+        while (head < levelEnd) {
+          int next = this.worklist[head++];
+          this.order[this.numVisited++] = next;
+          int count = grid.neighbors(next, this.neighbors);
+          for (int i = 0; i < count; i++) {
+            int n = this.neighbors[i];
+            if ((this.visitedBack[n >>> 6] & (1L << n)) != 0) {
+              this.joinBack(next, n, goal);
+              return true;
+            }
+            if (!this.isVisited(n)) {
+              this.discover(n, next);
+              this.worklist[tail++] = n;
+            }
+          }
+        }
+      }
+      else {
+        int levelEnd = tailBack;
+        while (headBack < levelEnd) {
+          int next = this.worklistBack[headBack++];
+          this.order[this.numVisited++] = next;
+          int count = grid.neighbors(next, this.neighbors);
+          for (int i = 0; i < count; i++) {
+            int n = this.neighbors[i];
+            if (this.isVisited(n)) {
+              this.joinBack(n, next, goal);
+              return true;
+            }
+            if ((this.visitedBack[n >>> 6] & (1L << n)) == 0) {
+              this.visitedBack[n >>> 6] |= 1L << n;
+              this.cameFromBack[n] = next;
+              this.worklistBack[tailBack++] = n;
+            }
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  // the start side reached cell front and the goal side reached its neighbor
+  // back: point cameFrom of every cell from back to goal at the cell before it
+  void joinBack(int front, int back, int goal) {
+    int prev = front;
+    int cur = back;
+    while (true) {
+      this.cameFrom[cur] = prev;
+      if (cur == goal) {
+        return;
+      }
+      prev = cur;
+      cur = this.cameFromBack[cur];
+    }
+  }
+
+  // A* from start to goal with the manhattan distance to goal as heuristic -
+  // return whether goal was found. Cells go in order when they are expanded,
+  // and on equal estimates the cell furthest from start is expanded first.
+  public boolean astar(MazeGraph grid, int start, int goal) {
+    this.prepareDistances(grid.numCells());
+    this.open.reset(grid.numCells());
+    int goalCol = grid.colOf(goal);
+    int goalRow = grid.rowOf(goal);
+    this.discover(start, start);
+    this.distance[start] = 0;
+    this.open.insert(start, this.astarKey(grid, start, 0, goalCol, goalRow));
+    while (!this.open.isEmpty()) {
+      int next = this.open.pollMin();
+      this.closed[next >>> 6] |= 1L << next;
+      this.order[this.numVisited++] = next;
+      if (next == goal) {
+        return true;
+      }
+      int count = grid.neighbors(next, this.neighbors);
+      for (int i = 0; i < count; i++) {
+        int n = this.neighbors[i];
+        int dist = this.distance[next] + 1;
+        if ((this.closed[n >>> 6] & (1L << n)) != 0) {
+          continue;
+        }
+        if (!this.isVisited(n)) {
+          this.discover(n, next);
+          this.distance[n] = dist;
+          this.open.insert(n, this.astarKey(grid, n, dist, goalCol, goalRow));
+        }
+        else if (dist < this.distance[n]) {
+          this.cameFrom[n] = next;
+          this.distance[n] = dist;
+          this.open.decreaseKey(n, this.astarKey(grid, n, dist, goalCol, goalRow));
+        }
+      }
+    }
+    return false;
+  }
+
+  // get the arrays ready for a search that keeps distances and closes cells
+  void prepareDistances(int numCells) {
+    this.prepare(numCells);
+    if (this.distance.length < numCells) {
+      this.distance = new int[numCells];
+      this.closed = new long[this.visited.length];
+    }
+    else {
+      Arrays.fill(this.closed, 0, (numCells + 63) >>> 6, 0L);
+    }
+  }
+
+  // dijkstra from start to goal where stepping into a cell costs cost[cell], or
+  // 1 for every cell if cost is null - return whether goal was found. Costs
+  // must not be negative. Cells go in order when they are settled, and
+  // distance holds the cost of the cheapest path to each of them.
+  public boolean dijkstra(MazeGraph grid, int[] cost, int start, int goal) {
+    this.prepareDistances(grid.numCells());
+    this.radix.reset();
+    this.discover(start, start);
+    this.distance[start] = 0;
+    this.radix.push(0, start);
+    while (!this.radix.isEmpty()) {
+      int next = this.radix.pollMin();
+      // a cell is pushed again every time its distance drops, so skip the
+      // stale copies
+      if ((this.closed[next >>> 6] & (1L << next)) != 0) {
+        continue;
+      }
+      this.closed[next >>> 6] |= 1L << next;
+      this.order[this.numVisited++] = next;
+      if (next == goal) {
+        return true;
+      }
+      int count = grid.neighbors(next, this.neighbors);
+      for (int i = 0; i < count; i++) {
+        int n = this.neighbors[i];
+        if ((this.closed[n >>> 6] & (1L << n)) != 0) {
+          continue;
+        }
+        int dist = this.distance[next] + (cost == null ? 1 : cost[n]);
+        if (!this.isVisited(n)) {
+          this.discover(n, next);
+          this.distance[n] = dist;
+          this.radix.push(dist, n);
+        }
+        else if (dist < this.distance[n]) {
+          this.cameFrom[n] = next;
+          this.distance[n] = dist;
+          this.radix.push(dist, n);
+        }
+      }
+    }
+    return false;
+  }
+
+  // get the heap key of a cell at the given distance from start: the estimate
+  // of the whole path in the high bits, ties going to the larger distance
+  long astarKey(MazeGraph grid, int cell, int dist, int goalCol, int goalRow) {
+    long estimate = (long) dist + Math.abs(grid.colOf(cell) - goalCol)
+        + Math.abs(grid.rowOf(cell) - goalRow);
+    return (estimate << 32) | (Integer.MAX_VALUE - dist);
+  }
+
+  // DFS from start until goal is visited - return whether goal was found
+  public boolean dfs(MazeGraph grid, int start, int goal) {
+    this.prepare(grid.numCells());
+    int top = 0;
+    this.discover(start, start);
+    this.worklist[top++] = start;
+    while (top > 0) {
+      int next = this.worklist[--top];
+      this.order[this.numVisited++] = next;
+      if (next == goal) {
+        return true;
+      }
+      int count = grid.neighbors(next, this.neighbors);
+      for (int i = 0; i < count; i++) {
+        int n = this.neighbors[i];
+        if (!this.isVisited(n)) {
+          this.discover(n, next);
+          this.worklist[top++] = n;
+        }
+      }
+    }
+    return false;
+  }
+}
+
+// The outcome of solving a maze, all in primitive arrays indexed by cell: the
+// cells in the order they were visited, the path from start to goal (both
+// included), and for every cell whether it was visited or is on the path and
+// when it was visited
+class SolveResult {
+  public static final byte NOT_VISITED = 0;
+  public static final byte VISITED = 1;
+  public static final byte ON_PATH = 2;
+
+  final int[] order;
+  final int[] path;
+  final byte[] state;
+  // index of every cell in order, -1 for cells that weren't visited
+  final int[] visitIndex;
+  // every cell in the order the animation shows them, built when first needed
+  int[] timeline;
+
+  // constructor - DOES NOT ERROR CHECK
+  SolveResult(int[] order, int[] path, byte[] state, int[] visitIndex) {
+    this.order = order;
+    this.path = path;
+    this.state = state;
+    this.visitIndex = visitIndex;
+  }
+
+  // build the result of the last search the engine ran, which must have reached
+  // goal, in time linear in the number of cells
+  public static SolveResult fromSearch(SearchEngine search, int numCells, int start, int goal) {
+    int[] order = Arrays.copyOf(search.order, search.numVisited);
+    byte[] state = new byte[numCells];
+    int[] visitIndex = new int[numCells];
+    Arrays.fill(visitIndex, -1);
+    for (int i = 0; i < order.length; i++) {
+      state[order[i]] = VISITED;
+      visitIndex[order[i]] = i;
+    }
+    int length = 1;
+    for (int cur = goal; cur != start; cur = search.cameFrom[cur]) {
+      length++;
+    }
+    int[] path = new int[length];
+    int cur = goal;
+    for (int i = length - 1; i >= 0; i--) {
+      path[i] = cur;
+      state[cur] = ON_PATH;
+      cur = search.cameFrom[cur];
+    }
+    return new SolveResult(order, path, state, visitIndex);
+  }
+
+  // get the number of cells the search visited
+  public int numVisited() {
+    return this.order.length;
+  }
+
+  // get the animation delay of the given cell: cells that weren't visited show
+  // up straight away, the others in the order they were visited
+  public int delay(int cell) {
+    return Math.max(0, this.visitIndex[cell]);
+  }
+
+  // get every cell in the order the animation shows them: the cells that
+  // weren't visited, which show up straight away, then the visited ones in the
+  // order they were visited
+  public int[] timeline() {
+    if (this.timeline == null) {
+      int[] timeline = new int[this.state.length];
+      int count = 0;
+      for (int cell = 0; cell < this.state.length; cell++) {
+        if (this.visitIndex[cell] < 0) {
+          timeline[count++] = cell;
+        }
+      }
+      System.arraycopy(this.order, 0, timeline, count, this.order.length);
+      this.timeline = timeline;
+    }
+    return this.timeline;
+  }
+
+  // get the number of cells at the start of the timeline shown at the given
+  // tick - the ones whose delay is below it
+  public int shownAt(double tick) {
+    if (tick <= 0) {
+      return 0;
+    }
+    return this.state.length - this.order.length
+        + (int) Math.min(this.order.length, Math.ceil(tick));
+  }
+}
+
+// Answers path queries between any two cells of a perfect maze. A perfect maze
+// is a tree, so the index roots it at cell 0 once and keeps every cell's depth
+// and its 2^k-th ancestors (binary lifting). The lowest common ancestor of two
+// cells - and with it the length of the path between them - then takes
+// O(log n), and the path itself takes time proportional to its length.
+class PathIndex {
+  final int numCells;
+  final int[] depth;
+  // up[k][cell] is the ancestor 2^k levels above cell (the root is its own)
+  final int[][] up;
+
+  // constructor - the maze must be perfect, DOES NOT ERROR CHECK
+  PathIndex(MazeGraph grid) {
+    this.numCells = grid.numCells();
+    this.depth = new int[this.numCells];
+    int[] parent = new int[this.numCells];
+    // BFS from the root - order doubles as the queue
+    int[] order = new int[this.numCells];
+    int[] neighbors = new int[4];
+    int head = 0;
+    int tail = 0;
+    int maxDepth = 0;
+    order[tail++] = 0;
+    parent[0] = 0;
+    while (head < tail) {
+      int next = order[head++];
+      int count = grid.neighbors(next, neighbors);
+      for (int i = 0; i < count; i++) {
+        int n = neighbors[i];
+        if (n != parent[next]) {
+          parent[n] = next;
+          this.depth[n] = this.depth[next] + 1;
+          maxDepth = Math.max(maxDepth, this.depth[n]);
+          order[tail++] = n;
+        }
+      }
+    }
+    int levels = 1;
+    while ((1 << levels) <= maxDepth) {
+      levels++;
+    }
+    this.up = new int[levels][];
+    this.up[0] = parent;
+    for (int k = 1; k < levels; k++) {
+      int[] prev = this.up[k - 1];
+      int[] cur = new int[this.numCells];
+      for (int cell = 0; cell < this.numCells; cell++) {
+        cur[cell] = prev[prev[cell]];
+      }
+      this.up[k] = cur;
+    }
+  }
+
+  // get the parent of the given cell (the root is its own parent)
+  public int parent(int cell) {
+    return this.up[0][cell];
+  }
+
+  // get the ancestor of the given cell the given number of levels up
+  public int ancestor(int cell, int levels) {
+    for (int k = 0; levels > 0; k++) {
+      if ((levels & 1) != 0) {
+        cell = this.up[k][cell];
+      }
+      levels >>>= 1;
+    }
+    return cell;
+  }
+
+  // get the lowest common ancestor of the two cells
+  public int lca(int a, int b) {
+    if (this.depth[a] < this.depth[b]) {
+      int tmp = a;
+      a = b;
+      b = tmp;
+    }
+    a = this.ancestor(a, this.depth[a] - this.depth[b]);
+    if (a == b) {
+      return a;
+    }
+    for (int k = this.up.length - 1; k >= 0; k--) {
+      if (this.up[k][a] != this.up[k][b]) {
+        a = this.up[k][a];
+        b = this.up[k][b];
+      }
+    }
+    return this.up[0][a];
+  }
+
+  // get the number of steps on the path between the two cells
+  public int distance(int a, int b) {
+    return this.depth[a] + this.depth[b] - 2 * this.depth[this.lca(a, b)];
+  }
+
+  // get the path from a to b, both included
+  public int[] path(int a, int b) {
+    int lca = this.lca(a, b);
+    int[] path = new int[this.depth[a] + this.depth[b] - 2 * this.depth[lca] + 1];
+    int i = 0;
+    for (int cur = a; cur != lca; cur = this.up[0][cur]) {
+      path[i++] = cur;
+    }
+    path[i] = lca;
+    int j = path.length - 1;
+    for (int cur = b; cur != lca; cur = this.up[0][cur]) {
+      path[j--] = cur;
+    }
+    return path;
+  }
+}
+
+// Computes metrics for grading a maze: distance fields, the diameter, dead
+// ends, corridor lengths and junction degrees. Everything is done in linear
+// passes over the maze's adjacency with reusable primitive arrays.
+class MazeAnalysis {
+  final MazeGraph maze;
+  final int numCells;
+  // distance[cell] from the source of the last distance field, -1 if unreached
+  final int[] distance;
+  final int[] queue;
+  final int[] neighbors = new int[4];
+  final int[] exits = new int[4];
+  // the number of open walls around each cell, filled in lazily
+  byte[] degree;
+  // the reached cell farthest from the source of the last distance field, and
+  // the number of cells it reached
+  int farthest;
+  int reached;
+  // the ends of the longest path, set by diameter()
+  int diameterStart = -1;
+  int diameterEnd = -1;
+
+  // constructor
+  MazeAnalysis(MazeGraph maze) {
+    this.maze = maze;
+    this.numCells = maze.numCells();
+    this.distance = new int[this.numCells];
+    this.queue = new int[this.numCells];
+  }
+
+  // get the number of steps from source to every cell, -1 if there is no path
+  // - the array is reused by the next call
+  public int[] distanceField(int source) {
+    Arrays.fill(this.distance, -1);
+    int head = 0;
+    int tail = 0;
+    this.queue[tail++] = source;
+    this.distance[source] = 0;
+    while (head < tail) {
+      int next = this.queue[head++];
+      int count = this.maze.neighbors(next, this.neighbors);
+      for (int i = 0; i < count; i++) {
+        int n = this.neighbors[i];
+        if (this.distance[n] < 0) {
+          this.distance[n] = this.distance[next] + 1;
+          this.queue[tail++] = n;
+        }
+      }
+    }
+    // BFS reaches cells in order of distance, so the last one is the farthest
+    this.farthest = this.queue[tail - 1];
+    this.reached = tail;
+    return this.distance;
+  }
+
+  // get the number of steps on the longest path in the maze - in a tree the
+  // cell farthest from any cell is one end of a longest path, so two BFS are
+  // enough - only for perfect mazes
+  public int diameter() {
+    this.distanceField(0);
+    int passages = 0;
+    for (byte d : this.degrees()) {
+      passages += d;
+    }
+    if (this.reached < this.numCells || passages / 2 != this.numCells - 1) {
+      throw new IllegalStateException("the diameter is only known for perfect mazes");
+    }
+    this.diameterStart = this.farthest;
+    this.distanceField(this.diameterStart);
+    this.diameterEnd = this.farthest;
+    return this.distance[this.diameterEnd];
+  }
+
+  // get the degree of every cell, computing them on the first call
+  byte[] degrees() {
+    if (this.degree == null) {
+      this.degree = new byte[this.numCells];
+      for (int cell = 0; cell < this.numCells; cell++) {
+        this.degree[cell] = (byte) this.maze.neighbors(cell, this.neighbors);
+      }
+    }
+    return this.degree;
+  }
+
+  // get how many cells have each degree, from 0 to 4
+  public int[] degreeCounts() {
+    byte[] degree = this.degrees();
+    int[] counts = new int[5];
+    for (int cell = 0; cell < this.numCells; cell++) {
+      counts[degree[cell]]++;
+    }
+    return counts;
+  }
+
+  // get the number of cells with only one way out
+  public int deadEnds() {
+    return this.degreeCounts()[1];
+  }
+
+  // get how many corridors there are of each length - a corridor is a
+  // maximal run of cells with exactly two ways out, and hist[k] counts the
+  // corridors with k cells
+  public int[] corridorLengths() {
+    byte[] degree = this.degrees();
+    // queue doubles as the marks of cells already in a corridor
+    Arrays.fill(this.queue, 0);
+    int[] hist = new int[this.numCells + 1];
+    int longest = 0;
+    // walk out of every junction or dead end into its corridors
+    for (int cell = 0; cell < this.numCells; cell++) {
+      if (degree[cell] != 2) {
+        // walkCorridor overwrites neighbors, so the exits need their own array
+        int count = this.maze.neighbors(cell, this.exits);
+        for (int i = 0; i < count; i++) {
+          int length = this.walkCorridor(cell, this.exits[i]);
+          if (length > 0) {
+            hist[length]++;
+            longest = Math.max(longest, length);
+          }
+        }
+      }
+    }
+    // corridors left over are loops with no junction on them
+    for (int cell = 0; cell < this.numCells; cell++) {
+      if (degree[cell] == 2 && this.queue[cell] == 0) {
+        this.maze.neighbors(cell, this.neighbors);
+        this.queue[cell] = 1;
+        int length = 1 + this.walkCorridor(cell, this.neighbors[0]);
+        hist[length]++;
+        longest = Math.max(longest, length);
+      }
+    }
+    return Arrays.copyOf(hist, longest + 1);
+  }
+
+  // mark the unmarked corridor cells from cur onward, coming from prev, and
+  // return how many there were
+  int walkCorridor(int prev, int cur) {
+    byte[] degree = this.degrees();
+    int length = 0;
+    while (degree[cur] == 2 && this.queue[cur] == 0) {
+      this.queue[cur] = 1;
+      length++;
+      this.maze.neighbors(cur, this.neighbors);
+      int next = this.neighbors[0] == prev ? this.neighbors[1] : this.neighbors[0];
+      prev = cur;
+      cur = next;
+    }
+    return length;
+  }
+}
+
+// A breadth first search that expands each level of the frontier in parallel
+// on a ForkJoinPool. Cells are claimed with a compare-and-set on a shared
+// visited bitset, so every cell is discovered exactly once and gets the same
+// distance as a serial BFS. Levels smaller than the threshold are expanded on
+// the calling thread, since forking them costs more than it saves.
+class ParallelBfs {
+  public static int DEFAULT_THRESHOLD = 4096;
+  public static int DEFAULT_GRAIN = 1024;
+
+  final MazeGraph maze;
+  final ForkJoinPool pool;
+  final int numCells;
+  // levels with fewer cells than this are expanded serially
+  final int threshold;
+  // the most frontier cells one task expands without forking
+  final int grain;
+  final AtomicLongArray visited;
+  // distance[cell] from the start of the last search, -1 if not reached
+  final int[] distance;
+  int[] frontier;
+  int[] next;
+  final AtomicInteger nextSize = new AtomicInteger();
+  final int[] neighbors = new int[4];
+  // the number of levels the last search expanded in parallel
+  int parallelLevels;
+
+  // constructor
+  ParallelBfs(MazeGraph maze, ForkJoinPool pool) {
+    this(maze, pool, DEFAULT_THRESHOLD, DEFAULT_GRAIN);
+  }
+
+  // constructor w/ custom tuning
+  ParallelBfs(MazeGraph maze, ForkJoinPool pool, int threshold, int grain) {
+    this.maze = maze;
+    this.pool = pool;
+    this.numCells = maze.numCells();
+    this.threshold = threshold;
+    this.grain = grain;
+    this.visited = new AtomicLongArray((this.numCells + 63) >>> 6);
+    this.distance = new int[this.numCells];
+    this.frontier = new int[this.numCells];
+    this.next = new int[this.numCells];
+  }
+
+  // search level by level from start until the level holding goal is done, or
+  // the whole maze if goal is -1 - return whether goal was reached
+  public boolean search(int start, int goal) {
+    for (int i = 0; i < this.visited.length(); i++) {
+      this.visited.set(i, 0L);
+    }
+    Arrays.fill(this.distance, -1);
+    this.parallelLevels = 0;
+    this.claim(start);
+    this.distance[start] = 0;
+    this.frontier[0] = start;
+    int size = 1;
+    int level = 0;
+    while (size > 0 && (goal < 0 || this.distance[goal] < 0)) {
+      this.nextSize.set(0);
+      if (size < this.threshold) {
+        this.nextSize.set(this.expand(this.frontier, 0, size, level, this.neighbors, this.next));
+      }
+      else {
+        this.pool.invoke(new BfsLevelTask(this, 0, size, level));
+        this.parallelLevels++;
+      }
+      int[] tmp = this.frontier;
+      this.frontier = this.next;
+      this.next = tmp;
+      size = this.nextSize.get();
+      level++;
+    }
+    return goal >= 0 && this.distance[goal] >= 0;
+  }
+
+  // try to mark the given cell as visited - return whether this call did it
+  boolean claim(int cell) {
+    int word = cell >>> 6;
+    long bit = 1L << cell;
+    long cur = this.visited.get(word);
+    while ((cur & bit) == 0) {
+      if (this.visited.compareAndSet(word, cur, cur | bit)) {
+        return true;
+      }
+      cur = this.visited.get(word);
+    }
+    return false;
+  }
+
+  // discover the unvisited neighbors of cells[lo, hi) into out and return how
+  // many there were - out must be able to hold 4 cells for each
+  int expand(int[] cells, int lo, int hi, int level, int[] neighbors, int[] out) {
+    int count = 0;
+    for (int i = lo; i < hi; i++) {
+      int cell = cells[i];
+      int n = this.maze.neighbors(cell, neighbors);
+      for (int j = 0; j < n; j++) {
+        int other = neighbors[j];
+        if (this.claim(other)) {
+          this.distance[other] = level + 1;
+          out[count++] = other;
+        }
+      }
+    }
+    return count;
+  }
+
+  // get the path from the start of the last search to goal, both included, by
+  // walking down the distances - goal must have been reached
+  public int[] path(int goal) {
+    int[] path = new int[this.distance[goal] + 1];
+    int cur = goal;
+    for (int i = path.length - 1; i > 0; i--) {
+      path[i] = cur;
+      int n = this.maze.neighbors(cur, this.neighbors);
+      for (int j = 0; j < n; j++) {
+        if (this.distance[this.neighbors[j]] == i - 1) {
+          cur = this.neighbors[j];
+          break;
+        }
+      }
+    }
+    path[0] = cur;
+    return path;
+  }
+}
+
+// Expands a range of one BFS level, splitting it until it is at most the grain
+class BfsLevelTask extends RecursiveAction {
+  static final long serialVersionUID = 1L;
+
+  final ParallelBfs bfs;
+  final int lo;
+  final int hi;
+  final int level;
+
+  BfsLevelTask(ParallelBfs bfs, int lo, int hi, int level) {
+    this.bfs = bfs;
+    this.lo = lo;
+    this.hi = hi;
+    this.level = level;
+  }
+
+  // expand the range, forking while it is bigger than the grain
+  @Override
+  protected void compute() {
+    if (this.hi - this.lo <= this.bfs.grain) {
+      int[] out = new int[4 * (this.hi - this.lo)];
+      int count = this.bfs.expand(this.bfs.frontier, this.lo, this.hi, this.level, new int[4],
+          out);
+      // reserve a slice of the next frontier and copy the discoveries into it
+      System.arraycopy(out, 0, this.bfs.next, this.bfs.nextSize.getAndAdd(count), count);
+    }
+    else {
+      int mid = (this.lo + this.hi) >>> 1;
+      invokeAll(new BfsLevelTask(this.bfs, this.lo, mid, this.level),
+          new BfsLevelTask(this.bfs, mid, this.hi, this.level));
+    }
+  }
+}
+
+// A maze with every corridor collapsed into one weighted edge. Its nodes are
+// the junctions and dead ends (the cells without exactly two ways out), and
+// each edge stands for the run of corridor cells between two nodes, weighted
+// by the number of steps along it. The corridor cells of all the edges are kept
+// back to back in one array so paths can be expanded again, and a single int
+// per cell says where that cell lives. Queries run dijkstra over the nodes
+// only, reusing their arrays from one query to the next.
+class JunctionGraph {
+  static final int UNSET = Integer.MIN_VALUE;
+
+  final MazeGraph maze;
+  final int numCells;
+  // where[cell] is the node of a junction or dead end, or ~i for the cell at
+  // edgeCells[i]
+  final int[] where;
+  int numNodes;
+  int[] nodeCell = new int[16];
+  int numEdges;
+  int[] edgeFrom = new int[16];
+  int[] edgeTo = new int[16];
+  // the cells inside edge e are edgeCells[edgeStart[e]] to
+  // edgeCells[edgeStart[e + 1] - 1], going from edgeFrom[e] to edgeTo[e]
+  int[] edgeStart = new int[17];
+  final int[] edgeCells;
+  int numCorridorCells;
+  // the edges at node n are adjEdge[adjStart[n]] to adjEdge[adjStart[n + 1] - 1],
+  // leading to the nodes in adjNode after the steps in adjWeight
+  int[] adjStart;
+  int[] adjEdge;
+  int[] adjNode;
+  int[] adjWeight;
+  final int[] neighbors = new int[4];
+  final int[] exits = new int[4];
+
+  // whether the nodes and edges form a tree, as they do for a perfect maze
+  boolean tree;
+
+  // query state - dist and prevEdge only hold for nodes stamped with query
+  final IndexedMinHeap open = new IndexedMinHeap();
+  int[] dist;
+  int[] prevEdge;
+  int[] stamp;
+  int[] queue;
+  int query;
+  int startEdge;
+  int goalNode;
+  int goalEdge;
+  int goalPos;
+  int best;
+  // how the best answer of the last query got to the goal: -1 straight along
+  // the corridor both ends are in, otherwise the node it came through
+  int bestVia;
+  boolean viaFrom;
+
+  // constructor
+  JunctionGraph(MazeGraph maze) {
+    this.maze = maze;
+    this.numCells = maze.numCells();
+    this.where = new int[this.numCells];
+    this.edgeCells = new int[this.numCells];
+    Arrays.fill(this.where, UNSET);
+    for (int cell = 0; cell < this.numCells; cell++) {
+      if (maze.neighbors(cell, this.neighbors) != 2) {
+        this.addNode(cell);
+      }
+    }
+    int junctions = this.numNodes;
+    for (int node = 0; node < junctions; node++) {
+      this.walkFrom(node);
+    }
+    // whatever is left are loops with no junction on them - anchor each one at
+    // a node of its own
+    for (int cell = 0; cell < this.numCells; cell++) {
+      if (this.where[cell] == UNSET) {
+        this.walkFrom(this.addNode(cell));
+      }
+    }
+    this.buildAdjacency();
+    this.dist = new int[this.numNodes];
+    this.prevEdge = new int[this.numNodes];
+    this.stamp = new int[this.numNodes];
+    this.queue = new int[this.numNodes];
+    this.tree = this.numEdges == this.numNodes - 1 && this.isConnected();
+  }
+
+  // can every node be reached from node 0?
+  boolean isConnected() {
+    boolean[] seen = new boolean[this.numNodes];
+    int head = 0;
+    int tail = 0;
+    this.queue[tail++] = 0;
+    seen[0] = true;
+    while (head < tail) {
+      int u = this.queue[head++];
+      for (int i = this.adjStart[u]; i < this.adjStart[u + 1]; i++) {
+        int v = this.adjNode[i];
+        if (!seen[v]) {
+          seen[v] = true;
+          this.queue[tail++] = v;
+        }
+      }
+    }
+    return tail == this.numNodes;
+  }
+
+  // make the given cell a node and return the node
+  int addNode(int cell) {
+    if (this.numNodes == this.nodeCell.length) {
+      this.nodeCell = Arrays.copyOf(this.nodeCell, 2 * this.numNodes);
+    }
+    this.nodeCell[this.numNodes] = cell;
+    this.where[cell] = this.numNodes;
+    return this.numNodes++;
+  }
+
+  // add an edge between the two nodes made of the corridor cells added since
+  // the last edge
+  void addEdge(int from, int to) {
+    if (this.numEdges == this.edgeFrom.length) {
+      this.edgeFrom = Arrays.copyOf(this.edgeFrom, 2 * this.numEdges);
+      this.edgeTo = Arrays.copyOf(this.edgeTo, 2 * this.numEdges);
+      this.edgeStart = Arrays.copyOf(this.edgeStart, 2 * this.numEdges + 1);
+    }
+    this.edgeFrom[this.numEdges] = from;
+    this.edgeTo[this.numEdges] = to;
+    this.numEdges++;
+    this.edgeStart[this.numEdges] = this.numCorridorCells;
+  }
+
+  // follow every corridor out of the given node that hasn't been followed yet
+  void walkFrom(int node) {
+    int cell = this.nodeCell[node];
+    int count = this.maze.neighbors(cell, this.exits);
+    for (int i = 0; i < count; i++) {
+      int first = this.exits[i];
+      if (this.where[first] >= 0) {
+        // two nodes side by side - only add the edge from the lower one
+        if (node < this.where[first]) {
+          this.addEdge(node, this.where[first]);
+        }
+      }
+      else if (this.where[first] == UNSET) {
+        int prev = cell;
+        int cur = first;
+        while (this.where[cur] == UNSET) {
+          this.edgeCells[this.numCorridorCells] = cur;
+          this.where[cur] = ~this.numCorridorCells;
+          this.numCorridorCells++;
+          this.maze.neighbors(cur, this.neighbors);
+          int next = this.neighbors[0] == prev ? this.neighbors[1] : this.neighbors[0];
+          prev = cur;
+          cur = next;
+        }
+        this.addEdge(node, this.where[cur]);
+      }
+    }
+  }
+
+  // lay out the edges at each node back to back - loops from a node back to
+  // itself never shorten a path, so they are left out
+  void buildAdjacency() {
+    this.adjStart = new int[this.numNodes + 1];
+    for (int e = 0; e < this.numEdges; e++) {
+      if (this.edgeFrom[e] != this.edgeTo[e]) {
+        this.adjStart[this.edgeFrom[e] + 1]++;
+        this.adjStart[this.edgeTo[e] + 1]++;
+      }
+    }
+    for (int n = 0; n < this.numNodes; n++) {
+      this.adjStart[n + 1] += this.adjStart[n];
+    }
+    this.adjEdge = new int[this.adjStart[this.numNodes]];
+    this.adjNode = new int[this.adjEdge.length];
+    this.adjWeight = new int[this.adjEdge.length];
+    int[] fill = Arrays.copyOf(this.adjStart, this.numNodes);
+    for (int e = 0; e < this.numEdges; e++) {
+      int from = this.edgeFrom[e];
+      int to = this.edgeTo[e];
+      if (from != to) {
+        this.adjEdge[fill[from]] = e;
+        this.adjNode[fill[from]] = to;
+        this.adjWeight[fill[from]++] = this.weight(e);
+        this.adjEdge[fill[to]] = e;
+        this.adjNode[fill[to]] = from;
+        this.adjWeight[fill[to]++] = this.weight(e);
+      }
+    }
+  }
+
+  // get how many cells there are for each node
+  public double compressionRatio() {
+    return (double) this.numCells / this.numNodes;
+  }
+
+  // get the number of steps along the given edge
+  int weight(int edge) {
+    return this.edgeStart[edge + 1] - this.edgeStart[edge] + 1;
+  }
+
+  // get the edge whose cells include edgeCells[i]
+  int edgeAt(int i) {
+    int lo = 0;
+    int hi = this.numEdges - 1;
+    while (lo < hi) {
+      int mid = (lo + hi + 1) >>> 1;
+      if (this.edgeStart[mid] <= i) {
+        lo = mid;
+      }
+      else {
+        hi = mid - 1;
+      }
+    }
+    return lo;
+  }
+
+  // get the number of steps on the shortest path between the two cells, or -1
+  // if there is none
+  public int distance(int start, int goal) {
+    this.query++;
+    this.best = Integer.MAX_VALUE;
+    this.bestVia = -2;
+    this.startEdge = -1;
+    this.goalEdge = -1;
+    this.goalNode = this.where[goal];
+    int p = 0;
+    if (this.where[start] < 0) {
+      this.startEdge = this.edgeAt(~this.where[start]);
+      p = ~this.where[start] - this.edgeStart[this.startEdge];
+    }
+    if (this.goalNode < 0) {
+      this.goalEdge = this.edgeAt(~this.goalNode);
+      this.goalPos = ~this.goalNode - this.edgeStart[this.goalEdge];
+      if (this.goalEdge == this.startEdge) {
+        this.best = Math.abs(p - this.goalPos);
+        this.bestVia = -1;
+        // in a tree there is no other way
+        if (this.tree) {
+          return this.best;
+        }
+      }
+    }
+    if (this.tree) {
+      this.searchTree(start, p);
+    }
+    else {
+      this.searchDijkstra(start, p);
+    }
+    return this.best == Integer.MAX_VALUE ? -1 : this.best;
+  }
+
+  // search a tree of nodes from the start - every node has only one path to
+  // it, so a plain queue finds it and no heap is needed. The start's and the
+  // goal's edges are never crossed, which makes the first end of the goal's
+  // corridor that is reached the one the path goes through.
+  void searchTree(int start, int p) {
+    int head = 0;
+    int tail = 0;
+    boolean found;
+    if (this.startEdge < 0) {
+      found = this.visit(this.where[start], 0, -1);
+      this.queue[tail++] = this.where[start];
+    }
+    else {
+      int from = this.edgeFrom[this.startEdge];
+      int to = this.edgeTo[this.startEdge];
+      found = this.visit(from, p + 1, -1)
+          || this.visit(to, this.weight(this.startEdge) - 1 - p, -1);
+      this.queue[tail++] = from;
+      this.queue[tail++] = to;
+    }
+    while (!found && head < tail) {
+      int u = this.queue[head++];
+      for (int i = this.adjStart[u]; i < this.adjStart[u + 1] && !found; i++) {
+        int e = this.adjEdge[i];
+        int v = this.adjNode[i];
+        if (this.stamp[v] != this.query && e != this.startEdge && e != this.goalEdge) {
+          found = this.visit(v, this.dist[u] + this.adjWeight[i], e);
+          this.queue[tail++] = v;
+        }
+      }
+    }
+  }
+
+  // reach the given node by the given edge after the given number of steps -
+  // return whether that finishes the path to the goal
+  boolean visit(int node, int d, int edge) {
+    this.stamp[node] = this.query;
+    this.dist[node] = d;
+    this.prevEdge[node] = edge;
+    if (node == this.goalNode) {
+      this.best = d;
+      this.bestVia = node;
+      return true;
+    }
+    if (this.goalEdge >= 0 && node == this.edgeFrom[this.goalEdge]) {
+      this.best = d + this.goalPos + 1;
+      this.bestVia = node;
+      this.viaFrom = true;
+      return true;
+    }
+    if (this.goalEdge >= 0 && node == this.edgeTo[this.goalEdge]) {
+      this.best = d + this.weight(this.goalEdge) - 1 - this.goalPos;
+      this.bestVia = node;
+      this.viaFrom = false;
+      return true;
+    }
+    return false;
+  }
+
+  // search the nodes from the start with dijkstra, for mazes with loops
+  void searchDijkstra(int start, int p) {
+    this.open.reset(this.numNodes);
+    if (this.startEdge < 0) {
+      this.seed(this.where[start], 0);
+    }
+    else {
+      this.seed(this.edgeFrom[this.startEdge], p + 1);
+      this.seed(this.edgeTo[this.startEdge], this.weight(this.startEdge) - 1 - p);
+    }
+    while (!this.open.isEmpty()) {
+      int u = this.open.pollMin();
+      int d = this.dist[u];
+      if (d >= this.best) {
+        break;
+      }
+      if (u == this.goalNode) {
+        this.best = d;
+        this.bestVia = u;
+        break;
+      }
+      if (this.goalEdge >= 0) {
+        if (u == this.edgeFrom[this.goalEdge] && d + this.goalPos + 1 < this.best) {
+          this.best = d + this.goalPos + 1;
+          this.bestVia = u;
+          this.viaFrom = true;
+        }
+        int viaTo = d + this.weight(this.goalEdge) - 1 - this.goalPos;
+        if (u == this.edgeTo[this.goalEdge] && viaTo < this.best) {
+          this.best = viaTo;
+          this.bestVia = u;
+          this.viaFrom = false;
+        }
+      }
+      for (int i = this.adjStart[u]; i < this.adjStart[u + 1]; i++) {
+        int e = this.adjEdge[i];
+        int v = this.adjNode[i];
+        int nd = d + this.adjWeight[i];
+        if (this.stamp[v] != this.query) {
+          this.stamp[v] = this.query;
+          this.dist[v] = nd;
+          this.prevEdge[v] = e;
+          this.open.insert(v, nd);
+        }
+        else if (nd < this.dist[v] && this.open.contains(v)) {
+          this.dist[v] = nd;
+          this.prevEdge[v] = e;
+          this.open.decreaseKey(v, nd);
+        }
+      }
+    }
+  }
+
+  // reach the given node after the given number of steps from the start
+  void seed(int node, int d) {
+    if (this.stamp[node] != this.query) {
+      this.stamp[node] = this.query;
+      this.dist[node] = d;
+      this.prevEdge[node] = -1;
+      this.open.insert(node, d);
+    }
+    else if (d < this.dist[node]) {
+      this.dist[node] = d;
+      this.open.decreaseKey(node, d);
+    }
+  }
+
+  // get the shortest path between the two cells, both included, or null if
+  // there is none - corridors are expanded back into their cells
+  public int[] path(int start, int goal) {
+    int length = this.distance(start, goal);
+    if (length < 0) {
+      return null;
+    }
+    int[] path = new int[length + 1];
+    if (this.bestVia == -1) {
+      int base = ~this.where[start];
+      int step = ~this.where[goal] >= base ? 1 : -1;
+      for (int i = 0; i <= length; i++) {
+        path[i] = this.edgeCells[base + step * i];
+      }
+      return path;
+    }
+    int idx = length;
+    int cur = this.bestVia;
+    // from the goal back along its corridor to the node the path came through
+    if (this.where[goal] < 0) {
+      int e = this.edgeAt(~this.where[goal]);
+      int end = this.viaFrom ? this.edgeStart[e] - 1 : this.edgeStart[e + 1];
+      int step = this.viaFrom ? -1 : 1;
+      for (int i = ~this.where[goal]; i != end; i += step) {
+        path[idx--] = this.edgeCells[i];
+      }
+    }
+    // back through the nodes to the one reached from the start
+    while (true) {
+      path[idx--] = this.nodeCell[cur];
+      int e = this.prevEdge[cur];
+      if (e < 0) {
+        break;
+      }
+      if (this.edgeFrom[e] == cur) {
+        for (int i = this.edgeStart[e]; i < this.edgeStart[e + 1]; i++) {
+          path[idx--] = this.edgeCells[i];
+        }
+        cur = this.edgeTo[e];
+      }
+      else {
+        for (int i = this.edgeStart[e + 1] - 1; i >= this.edgeStart[e]; i--) {
+          path[idx--] = this.edgeCells[i];
+        }
+        cur = this.edgeFrom[e];
+      }
+    }
+    // and along the start's corridor from that node to the start
+    if (this.where[start] < 0) {
+      int e = this.edgeAt(~this.where[start]);
+      int p = ~this.where[start] - this.edgeStart[e];
+      if (cur == this.edgeFrom[e] && this.dist[cur] == p + 1) {
+        for (int i = this.edgeStart[e]; i <= ~this.where[start]; i++) {
+          path[idx--] = this.edgeCells[i];
+        }
+      }
+      else {
+        for (int i = this.edgeStart[e + 1] - 1; i >= ~this.where[start]; i--) {
+          path[idx--] = this.edgeCells[i];
+        }
+      }
+    }
+    return path;
+  }
+}
+
+// Turns a perfect maze into one with loops by knocking down a wall next to
+// some of its dead ends. A dead end is joined to a neighboring dead end when
+// there is one, which gets rid of both at once.
+class Braider {
+  public static final long BRAID_REGION = -2;
+
+  // remove the given fraction of the dead ends of the grid, picked at random,
+  // and return the number of walls opened
+  public static int braid(MazeGrid grid, double fraction, SplittableRandom rand) {
+    int[] neighbors = new int[4];
+    int[] deadEnds = new int[grid.numCells];
+    int count = 0;
+    for (int cell = 0; cell < grid.numCells; cell++) {
+      if (grid.neighbors(cell, neighbors) == 1) {
+        deadEnds[count++] = cell;
+      }
+    }
+    MazeRandom.shuffle(deadEnds, count, rand);
+    int targets = (int) Math.round(fraction * count);
+    int[] closed = new int[4];
+    int opened = 0;
+    for (int i = 0; i < targets; i++) {
+      int cell = deadEnds[i];
+      // joining an earlier dead end may already have fixed this one
+      if (grid.degree(cell) != 1) {
+        continue;
+      }
+      int numClosed = 0;
+      int wall = -1;
+      for (int side = 0; side < 4; side++) {
+        int w = Braider.wallOnSide(grid, cell, side);
+        if (w >= 0 && !grid.isOpen(w)) {
+          closed[numClosed++] = w;
+          int other = MazeGrid.cellOf(w) == cell ? grid.otherCell(w) : MazeGrid.cellOf(w);
+          if (grid.degree(other) == 1) {
+            wall = w;
+          }
+        }
+      }
+      if (numClosed == 0) {
+        continue;
+      }
+      if (wall < 0) {
+        wall = closed[rand.nextInt(numClosed)];
+      }
+      grid.open(wall);
+      opened++;
+    }
+    return opened;
+  }
+
+  // get the inner wall on the given side of the cell - right, down, left or up
+  // - or -1 if that side is the edge of the grid
+  static int wallOnSide(MazeGrid grid, int cell, int side) {
+    int col = grid.colOf(cell);
+    int row = grid.rowOf(cell);
+    if (side == 0) {
+      return col < grid.numCols - 1 ? MazeGrid.wallId(cell, MazeGrid.RIGHT) : -1;
+    }
+    else if (side == 1) {
+      return row < grid.numRows - 1 ? MazeGrid.wallId(cell, MazeGrid.DOWN) : -1;
+    }
+    else if (side == 2) {
+      return col > 0 ? MazeGrid.wallId(cell - 1, MazeGrid.RIGHT) : -1;
+    }
+    else {
+      return row > 0 ? MazeGrid.wallId(cell - grid.numCols, MazeGrid.DOWN) : -1;
+    }
+  }
+}
+
+// Per-cell traversal costs for weighted solving
+class Terrain {
+  public static final long TERRAIN_REGION = -3;
+
+  // get a cost between 1 and maxCost for every one of the given cells
+  public static int[] random(int numCells, int maxCost, SplittableRandom rand) {
+    int[] cost = new int[numCells];
+    for (int cell = 0; cell < numCells; cell++) {
+      cost[cell] = 1 + rand.nextInt(maxCost);
+    }
+    return cost;
+  }
+}
+
+// Answers batches of path queries against one shared, read-only maze. The
+// queries are cut into chunks that run concurrently on an executor. A perfect
+// maze is indexed once with a PathIndex, so a distance takes O(log n) and a path
+// time proportional to its length. Any other maze falls back to a BFS per
+// query, with every worker thread keeping one SearchEngine that it reuses from
+// query to query. Answers always come back in the order of the queries.
+class BatchPathSolver {
+  public static int DEFAULT_CHUNK_SIZE = 64;
+
+  final MazeGraph maze;
+  final ExecutorService executor;
+  final int chunkSize;
+  // the index of a perfect maze, null for a maze with loops or cells cut off
+  final PathIndex index;
+  final ThreadLocal<SearchEngine> scratch = ThreadLocal.withInitial(SearchEngine::new);
+
+  // constructor - the maze must not change while queries run, e.g. a FrozenMaze
+  BatchPathSolver(MazeGraph maze, ExecutorService executor) {
+    this(maze, executor, DEFAULT_CHUNK_SIZE);
+  }
+
+  // constructor w/ a custom number of queries per task
+  BatchPathSolver(MazeGraph maze, ExecutorService executor, int chunkSize) {
+    this.maze = maze;
+    this.executor = executor;
+    this.chunkSize = chunkSize;
+    this.index = isPerfect(maze) ? new PathIndex(maze) : null;
+  }
+
+  // is the given maze perfect? - its passages join every cell with no loops
+  static boolean isPerfect(MazeGraph maze) {
+    DisjointSet sets = new DisjointSet(maze.numCells());
+    int joined = 0;
+    for (int cell = 0; cell < maze.numCells(); cell++) {
+      if (maze.isOpen(MazeGrid.wallId(cell, MazeGrid.RIGHT))) {
+        if (!sets.union(cell, cell + 1)) {
+          return false;
+        }
+        joined++;
+      }
+      if (maze.isOpen(MazeGrid.wallId(cell, MazeGrid.DOWN))) {
+        if (!sets.union(cell, cell + maze.numCols())) {
+          return false;
+        }
+        joined++;
+      }
+    }
+    return joined == maze.numCells() - 1;
+  }
+
+  // get a bounded executor with one daemon thread per core
+  public static ExecutorService newExecutor() {
+    return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+      Thread thread = new Thread(r, "maze-batch");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  // get the length of the shortest path between starts[i] and goals[i] for
+  // every i, or -1 where there is none
+  public int[] distances(int[] starts, int[] goals) {
+    int[] res = new int[starts.length];
+    this.runChunks(starts.length, (lo, hi) -> {
+      if (this.index != null) {
+        for (int i = lo; i < hi; i++) {
+          res[i] = this.index.distance(starts[i], goals[i]);
+        }
+        return;
+      }
+      SearchEngine search = this.scratch.get();
+      for (int i = lo; i < hi; i++) {
+        res[i] = this.distance(search, starts[i], goals[i]);
+      }
+    });
+    return res;
+  }
+
+  // get the shortest path between starts[i] and goals[i] (both included) for
+  // every i, or null where there is none
+  public int[][] paths(int[] starts, int[] goals) {
+    int[][] res = new int[starts.length][];
+    this.runChunks(starts.length, (lo, hi) -> {
+      if (this.index != null) {
+        for (int i = lo; i < hi; i++) {
+          res[i] = this.index.path(starts[i], goals[i]);
+        }
+        return;
+      }
+      SearchEngine search = this.scratch.get();
+      for (int i = lo; i < hi; i++) {
+        int length = this.distance(search, starts[i], goals[i]);
+        if (length >= 0) {
+          int[] path = new int[length + 1];
+          int cur = goals[i];
+          for (int j = length; j >= 0; j--) {
+            path[j] = cur;
+            cur = search.cameFrom[cur];
+          }
+          res[i] = path;
+        }
+      }
+    });
+    return res;
+  }
+
+  // search for one query with the given engine and return the length of its
+  // path, leaving cameFrom pointing back along it. A plain BFS, since the
+  // bidirectional one doesn't always find the shortest path in a maze with
+  // loops.
+  int distance(SearchEngine search, int start, int goal) {
+    if (!search.bfs(this.maze, start, goal)) {
+      return -1;
+    }
+    int length = 0;
+    for (int cur = goal; cur != start; cur = search.cameFrom[cur]) {
+      length++;
+    }
+    return length;
+  }
+
+  // run the queries [0, count) in chunks on the executor and wait for all of
+  // them
+  void runChunks(int count, ChunkTask task) {
+    ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+    for (int lo = 0; lo < count; lo += this.chunkSize) {
+      int chunkLo = lo;
+      int chunkHi = Math.min(count, lo + this.chunkSize);
+      futures.add(this.executor.submit(() -> task.run(chunkLo, chunkHi)));
+    }
+    try {
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted while waiting for path queries", e);
+    }
+    catch (ExecutionException e) {
+      throw new IllegalStateException("path query failed", e.getCause());
+    }
+  }
+}
+
+// Runs the queries [lo, hi) of a batch
+interface ChunkTask {
+  void run(int lo, int hi);
+}
+
+// The ways a Maze can be generated
+enum MazeAlgorithm {
+  // kruskal's algorithm over the whole grid on one thread
+  KRUSKAL,
+  // kruskal's algorithm inside tiles on a ForkJoinPool, stitched together by a
+  // final kruskal pass over the walls between tiles - see TiledGenerator
+  TILED_KRUSKAL,
+  // eller's algorithm, one row at a time - see EllerGenerator
+  ELLER
+}
+
+// Builds a maze on several threads. The grid is cut into square tiles, every
+// tile gets a spanning tree of its own on a ForkJoinPool, and then a kruskal
+// pass over the walls between tiles joins the tiles into a single tree. Each
+// tile is connected on its own, so the stitching pass only has to track one
+// set per tile and the result is still a perfect maze.
+class TiledGenerator {
+  public static int DEFAULT_TILE_SIZE = 256;
+  // tile i draws from region i of the seed, the stitching pass from this one
+  public static final long STITCH_REGION = -1;
+
+  final MazeGrid grid;
+  final int tileSize;
+  final long seed;
+  final int tilesAcross;
+  final int tilesDown;
+  final int numTiles;
+  // the walls each tile knocked down, as grid wall ids
+  final int[][] tileWalls;
+
+  // constructor - DOES NOT ERROR CHECK, tileSize must be positive
+  TiledGenerator(MazeGrid grid, int tileSize, long seed) {
+    this.grid = grid;
+    this.tileSize = tileSize;
+    this.seed = seed;
+    this.tilesAcross = (grid.numCols + tileSize - 1) / tileSize;
+    this.tilesDown = (grid.numRows + tileSize - 1) / tileSize;
+    this.numTiles = this.tilesAcross * this.tilesDown;
+    this.tileWalls = new int[this.numTiles][];
+  }
+
+  // build the whole maze on the given pool and return how many walls were
+  // knocked down (always numCells - 1)
+  public int generate(ForkJoinPool pool) {
+    pool.invoke(new TileTask(this, 0, this.numTiles));
+    int opened = 0;
+    for (int tile = 0; tile < this.numTiles; tile++) {
+      for (int wall : this.tileWalls[tile]) {
+        this.grid.open(wall);
+      }
+      opened += this.tileWalls[tile].length;
+      this.tileWalls[tile] = null;
+    }
+    return opened + this.stitch();
+  }
+
+  // get the tile holding the given cell
+  public int tileOf(int cell) {
+    return (this.grid.rowOf(cell) / this.tileSize) * this.tilesAcross
+        + this.grid.colOf(cell) / this.tileSize;
+  }
+
+  // run kruskal's algorithm inside a single tile and remember the walls it
+  // knocked down. Only touches memory owned by this tile, so tiles can be built
+  // at the same time.
+  void buildTile(int tile) {
+    int col0 = (tile % this.tilesAcross) * this.tileSize;
+    int row0 = (tile / this.tilesAcross) * this.tileSize;
+    int width = Math.min(this.tileSize, this.grid.numCols - col0);
+    int height = Math.min(this.tileSize, this.grid.numRows - row0);
+    // the tile is a small grid of its own - reuse its wall numbering
+    MazeGrid local = new MazeGrid(height, width);
+    KruskalEngine engine = new KruskalEngine(local, MazeRandom.forRegion(this.seed, tile));
+    int[] accepted = new int[local.numCells - 1];
+    int count = 0;
+    while (!engine.finished()) {
+      int wall = engine.walls[engine.cursor];
+      if (engine.step()) {
+        int cell = MazeGrid.cellOf(wall);
+        int gridCell = this.grid.index(col0 + local.colOf(cell), row0 + local.rowOf(cell));
+        accepted[count++] = MazeGrid.wallId(gridCell, wall & 1);
+      }
+    }
+    this.tileWalls[tile] = accepted;
+  }
+
+  // join the finished tiles with a kruskal pass over the walls on tile borders
+  // and return how many walls it knocked down
+  int stitch() {
+    int[] walls = new int[this.tilesDown * (this.tilesAcross - 1) * this.tileSize
+        + (this.tilesDown - 1) * this.tilesAcross * this.tileSize];
+    int count = 0;
+    // walls on the right border of a tile
+    for (int col = this.tileSize - 1; col < this.grid.numCols - 1; col += this.tileSize) {
+      for (int row = 0; row < this.grid.numRows; row++) {
+        walls[count++] = MazeGrid.wallId(this.grid.index(col, row), MazeGrid.RIGHT);
+      }
+    }
+    // walls on the bottom border of a tile
+    for (int row = this.tileSize - 1; row < this.grid.numRows - 1; row += this.tileSize) {
+      for (int col = 0; col < this.grid.numCols; col++) {
+        walls[count++] = MazeGrid.wallId(this.grid.index(col, row), MazeGrid.DOWN);
+      }
+    }
+    MazeRandom.shuffle(walls, count, MazeRandom.forRegion(this.seed, STITCH_REGION));
+    DisjointSet tiles = new DisjointSet(this.numTiles);
+    for (int i = 0; i < count && tiles.numSets > 1; i++) {
+      int wall = walls[i];
+      if (tiles.union(this.tileOf(MazeGrid.cellOf(wall)), this.tileOf(this.grid.otherCell(wall)))) {
+        this.grid.open(wall);
+      }
+    }
+    return (int) tiles.numLinks;
+  }
+}
+
+// Builds the tiles in the range [lo, hi) of a TiledGenerator, splitting the
+// range in half until a single tile is left
+class TileTask extends RecursiveAction {
+  static final long serialVersionUID = 1L;
+
+  final TiledGenerator gen;
+  final int lo;
+  final int hi;
+
+  TileTask(TiledGenerator gen, int lo, int hi) {
+    this.gen = gen;
+    this.lo = lo;
+    this.hi = hi;
+  }
+
+  // build the tiles, forking when there is more than one
+  @Override
+  protected void compute() {
+    if (this.hi - this.lo == 1) {
+      this.gen.buildTile(this.lo);
+    }
+    else {
+      int mid = (this.lo + this.hi) >>> 1;
+      invokeAll(new TileTask(this.gen, this.lo, mid), new TileTask(this.gen, mid, this.hi));
+    }
+  }
+}
+
+// Receives the rows of a maze one at a time, top to bottom, as soon as they are
+// finished. Bit col of right is set when the wall to the right of that cell has
+// been knocked down and bit col of down when the wall below it has. The arrays
+// are reused for the next row, so copy anything that has to be kept.
+interface RowSink {
+  void acceptRow(int row, long[] right, long[] down) throws IOException;
+}
+
+// Generates a maze row by row with eller's algorithm. Only the set labels of
+// the current row are kept, so memory is O(columns) however many rows there
+// are, and every finished row is handed to a RowSink straight away. Row i draws
+// from region i of the seed.
+class EllerGenerator {
+  final int numRows;
+  final int numCols;
+  final long seed;
+  SplittableRandom rand;
+
+  // set label of every cell in the current row - labels are always < numCols
+  final int[] labels;
+  // union-find over labels, reset every row
+  final int[] parent;
+  // bookkeeping used while picking the walls below a row
+  final boolean[] labelInUse;
+  final boolean[] labelHasDown;
+  final int[] labelSeen;
+  final int[] labelPick;
+
+  final long[] right;
+  final long[] down;
+
+  // constructor - DOES NOT ERROR CHECK
+  EllerGenerator(int rows, int cols, long seed) {
+    this.numRows = rows;
+    this.numCols = cols;
+    this.seed = seed;
+    this.labels = new int[cols];
+    this.parent = new int[cols];
+    this.labelInUse = new boolean[cols];
+    this.labelHasDown = new boolean[cols];
+    this.labelSeen = new int[cols];
+    this.labelPick = new int[cols];
+    this.right = new long[(cols + 63) >>> 6];
+    this.down = new long[(cols + 63) >>> 6];
+  }
+
+  // generate every row and hand it to the sink
+  public void generate(RowSink sink) throws IOException {
+    // the first row starts out with every cell in a set of its own
+    for (int col = 0; col < this.numCols; col++) {
+      this.labels[col] = col;
+    }
+    for (int row = 0; row < this.numRows; row++) {
+      this.rand = MazeRandom.forRegion(this.seed, row);
+      Arrays.fill(this.right, 0L);
+      Arrays.fill(this.down, 0L);
+      for (int label = 0; label < this.numCols; label++) {
+        this.parent[label] = label;
+      }
+      boolean lastRow = row == this.numRows - 1;
+      this.joinAcross(lastRow);
+      if (!lastRow) {
+        this.joinDown();
+      }
+      sink.acceptRow(row, this.right, this.down);
+    }
+  }
+
+  // knock down walls between neighbors in different sets - at random, or always
+  // on the last row so that everything ends up connected
+  void joinAcross(boolean lastRow) {
+    for (int col = 0; col < this.numCols - 1; col++) {
+      int a = this.find(this.labels[col]);
+      int b = this.find(this.labels[col + 1]);
+      if (a != b && (lastRow || this.rand.nextBoolean())) {
+        this.parent[b] = a;
+        this.right[col >>> 6] |= 1L << col;
+      }
+    }
+    for (int col = 0; col < this.numCols; col++) {
+      this.labels[col] = this.find(this.labels[col]);
+    }
+  }
+
+  // knock down walls below the row at random, at least one per set, and work
+  // out the labels of the next row
+  void joinDown() {
+    Arrays.fill(this.labelHasDown, false);
+    Arrays.fill(this.labelSeen, 0);
+    for (int col = 0; col < this.numCols; col++) {
+      int label = this.labels[col];
+      // reservoir sample one cell per set in case none of them go down
+      this.labelSeen[label]++;
+      if (this.rand.nextInt(this.labelSeen[label]) == 0) {
+        this.labelPick[label] = col;
+      }
+      if (this.rand.nextBoolean()) {
+        this.down[col >>> 6] |= 1L << col;
+        this.labelHasDown[label] = true;
+      }
+    }
+    for (int col = 0; col < this.numCols; col++) {
+      int label = this.labels[col];
+      if (!this.labelHasDown[label]) {
+        int pick = this.labelPick[label];
+        this.down[pick >>> 6] |= 1L << pick;
+        this.labelHasDown[label] = true;
+      }
+    }
+    // cells below a knocked down wall keep their set, the others get a new one
+    Arrays.fill(this.labelInUse, false);
+    for (int col = 0; col < this.numCols; col++) {
+      if ((this.down[col >>> 6] & (1L << col)) != 0) {
+        this.labelInUse[this.labels[col]] = true;
+      }
+    }
+    int free = 0;
+    for (int col = 0; col < this.numCols; col++) {
+      if ((this.down[col >>> 6] & (1L << col)) == 0) {
+        while (this.labelInUse[free]) {
+          free++;
+        }
+        this.labels[col] = free;
+        this.labelInUse[free] = true;
+      }
+    }
+  }
+
+  // get the representative label of the given label in the current row
+  int find(int label) {
+    while (this.parent[label] != label) {
+      this.parent[label] = this.parent[this.parent[label]];
+      label = this.parent[label];
+    }
+    return label;
+  }
+
+  // generate a maze with the given number of rows and columns into a file
+  public static void writeFile(String path, int rows, int cols, long seed) throws IOException {
+    OutputStream out = new BufferedOutputStream(new FileOutputStream(path), 1 << 16);
+    try {
+      new EllerGenerator(rows, cols, seed).generate(new RowStreamWriter(out, rows, cols));
+    }
+    finally {
+      out.close();
+    }
+  }
+}
+
+// Writes rows to an OutputStream: a magic number and the number of rows and
+// columns as three ints, then for every row the right bits and the down bits,
+// each packed into (numCols + 7) / 8 little-endian bytes
+class RowStreamWriter implements RowSink {
+  public static final int MAGIC = 0x4D5A5253;
+  final DataOutputStream out;
+  final int numRows;
+  final byte[] buffer;
+
+  // constructor - writes the header straight away
+  RowStreamWriter(OutputStream out, int rows, int cols) throws IOException {
+    this.out = new DataOutputStream(out);
+    this.numRows = rows;
+    this.buffer = new byte[(cols + 7) >>> 3];
+    this.out.writeInt(MAGIC);
+    this.out.writeInt(rows);
+    this.out.writeInt(cols);
+  }
+
+  // write the bits of a row - flushes after the last row
+  public void acceptRow(int row, long[] right, long[] down) throws IOException {
+    this.writeBits(right);
+    this.writeBits(down);
+    if (row == this.numRows - 1) {
+      this.out.flush();
+    }
+  }
+
+  // pack the given bits into bytes and write them
+  void writeBits(long[] bits) throws IOException {
+    for (int i = 0; i < this.buffer.length; i++) {
+      this.buffer[i] = (byte) (bits[i >>> 3] >>> (8 * (i & 7)));
+    }
+    this.out.write(this.buffer);
+  }
+}
+
+// Copies every row it receives into a MazeGrid
+class GridRowSink implements RowSink {
+  final MazeGrid grid;
+
+  GridRowSink(MazeGrid grid) {
+    this.grid = grid;
+  }
+
+  // knock down the walls of the row in the grid - bits for walls on the
+  // border of the grid are left out
+  public void acceptRow(int row, long[] right, long[] down) {
+    boolean lastRow = row == this.grid.numRows - 1;
+    for (int col = 0; col < this.grid.numCols; col++) {
+      int cell = this.grid.index(col, row);
+      if ((right[col >>> 6] & (1L << col)) != 0 && col < this.grid.numCols - 1) {
+        this.grid.open(MazeGrid.wallId(cell, MazeGrid.RIGHT));
+      }
+      if ((down[col >>> 6] & (1L << col)) != 0 && !lastRow) {
+        this.grid.open(MazeGrid.wallId(cell, MazeGrid.DOWN));
+      }
+    }
+  }
+
+  // read a maze written by a RowStreamWriter back into a grid - only for mazes
+  // small enough to fit in memory
+  public static MazeGrid read(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(in);
+    if (data.readInt() != RowStreamWriter.MAGIC) {
+      throw new IOException("not a row stream");
+    }
+    int rows = data.readInt();
+    int cols = data.readInt();
+    if (rows <= 0 || cols <= 0 || (long) rows * cols > Integer.MAX_VALUE / 2) {
+      throw new IOException("corrupt row stream");
+    }
+    MazeGrid grid = new MazeGrid(rows, cols);
+    GridRowSink sink = new GridRowSink(grid);
+    byte[] buffer = new byte[(cols + 7) >>> 3];
+    long[] right = new long[(cols + 63) >>> 6];
+    long[] down = new long[(cols + 63) >>> 6];
+    for (int row = 0; row < rows; row++) {
+      readBits(data, buffer, right);
+      readBits(data, buffer, down);
+      sink.acceptRow(row, right, down);
+    }
+    return grid;
+  }
+
+  // read packed bytes back into bits
+  static void readBits(DataInputStream data, byte[] buffer, long[] bits) throws IOException {
+    data.readFully(buffer);
+    Arrays.fill(bits, 0L);
+    for (int i = 0; i < buffer.length; i++) {
+      bits[i >>> 3] |= (buffer[i] & 0xFFL) << (8 * (i & 7));
+    }
+  }
+}
+
+// Saves mazes in a binary file that can be memory-mapped back in. The file is a
+// 32 byte header - magic, version, rows, cols, seed, algorithm and 4 reserved
+// bytes - followed by the passage bits of a MazeGrid as little-endian longs.
+// Files are read and written through mapped buffers, a chunk of 2^27 longs at
+// a time, so no single buffer passes the 2GB limit.
+class MazeFile {
+  public static final int MAGIC = 0x4D415A45;
+  public static final int VERSION = 1;
+  public static final int HEADER_BYTES = 32;
+  static final int CHUNK_SHIFT = 27;
+  static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+  // the most cells a file holds - twice as many wall ids still fit in an int
+  public static final long MAX_CELLS = 1L << 30;
+
+  // get the number of longs holding the passages of a maze with the given
+  // number of cells
+  static long numWords(long numCells) {
+    return (2L * numCells + 63) >>> 6;
+  }
+
+  // save the given grid to the file at the given path, replacing it
+  public static void write(Path path, MazeGrid grid, MazeAlgorithm algorithm, long seed)
+      throws IOException {
+    LongBuffer[] chunks = create(path, grid.numRows, grid.numCols, algorithm, seed);
+    for (int i = 0; i < chunks.length; i++) {
+      chunks[i].put(grid.passages, i << CHUNK_SHIFT, chunks[i].capacity());
+    }
+  }
+
+  // stream a maze with eller's algorithm straight into the file at the given
+  // path - the maze is never held on the heap, so it can be far bigger than
+  // the memory there is
+  public static void writeEller(Path path, int rows, int cols, long seed) throws IOException {
+    MappedMaze maze = new MappedMaze(rows, cols, MazeAlgorithm.ELLER, seed,
+        create(path, rows, cols, MazeAlgorithm.ELLER, seed));
+    new EllerGenerator(rows, cols, seed).generate((row, right, down) -> {
+      int cell = row * cols;
+      for (int col = 0; col < cols; col++, cell++) {
+        if ((right[col >>> 6] & (1L << col)) != 0) {
+          maze.open(MazeGrid.wallId(cell, MazeGrid.RIGHT));
+        }
+        if ((down[col >>> 6] & (1L << col)) != 0) {
+          maze.open(MazeGrid.wallId(cell, MazeGrid.DOWN));
+        }
+      }
+    });
+  }
+
+  // make a file for a maze with every wall up, write its header and map its
+  // passages for writing
+  static LongBuffer[] create(Path path, int rows, int cols, MazeAlgorithm algorithm, long seed)
+      throws IOException {
+    if ((long) rows * cols > MAX_CELLS) {
+      throw new IllegalArgumentException("a maze file holds at most " + MAX_CELLS + " cells");
+    }
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES)
+          .order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(MAGIC);
+      header.putInt(VERSION);
+      header.putInt(rows);
+      header.putInt(cols);
+      header.putLong(seed);
+      header.putInt(algorithm.ordinal());
+      header.putInt(0);
+      return map(channel, FileChannel.MapMode.READ_WRITE, numWords((long) rows * cols));
+    }
+  }
+
+  // map the passages of the maze file at the given path for reading, without
+  // copying them onto the heap
+  public static MappedMaze open(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() < HEADER_BYTES) {
+        throw new IOException("not a maze file: " + path);
+      }
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES)
+          .order(ByteOrder.LITTLE_ENDIAN);
+      if (header.getInt() != MAGIC) {
+        throw new IOException("not a maze file: " + path);
+      }
+      int version = header.getInt();
+      if (version != VERSION) {
+        throw new IOException("unsupported maze file version " + version + ": " + path);
+      }
+      int rows = header.getInt();
+      int cols = header.getInt();
+      long seed = header.getLong();
+      int algorithm = header.getInt();
+      if ((long) rows * cols > MAX_CELLS) {
+        throw new IOException("maze file too big: " + path);
+      }
+      long words = numWords((long) rows * cols);
+      if (rows <= 0 || cols <= 0 || algorithm < 0 || algorithm >= MazeAlgorithm.values().length
+          || channel.size() != HEADER_BYTES + 8 * words) {
+        throw new IOException("corrupt maze file: " + path);
+      }
+      return new MappedMaze(rows, cols, MazeAlgorithm.values()[algorithm], seed,
+          map(channel, FileChannel.MapMode.READ_ONLY, words));
+    }
+  }
+
+  // map the given number of longs after the header, a chunk at a time
+  static LongBuffer[] map(FileChannel channel, FileChannel.MapMode mode, long numWords)
+      throws IOException {
+    LongBuffer[] chunks = new LongBuffer[(int) ((numWords + CHUNK_MASK) >>> CHUNK_SHIFT)];
+    for (int i = 0; i < chunks.length; i++) {
+      long first = (long) i << CHUNK_SHIFT;
+      long count = Math.min(numWords - first, 1L << CHUNK_SHIFT);
+      chunks[i] = channel.map(mode, HEADER_BYTES + 8 * first, 8 * count)
+          .order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+    }
+    return chunks;
+  }
+}
+
+// A maze whose passages are read straight out of a memory-mapped MazeFile, so
+// the solvers can run on it without loading it onto the heap
+class MappedMaze implements MazeGraph {
+  final int numRows;
+  final int numCols;
+  final int numCells;
+  public final MazeAlgorithm algorithm;
+  public final long seed;
+  final LongBuffer[] chunks;
+
+  // constructor - use MazeFile.open
+  MappedMaze(int rows, int cols, MazeAlgorithm algorithm, long seed, LongBuffer[] chunks) {
+    this.numRows = rows;
+    this.numCols = cols;
+    this.numCells = rows * cols;
+    this.algorithm = algorithm;
+    this.seed = seed;
+    this.chunks = chunks;
+  }
+
+  // get the number of rows
+  public int numRows() {
+    return this.numRows;
+  }
+
+  // get the number of columns
+  public int numCols() {
+    return this.numCols;
+  }
+
+  // get the number of cells
+  public int numCells() {
+    return this.numCells;
+  }
+
+  // get the long holding the given wall
+  long word(int wall) {
+    int word = wall >>> 6;
+    return this.chunks[word >>> MazeFile.CHUNK_SHIFT].get(word & MazeFile.CHUNK_MASK);
+  }
+
+  // has the given wall been knocked down?
+  public boolean isOpen(int wall) {
+    return (this.word(wall) & (1L << wall)) != 0;
+  }
+
+  // knock down the given wall - only for mazes mapped for writing
+  void open(int wall) {
+    int word = wall >>> 6;
+    LongBuffer chunk = this.chunks[word >>> MazeFile.CHUNK_SHIFT];
+    int i = word & MazeFile.CHUNK_MASK;
+    chunk.put(i, chunk.get(i) | (1L << wall));
+  }
+
+  // write the cells connected to the given cell into out in the order right,
+  // down, left, up and return how many there are
+  public int neighbors(int cell, int[] out) {
+    int count = 0;
+    int col = cell % this.numCols;
+    if (col < this.numCols - 1 && this.isOpen(MazeGrid.wallId(cell, MazeGrid.RIGHT))) {
+      out[count++] = cell + 1;
+    }
+    if (cell + this.numCols < this.numCells
+        && this.isOpen(MazeGrid.wallId(cell, MazeGrid.DOWN))) {
+      out[count++] = cell + this.numCols;
+    }
+    if (col > 0 && this.isOpen(MazeGrid.wallId(cell - 1, MazeGrid.RIGHT))) {
+      out[count++] = cell - 1;
+    }
+    if (cell >= this.numCols && this.isOpen(MazeGrid.wallId(cell - this.numCols, MazeGrid.DOWN))) {
+      out[count++] = cell - this.numCols;
+    }
+    return count;
+  }
+
+  // copy the passages onto the heap as a MazeGrid
+  public MazeGrid toGrid() {
+    MazeGrid grid = new MazeGrid(this.numRows, this.numCols);
+    for (int i = 0; i < this.chunks.length; i++) {
+      this.chunks[i].get(0, grid.passages, i << MazeFile.CHUNK_SHIFT, this.chunks[i].capacity());
+    }
+    return grid;
+  }
+}
+
+// The adaptive binary range coder of LZMA. Every bit is coded with an 11 bit
+// probability that it is 0, which moves 1/32 of the way towards each bit seen.
+class RangeEncoder {
+  static final int PROB_BITS = 11;
+  static final int PROB_INIT = 1 << (PROB_BITS - 1);
+  static final int MOVE_BITS = 5;
+
+  final OutputStream out;
+  long low = 0;
+  int range = -1;
+  int cache = 0;
+  long cacheSize = 1;
+
+  RangeEncoder(OutputStream out) {
+    this.out = out;
+  }
+
+  // code one bit with the probability at probs[i] and update it
+  void encodeBit(short[] probs, int i, int bit) throws IOException {
+    int p = probs[i];
+    int bound = (this.range >>> PROB_BITS) * p;
+    if (bit == 0) {
+      this.range = bound;
+      probs[i] = (short) (p + (((1 << PROB_BITS) - p) >>> MOVE_BITS));
+    }
+    else {
+      this.low += bound & 0xFFFFFFFFL;
+      this.range -= bound;
+      probs[i] = (short) (p - (p >>> MOVE_BITS));
+    }
+    while ((this.range & 0xFF000000) == 0) {
+      this.range <<= 8;
+      this.shiftLow();
+    }
+  }
+
+  // write out the top byte of low, holding back 0xFF bytes until it is known
+  // whether a carry will reach them
+  void shiftLow() throws IOException {
+    if (this.low < 0xFF000000L || this.low > 0xFFFFFFFFL) {
+      int carry = (int) (this.low >>> 32);
+      int temp = this.cache;
+      do {
+        this.out.write(temp + carry);
+        temp = 0xFF;
+      } while (--this.cacheSize != 0);
+      this.cache = (int) (this.low >>> 24) & 0xFF;
+    }
+    this.cacheSize++;
+    this.low = (this.low & 0x00FFFFFFL) << 8;
+  }
+
+  // write out everything still held back
+  void finish() throws IOException {
+    for (int i = 0; i < 5; i++) {
+      this.shiftLow();
+    }
+  }
+}
+
+// Decodes the bits of a RangeEncoder, given the same probabilities in the same
+// order
+class RangeDecoder {
+  final InputStream in;
+  int range = -1;
+  int code = 0;
+
+  // constructor - reads the first bytes of the code straight away
+  RangeDecoder(InputStream in) throws IOException {
+    this.in = in;
+    for (int i = 0; i < 5; i++) {
+      this.code = (this.code << 8) | this.nextByte();
+    }
+  }
+
+  // decode one bit with the probability at probs[i] and update it
+  int decodeBit(short[] probs, int i) throws IOException {
+    int p = probs[i];
+    int bound = (this.range >>> RangeEncoder.PROB_BITS) * p;
+    int bit;
+    if (Integer.compareUnsigned(this.code, bound) < 0) {
+      this.range = bound;
+      probs[i] = (short) (p + (((1 << RangeEncoder.PROB_BITS) - p) >>> RangeEncoder.MOVE_BITS));
+      bit = 0;
+    }
+    else {
+      this.code -= bound;
+      this.range -= bound;
+      probs[i] = (short) (p - (p >>> RangeEncoder.MOVE_BITS));
+      bit = 1;
+    }
+    while ((this.range & 0xFF000000) == 0) {
+      this.range <<= 8;
+      this.code = (this.code << 8) | this.nextByte();
+    }
+    return bit;
+  }
+
+  // read the next byte of the code
+  int nextByte() throws IOException {
+    int b = this.in.read();
+    if (b < 0) {
+      throw new EOFException("compressed maze ends early");
+    }
+    return b;
+  }
+}
+
+// Compresses perfect mazes for archiving. Both sides of the codec follow the
+// sets of connected cells row by row, the way eller's algorithm does, which
+// makes many of the wall bits certain: a right wall between two cells already
+// in the same set has to stay up, or there would be a loop, and the last cell
+// of a set in a row has to open downwards if none of the others did, or the
+// set would be cut off. Those bits are never written. The rest are range coded
+// with adaptive probabilities picked by the bits already coded around them.
+// Rows go in and come out one at a time through RowSinks, so neither side
+// holds more than a couple of rows of the maze.
+//
+// The stream is a header - magic, rows, cols, seed and algorithm - and then
+// the range coded bits.
+class TreeCodec {
+  public static final int MAGIC = 0x4D5A5443;
+
+  // write the header of a compressed maze
+  static void writeHeader(DataOutputStream out, int rows, int cols, MazeAlgorithm algorithm,
+      long seed) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(rows);
+    out.writeInt(cols);
+    out.writeLong(seed);
+    out.writeInt(algorithm.ordinal());
+  }
+
+  // get the bit for the given column
+  static int bit(long[] bits, int col) {
+    return (int) (bits[col >>> 6] >>> col) & 1;
+  }
+
+  // compress the given maze into the stream - only for perfect mazes
+  public static void encode(Maze maze, OutputStream out) throws IOException {
+    MazeGrid grid = maze.grid;
+    TreeEncoder encoder = new TreeEncoder(out, grid.numRows, grid.numCols, maze.algorithm,
+        maze.seed);
+    long[] right = new long[(grid.numCols + 63) >>> 6];
+    long[] down = new long[right.length];
+    for (int row = 0; row < grid.numRows; row++) {
+      Arrays.fill(right, 0L);
+      Arrays.fill(down, 0L);
+      for (int col = 0; col < grid.numCols; col++) {
+        int cell = grid.index(col, row);
+        if (grid.isOpen(MazeGrid.wallId(cell, MazeGrid.RIGHT))) {
+          right[col >>> 6] |= 1L << col;
+        }
+        if (grid.isOpen(MazeGrid.wallId(cell, MazeGrid.DOWN))) {
+          down[col >>> 6] |= 1L << col;
+        }
+      }
+      encoder.acceptRow(row, right, down);
+    }
+  }
+
+  // decompress a maze from the stream onto the heap
+  public static Maze decode(InputStream in) throws IOException {
+    TreeDecoder decoder = new TreeDecoder(in);
+    if ((long) decoder.numRows * decoder.numCols > MazeFile.MAX_CELLS) {
+      throw new IOException("corrupt compressed maze");
+    }
+    MazeGrid grid = new MazeGrid(decoder.numRows, decoder.numCols);
+    decoder.decode(new GridRowSink(grid));
+    return new Maze(grid, decoder.algorithm, decoder.seed);
+  }
+}
+
+// The state TreeEncoder and TreeDecoder both keep while going down the rows:
+// the set of every cell of the current row, which bits are certain, and the
+// probabilities of the ones that aren't
+class TreeRowModel {
+  final int numRows;
+  final int numCols;
+  // set label of every cell in the current row - labels are always < numCols
+  final int[] labels;
+  // union-find over labels, reset every row
+  final int[] parent;
+  final boolean[] labelInUse;
+  final boolean[] labelHasDown;
+  // how many cells of each set haven't had their down bit yet - in the last
+  // row, how many are still to the right
+  final int[] labelLeft;
+  final short[] rightProbs = new short[8];
+  final short[] downProbs = new short[16];
+  // whether the current row is the last one, where every set has to meet
+  // through the right walls that are left
+  boolean lastRow;
+
+  // constructor
+  TreeRowModel(int rows, int cols) {
+    this.numRows = rows;
+    this.numCols = cols;
+    this.labels = new int[cols];
+    this.parent = new int[cols];
+    this.labelInUse = new boolean[cols];
+    this.labelHasDown = new boolean[cols];
+    this.labelLeft = new int[cols];
+    for (int col = 0; col < cols; col++) {
+      this.labels[col] = col;
+    }
+    Arrays.fill(this.rightProbs, (short) RangeEncoder.PROB_INIT);
+    Arrays.fill(this.downProbs, (short) RangeEncoder.PROB_INIT);
+  }
+
+  // get ready for the given row, below a row with the given down bits - cells
+  // below an open wall keep their set, the others get a new one
+  void startRow(int row, long[] prevDown) {
+    this.lastRow = row == this.numRows - 1;
+    if (row > 0) {
+      Arrays.fill(this.labelInUse, false);
+      for (int col = 0; col < this.numCols; col++) {
+        if (TreeCodec.bit(prevDown, col) != 0) {
+          this.labelInUse[this.labels[col]] = true;
+        }
+      }
+      int free = 0;
+      for (int col = 0; col < this.numCols; col++) {
+        if (TreeCodec.bit(prevDown, col) == 0) {
+          while (this.labelInUse[free]) {
+            free++;
+          }
+          this.labels[col] = free;
+          this.labelInUse[free] = true;
+        }
+      }
+    }
+    for (int label = 0; label < this.numCols; label++) {
+      this.parent[label] = label;
+    }
+    if (this.lastRow) {
+      Arrays.fill(this.labelLeft, 0);
+      for (int col = 1; col < this.numCols; col++) {
+        this.labelLeft[this.labels[col]]++;
+      }
+    }
+  }
+
+  // get the right bit of the given column if it is certain, or -1 if it has to
+  // be coded - in the last row, a set with no cell further right can only
+  // meet the others through this wall
+  int forcedRight(int col) {
+    int set = this.find(this.labels[col]);
+    if (set == this.find(this.labels[col + 1])) {
+      return 0;
+    }
+    return this.lastRow && this.labelLeft[set] == 0 ? 1 : -1;
+  }
+
+  // record the right bit of the given column
+  void setRight(int col, int bit) {
+    if (bit != 0) {
+      int set = this.find(this.labels[col]);
+      int other = this.find(this.labels[col + 1]);
+      this.parent[other] = set;
+      this.labelLeft[set] += this.labelLeft[other];
+    }
+    if (this.lastRow) {
+      this.labelLeft[this.find(this.labels[col + 1])]--;
+    }
+  }
+
+  // settle the sets once every right bit of the row is known
+  void finishRight() {
+    Arrays.fill(this.labelLeft, 0);
+    Arrays.fill(this.labelHasDown, false);
+    for (int col = 0; col < this.numCols; col++) {
+      this.labels[col] = this.find(this.labels[col]);
+      this.labelLeft[this.labels[col]]++;
+    }
+  }
+
+  // get the down bit of the given column if it is certain, or -1 if it has to
+  // be coded
+  int forcedDown(int col) {
+    int label = this.labels[col];
+    return this.labelLeft[label] == 1 && !this.labelHasDown[label] ? 1 : -1;
+  }
+
+  // record the down bit of the given column
+  void setDown(int col, int bit) {
+    int label = this.labels[col];
+    this.labelLeft[label]--;
+    if (bit != 0) {
+      this.labelHasDown[label] = true;
+    }
+  }
+
+  // get the context of a right bit from the passages into the cell from the
+  // left and from above, and into its right neighbor from above
+  int rightContext(int left, int up, int upRight) {
+    return left | (up << 1) | (upRight << 2);
+  }
+
+  // get the context of a down bit from the cell's passages to the left, up and
+  // right and whether its set already opens downwards
+  int downContext(int col, int left, int up, int right) {
+    int hasDown = this.labelHasDown[this.labels[col]] ? 1 : 0;
+    return left | (up << 1) | (right << 2) | (hasDown << 3);
+  }
+
+  // get the representative label of the given label in the current row
+  int find(int label) {
+    while (this.parent[label] != label) {
+      this.parent[label] = this.parent[this.parent[label]];
+      label = this.parent[label];
+    }
+    return label;
+  }
+}
+
+// Compresses the rows of a maze as they arrive - see TreeCodec
+class TreeEncoder implements RowSink {
+  final DataOutputStream data;
+  final RangeEncoder coder;
+  final TreeRowModel model;
+  final int numRows;
+  final int numCols;
+  final long[] prevDown;
+
+  // constructor - writes the header straight away
+  TreeEncoder(OutputStream out, int rows, int cols, MazeAlgorithm algorithm, long seed)
+      throws IOException {
+    this.data = new DataOutputStream(new BufferedOutputStream(out));
+    this.coder = new RangeEncoder(this.data);
+    this.model = new TreeRowModel(rows, cols);
+    this.numRows = rows;
+    this.numCols = cols;
+    this.prevDown = new long[(cols + 63) >>> 6];
+    TreeCodec.writeHeader(this.data, rows, cols, algorithm, seed);
+  }
+
+  // code the bits of a row - finishes the stream after the last row
+  public void acceptRow(int row, long[] right, long[] down) throws IOException {
+    TreeRowModel model = this.model;
+    model.startRow(row, this.prevDown);
+    int left = 0;
+    for (int col = 0; col < this.numCols - 1; col++) {
+      int r = TreeCodec.bit(right, col);
+      this.code(model.forcedRight(col), r, model.rightProbs, model.rightContext(left,
+          TreeCodec.bit(this.prevDown, col), TreeCodec.bit(this.prevDown, col + 1)));
+      model.setRight(col, r);
+      left = r;
+    }
+    model.finishRight();
+    if (row < this.numRows - 1) {
+      left = 0;
+      for (int col = 0; col < this.numCols; col++) {
+        int r = col < this.numCols - 1 ? TreeCodec.bit(right, col) : 0;
+        int d = TreeCodec.bit(down, col);
+        this.code(model.forcedDown(col), d, model.downProbs,
+            model.downContext(col, left, TreeCodec.bit(this.prevDown, col), r));
+        model.setDown(col, d);
+        left = r;
+      }
+    }
+    System.arraycopy(down, 0, this.prevDown, 0, this.prevDown.length);
+    if (row == this.numRows - 1) {
+      this.coder.finish();
+      this.data.flush();
+    }
+  }
+
+  // code a bit unless it is certain, in which case it had better be right
+  void code(int forced, int bit, short[] probs, int context) throws IOException {
+    if (forced < 0) {
+      this.coder.encodeBit(probs, context, bit);
+    }
+    else if (forced != bit) {
+      throw new IllegalArgumentException("only perfect mazes can be compressed");
+    }
+  }
+}
+
+// Decompresses a stream written by a TreeEncoder one row at a time
+class TreeDecoder {
+  final DataInputStream data;
+  public final int numRows;
+  public final int numCols;
+  public final long seed;
+  public final MazeAlgorithm algorithm;
+
+  // constructor - reads the header straight away
+  TreeDecoder(InputStream in) throws IOException {
+    this.data = new DataInputStream(new BufferedInputStream(in));
+    if (this.data.readInt() != TreeCodec.MAGIC) {
+      throw new IOException("not a compressed maze");
+    }
+    this.numRows = this.data.readInt();
+    this.numCols = this.data.readInt();
+    this.seed = this.data.readLong();
+    int algorithm = this.data.readInt();
+    // decoding only ever holds a row, so only the width is limited here
+    if (this.numRows <= 0 || this.numCols <= 0 || this.numCols > MazeFile.MAX_CELLS
+        || algorithm < 0 || algorithm >= MazeAlgorithm.values().length) {
+      throw new IOException("corrupt compressed maze");
+    }
+    this.algorithm = MazeAlgorithm.values()[algorithm];
+  }
+
+  // decode every row into the given sink
+  public void decode(RowSink sink) throws IOException {
+    RangeDecoder coder = new RangeDecoder(this.data);
+    TreeRowModel model = new TreeRowModel(this.numRows, this.numCols);
+    long[] right = new long[(this.numCols + 63) >>> 6];
+    long[] down = new long[right.length];
+    long[] prevDown = new long[right.length];
+    for (int row = 0; row < this.numRows; row++) {
+      Arrays.fill(right, 0L);
+      Arrays.fill(down, 0L);
+      model.startRow(row, prevDown);
+      int left = 0;
+      for (int col = 0; col < this.numCols - 1; col++) {
+        int r = model.forcedRight(col);
+        if (r < 0) {
+          r = coder.decodeBit(model.rightProbs, model.rightContext(left,
+              TreeCodec.bit(prevDown, col), TreeCodec.bit(prevDown, col + 1)));
+        }
+        model.setRight(col, r);
+        right[col >>> 6] |= (long) r << col;
+        left = r;
+      }
+      model.finishRight();
+      if (row < this.numRows - 1) {
+        left = 0;
+        for (int col = 0; col < this.numCols; col++) {
+          int r = TreeCodec.bit(right, col);
+          int d = model.forcedDown(col);
+          if (d < 0) {
+            d = coder.decodeBit(model.downProbs,
+                model.downContext(col, left, TreeCodec.bit(prevDown, col), r));
+          }
+          model.setDown(col, d);
+          down[col >>> 6] |= (long) d << col;
+          left = r;
+        }
+      }
+      sink.acceptRow(row, right, down);
+      System.arraycopy(down, 0, prevDown, 0, prevDown.length);
+    }
+  }
+}
+
+// Draws a maze without a display, straight into a raster of palette indices.
+// Every cell is pxPerCell pixels across including one line of wall, and the
+// walls along the right and bottom edges add one more pixel, so the image is
+// cols * pxPerCell + 1 pixels wide. Cells take the colors of the UI, and an
+// open wall takes the color of the cells on both sides of it, or the first
+// color of the palette if they differ. Bands of cell rows can be drawn in
+// parallel, into a BufferedImage or streamed out as a PNG a batch of rows at
+// a time, so the whole image never has to fit in memory.
+class MazeRasterizer {
+  // palette indices
+  public static final byte BACKGROUND = 0;
+  public static final byte WALL = 1;
+  public static final byte START = 2;
+  public static final byte TARGET = 3;
+  // a cell in SolveResult state s gets color STATE + s
+  public static final byte STATE = 4;
+  // the most cell rows a task draws without forking
+  public static int GRAIN = 8;
+  // how many cell rows are drawn at a time when streaming a PNG
+  public static int BATCH_ROWS = 256;
+
+  final MazeGraph maze;
+  final int numRows;
+  final int numCols;
+  final int pxPerCell;
+  public final int width;
+  public final int height;
+  // the solution to draw, null if there is none, and the animation tick it is
+  // drawn at - only cells whose delay is below it show
+  SolveResult solution;
+  double tick = Double.POSITIVE_INFINITY;
+
+  // constructor - pxPerCell must be at least 2, DOES NOT ERROR CHECK
+  MazeRasterizer(MazeGraph maze, int pxPerCell) {
+    this.maze = maze;
+    this.numRows = maze.numRows();
+    this.numCols = maze.numCols();
+    this.pxPerCell = pxPerCell;
+    this.width = this.numCols * pxPerCell + 1;
+    this.height = this.numRows * pxPerCell + 1;
+  }
+
+  // draw the given solution too, or no solution if it is null
+  public void setSolution(SolveResult solution) {
+    this.setSolution(solution, Double.POSITIVE_INFINITY);
+  }
+
+  // draw the cells of the given solution its animation shows at the given tick
+  public void setSolution(SolveResult solution, double tick) {
+    this.solution = solution;
+    this.tick = tick;
+  }
+
+  // get the RGB colors of the palette
+  public static int[] palette() {
+    return new int[] { Color.white.getRGB(), Color.black.getRGB(),
+        UI.START_NODE_COLOR.getRGB(), UI.TARGET_NODE_COLOR.getRGB(),
+        UI.STATE_COLORS[SolveResult.NOT_VISITED].getRGB(),
+        UI.STATE_COLORS[SolveResult.VISITED].getRGB(),
+        UI.STATE_COLORS[SolveResult.ON_PATH].getRGB() };
+  }
+
+  // get the colors of the palette
+  public static Color[] paletteColors() {
+    int[] palette = palette();
+    Color[] colors = new Color[palette.length];
+    for (int i = 0; i < palette.length; i++) {
+      colors[i] = new Color(palette[i]);
+    }
+    return colors;
+  }
+
+  // get the palette index of the given cell
+  byte cellColor(int cell) {
+    if (this.solution != null && this.solution.delay(cell) < this.tick) {
+      return (byte) (STATE + this.solution.state[cell]);
+    }
+    if (cell == 0) {
+      return START;
+    }
+    if (cell == this.maze.numCells() - 1) {
+      return TARGET;
+    }
+    return BACKGROUND;
+  }
+
+  // get the palette index of the wall between the two cells
+  byte wallColor(int cell1, int cell2, int wall) {
+    if (!this.maze.isOpen(wall)) {
+      return WALL;
+    }
+    byte color = this.cellColor(cell1);
+    return color == this.cellColor(cell2) ? color : BACKGROUND;
+  }
+
+  // draw the image rows of cell rows rowLo to rowHi - 1, each one starting at
+  // out[offset] and the next stride further on. A cell row starts with the
+  // line of wall above it.
+  void renderCellRows(int rowLo, int rowHi, byte[] out, int offset, int stride) {
+    this.renderCells(rowLo, rowHi, 0, this.numCols, out, offset, stride);
+  }
+
+  // draw the cells of rows rowLo to rowHi - 1 and columns colLo to colHi - 1
+  // the same way, each image row (colHi - colLo) * pxPerCell + 1 pixels wide
+  // and ending with the wall on the right of the last column
+  void renderCells(int rowLo, int rowHi, int colLo, int colHi, byte[] out, int offset,
+      int stride) {
+    int px = this.pxPerCell;
+    int width = (colHi - colLo) * px + 1;
+    for (int row = rowLo; row < rowHi; row++) {
+      int line = offset + (row - rowLo) * px * stride;
+      // the wall above the row
+      for (int col = colLo; col < colHi; col++) {
+        int cell = row * this.numCols + col;
+        int x = line + (col - colLo) * px;
+        out[x] = WALL;
+        byte color = row == 0 ? WALL
+            : this.wallColor(cell - this.numCols, cell, MazeGrid.wallId(cell - this.numCols,
+                MazeGrid.DOWN));
+        Arrays.fill(out, x + 1, x + px, color);
+      }
+      out[line + width - 1] = WALL;
+      // the first line through the cells, copied into the others
+      int inside = line + stride;
+      for (int col = colLo; col < colHi; col++) {
+        int cell = row * this.numCols + col;
+        int x = inside + (col - colLo) * px;
+        out[x] = col == 0 ? WALL
+            : this.wallColor(cell - 1, cell, MazeGrid.wallId(cell - 1, MazeGrid.RIGHT));
+        Arrays.fill(out, x + 1, x + px, this.cellColor(cell));
+      }
+      int last = row * this.numCols + colHi;
+      out[inside + width - 1] = colHi == this.numCols ? WALL
+          : this.wallColor(last - 1, last, MazeGrid.wallId(last - 1, MazeGrid.RIGHT));
+      for (int i = 2; i < px; i++) {
+        System.arraycopy(out, inside, out, line + i * stride, width);
+      }
+    }
+  }
+
+  // draw the wall along the bottom edge at out[offset]
+  void renderBottom(byte[] out, int offset) {
+    Arrays.fill(out, offset, offset + this.width, WALL);
+  }
+
+  // draw the whole maze into an indexed BufferedImage, a band of rows per task
+  public BufferedImage render(ForkJoinPool pool) {
+    int[] palette = palette();
+    IndexColorModel colors = new IndexColorModel(8, palette.length, palette, 0, false, -1,
+        DataBuffer.TYPE_BYTE);
+    BufferedImage image = new BufferedImage(this.width, this.height,
+        BufferedImage.TYPE_BYTE_INDEXED, colors);
+    byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    pool.invoke(new RasterTask(this, 0, this.numRows, pixels, 0, this.width));
+    this.renderBottom(pixels, (this.height - 1) * this.width);
+    return image;
+  }
+
+  // stream the maze out as an 8 bit palette PNG. Batches of cell rows are drawn
+  // in parallel and then compressed, so only one batch is ever in memory.
+  public void writePng(OutputStream out, ForkJoinPool pool) throws IOException {
+    DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+    data.write(new byte[] { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' });
+    ByteArrayOutputStream header = new ByteArrayOutputStream();
+    DataOutputStream h = new DataOutputStream(header);
+    h.writeInt(this.width);
+    h.writeInt(this.height);
+    // 8 bit palette, no interlacing
+    h.write(new byte[] { 8, 3, 0, 0, 0 });
+    writeChunk(data, "IHDR", header.toByteArray(), header.size());
+    int[] palette = palette();
+    byte[] plte = new byte[3 * palette.length];
+    for (int i = 0; i < palette.length; i++) {
+      plte[3 * i] = (byte) (palette[i] >> 16);
+      plte[3 * i + 1] = (byte) (palette[i] >> 8);
+      plte[3 * i + 2] = (byte) palette[i];
+    }
+    writeChunk(data, "PLTE", plte, plte.length);
+    // every PNG row starts with a filter byte, always 0 here
+    int stride = this.width + 1;
+    int batch = Math.min(BATCH_ROWS, this.numRows);
+    byte[] rows = new byte[batch * this.pxPerCell * stride];
+    byte[] idat = new byte[1 << 16];
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    for (int lo = 0; lo < this.numRows; lo += batch) {
+      int hi = Math.min(this.numRows, lo + batch);
+      pool.invoke(new RasterTask(this, lo, hi, rows, 1, stride));
+      deflater.setInput(rows, 0, (hi - lo) * this.pxPerCell * stride);
+      while (!deflater.needsInput()) {
+        int n = deflater.deflate(idat);
+        if (n > 0) {
+          writeChunk(data, "IDAT", idat, n);
+        }
+      }
+    }
+    byte[] bottom = new byte[stride];
+    this.renderBottom(bottom, 1);
+    deflater.setInput(bottom);
+    deflater.finish();
+    while (!deflater.finished()) {
+      int n = deflater.deflate(idat);
+      if (n > 0) {
+        writeChunk(data, "IDAT", idat, n);
+      }
+    }
+    deflater.end();
+    writeChunk(data, "IEND", idat, 0);
+    data.flush();
+  }
+
+  // write a PNG chunk of the given type holding the first length bytes
+  static void writeChunk(DataOutputStream out, String type, byte[] bytes, int length)
+      throws IOException {
+    byte[] typeBytes = type.getBytes("US-ASCII");
+    CRC32 crc = new CRC32();
+    crc.update(typeBytes);
+    crc.update(bytes, 0, length);
+    out.writeInt(length);
+    out.write(typeBytes);
+    out.write(bytes, 0, length);
+    out.writeInt((int) crc.getValue());
+  }
+}
+
+// Draws a band of cell rows, splitting it until it is at most the grain. The
+// rows of the whole band start at out[offset].
+class RasterTask extends RecursiveAction {
+  static final long serialVersionUID = 1L;
+
+  final MazeRasterizer raster;
+  final int lo;
+  final int hi;
+  final byte[] out;
+  final int offset;
+  final int stride;
+
+  RasterTask(MazeRasterizer raster, int lo, int hi, byte[] out, int offset, int stride) {
+    this.raster = raster;
+    this.lo = lo;
+    this.hi = hi;
+    this.out = out;
+    this.offset = offset;
+    this.stride = stride;
+  }
+
+  // draw the rows, forking while there are more than the grain
+  @Override
+  protected void compute() {
+    if (this.hi - this.lo <= MazeRasterizer.GRAIN) {
+      this.raster.renderCellRows(this.lo, this.hi, this.out, this.offset, this.stride);
+    }
+    else {
+      int mid = (this.lo + this.hi) >>> 1;
+      int midOffset = this.offset + (mid - this.lo) * this.raster.pxPerCell * this.stride;
+      invokeAll(new RasterTask(this.raster, this.lo, mid, this.out, this.offset, this.stride),
+          new RasterTask(this.raster, mid, this.hi, this.out, midOffset, this.stride));
+    }
+  }
+}
+
+// The walls a generator knocked down, in the order it knocked them down. Frame f
+// of the generation's animation is the maze with the first f walls of the log
+// knocked down, so the animation can be played, rewound and replayed without
+// running union-find again. openTime holds the frame every wall comes down in,
+// so whether a wall stands in any frame takes O(1). A log is written as a
+// header - magic, version, rows, cols, seed, algorithm and the number of walls -
+// followed by the wall ids as big-endian ints.
+class GenerationLog {
+  public static final int MAGIC = 0x4D5A4C47;
+  public static final int VERSION = 1;
+  // the open time of a wall that never comes down
+  public static final int NEVER = Integer.MAX_VALUE;
+
+  public final int numRows;
+  public final int numCols;
+  public final MazeAlgorithm algorithm;
+  public final long seed;
+  final int[] walls;
+  final int[] openTime;
+
+  // constructor - the walls must be distinct inner walls of the grid
+  GenerationLog(int numRows, int numCols, MazeAlgorithm algorithm, long seed, int[] walls) {
+    this.numRows = numRows;
+    this.numCols = numCols;
+    this.algorithm = algorithm;
+    this.seed = seed;
+    this.walls = walls;
+    this.openTime = new int[2 * numRows * numCols];
+    Arrays.fill(this.openTime, NEVER);
+    for (int i = 0; i < walls.length; i++) {
+      this.openTime[walls[i]] = i;
+    }
+  }
+
+  // record the walls knocked down in the given grid: first the ones the given
+  // kruskal engine (if any) knocked down, in its order, then any others - from
+  // braiding, or a generator that keeps no order - in the order of their ids
+  public static GenerationLog record(MazeGrid grid, KruskalEngine kruskal,
+      MazeAlgorithm algorithm, long seed) {
+    int count = 0;
+    for (long word : grid.passages) {
+      count += Long.bitCount(word);
+    }
+    int[] walls = new int[count];
+    long[] logged = new long[grid.passages.length];
+    int n = 0;
+    if (kruskal != null) {
+      for (int i = 0; i < kruskal.numLogged; i++) {
+        int wall = kruskal.walls[i];
+        walls[n++] = wall;
+        logged[wall >>> 6] |= 1L << wall;
+      }
+    }
+    for (int i = 0; i < grid.passages.length; i++) {
+      for (long bits = grid.passages[i] & ~logged[i]; bits != 0; bits &= bits - 1) {
+        walls[n++] = (i << 6) + Long.numberOfTrailingZeros(bits);
+      }
+    }
+    return new GenerationLog(grid.numRows, grid.numCols, algorithm, seed, walls);
+  }
+
+  // get the number of frames after the first one, where every wall is up
+  public int numFrames() {
+    return this.walls.length;
+  }
+
+  // get the wall that comes down going from the given frame to the next
+  public int wallAt(int frame) {
+    return this.walls[frame];
+  }
+
+  // get the frame the given wall comes down in, NEVER if it stays up
+  public int openTime(int wall) {
+    return this.openTime[wall];
+  }
+
+  // is the given wall down in the given frame?
+  public boolean isOpen(int wall, int frame) {
+    return this.openTime[wall] < frame;
+  }
+
+  // get the walls from first to first + 63 in the given frame the way
+  // MazeGrid.wallBits does - bit i is set if wall first + i is down
+  public long wallBits(int first, int frame) {
+    long bits = 0;
+    int count = Math.min(64, this.openTime.length - first);
+    for (int i = 0; i < count; i++) {
+      if (this.openTime[first + i] < frame) {
+        bits |= 1L << i;
+      }
+    }
+    return bits;
+  }
+
+  // get a view of the maze shown in the given frame, reading the open times
+  // without building a grid
+  public MazeGraph frame(int frame) {
+    return new LogFrame(this, frame);
+  }
+
+  // build the grid shown in the given frame
+  public MazeGrid gridAt(int frame) {
+    MazeGrid grid = new MazeGrid(this.numRows, this.numCols);
+    for (int i = 0; i < frame; i++) {
+      grid.open(this.walls[i]);
+    }
+    return grid;
+  }
+
+  // write this log to the stream
+  public void write(OutputStream out) throws IOException {
+    DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+    data.writeInt(MAGIC);
+    data.writeInt(VERSION);
+    data.writeInt(this.numRows);
+    data.writeInt(this.numCols);
+    data.writeLong(this.seed);
+    data.writeInt(this.algorithm.ordinal());
+    data.writeInt(this.walls.length);
+    for (int wall : this.walls) {
+      data.writeInt(wall);
+    }
+    data.flush();
   }
 
-  // draw this edge if the two cells it connects are indeed connected - otherwise
-  // do nothing
-  public void drawIfNotConnected(UI ui) {
-    if (!this.connected) {
-      if (this.vertical) {
-        ui.drawEdge(this.cellRow, this.cellCol, this.cellRow, this.cellCol + 1);
-      }
-      else {
-        ui.drawEdge(this.cellRow, this.cellCol, this.cellRow + 1, this.cellCol);
+  // read a log written with write back from the stream - it has to end with
+  // every cell connected, like the maze it was recorded from
+  public static GenerationLog read(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+    if (data.readInt() != MAGIC) {
+      throw new IOException("not a generation log");
+    }
+    int version = data.readInt();
+    if (version != VERSION) {
+      throw new IOException("unsupported generation log version " + version);
+    }
+    int rows = data.readInt();
+    int cols = data.readInt();
+    long seed = data.readLong();
+    int algorithm = data.readInt();
+    int count = data.readInt();
+    if (rows <= 0 || cols <= 0 || (long) rows * cols > Integer.MAX_VALUE / 2 || algorithm < 0
+        || algorithm >= MazeAlgorithm.values().length || count < 0 || count > 2 * rows * cols) {
+      throw new IOException("corrupt generation log");
+    }
+    MazeGrid grid = new MazeGrid(rows, cols);
+    DisjointSet sets = new DisjointSet(grid.numCells);
+    int[] walls = new int[count];
+    for (int i = 0; i < count; i++) {
+      int wall = data.readInt();
+      if (wall < 0 || wall >= 2 * grid.numCells || !grid.isInnerWall(wall) || grid.isOpen(wall)) {
+        throw new IOException("corrupt generation log");
       }
+      grid.open(wall);
+      sets.union(MazeGrid.cellOf(wall), grid.otherCell(wall));
+      walls[i] = wall;
+    }
+    if (sets.numSets != 1) {
+      throw new IOException("generation log doesn't connect every cell");
     }
+    return new GenerationLog(rows, cols, MazeAlgorithm.values()[algorithm], seed, walls);
   }
+}
 
-  // get the Posn representation of the "main" cell of this edge
-  // the "main" cell is either above or to the left of the other cell
-  public Posn getMainPosn() {
-    return new Posn(this.cellCol, this.cellRow);
+// One frame of a GenerationLog seen as a maze: a wall is open if it came down
+// before the frame. It only reads the log, so making one costs nothing.
+class LogFrame implements MazeGraph {
+  final GenerationLog log;
+  final int frame;
+
+  // constructor
+  LogFrame(GenerationLog log, int frame) {
+    this.log = log;
+    this.frame = frame;
   }
 
-  // get the Posn representation of the "other" cell in this edge
-  // the "other" cell is either below or to the right of the main cell
-  public Posn getOtherPosn() {
-    if (this.vertical) {
-      return new Posn(this.cellCol + 1, this.cellRow);
+  // get the number of rows
+  public int numRows() {
+    return this.log.numRows;
+  }
+
+  // get the number of columns
+  public int numCols() {
+    return this.log.numCols;
+  }
+
+  // get the number of cells
+  public int numCells() {
+    return this.log.numRows * this.log.numCols;
+  }
+
+  // has the given wall come down by this frame?
+  public boolean isOpen(int wall) {
+    return this.log.isOpen(wall, this.frame);
+  }
+
+  // write the cells connected to the given cell into out - see MazeGraph
+  public int neighbors(int cell, int[] out) {
+    int cols = this.log.numCols;
+    int count = 0;
+    int col = cell % cols;
+    if (col < cols - 1 && this.isOpen(MazeGrid.wallId(cell, MazeGrid.RIGHT))) {
+      out[count++] = cell + 1;
     }
-    else {
-      return new Posn(this.cellCol, this.cellRow + 1);
+    if (cell + cols < this.numCells() && this.isOpen(MazeGrid.wallId(cell, MazeGrid.DOWN))) {
+      out[count++] = cell + cols;
+    }
+    if (col > 0 && this.isOpen(MazeGrid.wallId(cell - 1, MazeGrid.RIGHT))) {
+      out[count++] = cell - 1;
     }
+    if (cell >= cols && this.isOpen(MazeGrid.wallId(cell - cols, MazeGrid.DOWN))) {
+      out[count++] = cell - cols;
+    }
+    return count;
   }
 }
 
@@ -65,21 +3721,53 @@ class Edge {
 class Maze {
   public static int DEFAULT_CELLS_ACROSS = 32;
   public static int DEFAULT_CELLS_DOWN = 18;
+  // the most knocked down walls remembered between two frames before the UI is
+  // told to redraw everything instead
+  public static final int MAX_CHANGED_WALLS = 4096;
+  // how long animating the generation of a maze takes, whatever its size, and
+  // the most time spent generating in a single frame
+  public static final double DEFAULT_ANIMATION_SECONDS = 10;
+  public static final long DEFAULT_STEP_BUDGET_NANOS = 4000000;
 
   public int numRows;
   public int numCols;
   public int numCells;
 
-  ArrayList<Edge> edges;
-  HashMap<Posn, Posn> reps;
-  HashMap<Posn, ArrayList<Posn>> adjacencyList;
+  MazeAlgorithm algorithm = MazeAlgorithm.KRUSKAL;
+  long seed = MazeRandom.newSeed();
+  MazeGrid grid;
+  KruskalEngine kruskal;
   int numEdges;
+  SearchEngine search = new SearchEngine();
+  // the cost of stepping into each cell, null if every cell costs 1
+  int[] costs;
+
+  double animationSeconds = DEFAULT_ANIMATION_SECONDS;
+  long stepBudgetNanos = DEFAULT_STEP_BUDGET_NANOS;
+  // the number of frames the generation has been animated for
+  int generationFrames;
 
-  HashMap<Posn, Color> coloring;
-  HashMap<Posn, Integer> delays;
+  SolveResult solution;
   boolean drawingSolution = false;
   double tick;
 
+  // walls knocked down or put back up since the UI last drew this maze, so it
+  // only has to draw those - redrawAll is set instead when it has to draw everything again
+  int[] changedWalls = new int[16];
+  int numChangedWalls;
+  boolean redrawAll = true;
+  // the number of cells of the solution's timeline drawn so far
+  int revealed;
+
+  // the log of this maze's generation once it has been asked for, and the log
+  // being replayed, null when there is none
+  GenerationLog log;
+  GenerationLog replay;
+  // the frame of the replay shown and the frames it moves every tick - negative
+  // when it plays backwards
+  int replayFrame;
+  int replayStep;
+
   // default constructor - default number of rows and columns
   public Maze() {
     this.numRows = DEFAULT_CELLS_DOWN;
@@ -110,6 +3798,79 @@ class Maze {
     }
   }
 
+  // constructor for a maze built with the given algorithm
+  public Maze(int rows, int cols, MazeAlgorithm algorithm) {
+    this(rows, cols, algorithm, MazeRandom.newSeed());
+  }
+
+  // constructor for a maze built with the given algorithm from the given seed -
+  // the same seed always gives the same maze. A TILED_KRUSKAL maze is built all
+  // at once on the common ForkJoinPool and has no kruskal steps left to animate.
+  // An ELLER maze is streamed straight into the grid.
+  public Maze(int rows, int cols, MazeAlgorithm algorithm, long seed) {
+    this.numRows = rows;
+    this.numCols = cols;
+    this.numCells = this.numRows * this.numCols;
+    this.algorithm = algorithm;
+    this.seed = seed;
+    if (algorithm == MazeAlgorithm.TILED_KRUSKAL) {
+      this.grid = new MazeGrid(this.numRows, this.numCols);
+      this.numEdges = new TiledGenerator(this.grid, TiledGenerator.DEFAULT_TILE_SIZE, seed)
+          .generate(ForkJoinPool.commonPool());
+    }
+    else if (algorithm == MazeAlgorithm.ELLER) {
+      this.grid = new MazeGrid(this.numRows, this.numCols);
+      try {
+        new EllerGenerator(this.numRows, this.numCols, seed).generate(new GridRowSink(this.grid));
+      }
+      catch (IOException e) {
+        // a GridRowSink never throws
+        throw new UncheckedIOException(e);
+      }
+      this.numEdges = this.numCells - 1;
+    }
+    else {
+      this.initSolution();
+      this.makeSolution();
+    }
+  }
+
+  // constructor for a maze whose walls have already been knocked down, e.g. one
+  // read back from a stream. There is nothing left to generate, so the grid must
+  // connect every cell - a perfect maze, or a braided one.
+  public Maze(MazeGrid grid, MazeAlgorithm algorithm, long seed) {
+    this.numRows = grid.numRows;
+    this.numCols = grid.numCols;
+    this.numCells = grid.numCells;
+    this.algorithm = algorithm;
+    this.seed = seed;
+    this.grid = grid;
+    DisjointSet sets = new DisjointSet(grid.numCells);
+    int joined = 0;
+    for (int i = 0; i < grid.passages.length; i++) {
+      for (long bits = grid.passages[i]; bits != 0; bits &= bits - 1) {
+        int wall = (i << 6) + Long.numberOfTrailingZeros(bits);
+        // a wall on the border, or past the last cell, leads nowhere
+        if (MazeGrid.cellOf(wall) >= grid.numCells || !grid.isInnerWall(wall)) {
+          throw new IllegalArgumentException("the grid doesn't connect every cell");
+        }
+        if (sets.union(MazeGrid.cellOf(wall), grid.otherCell(wall))) {
+          joined++;
+        }
+        this.numEdges++;
+      }
+    }
+    if (joined < this.numCells - 1) {
+      throw new IllegalArgumentException("the grid doesn't connect every cell");
+    }
+  }
+
+  // constructor for the maze a recorded generation ends with
+  public Maze(GenerationLog log) {
+    this(log.gridAt(log.numFrames()), log.algorithm, log.seed);
+    this.log = log;
+  }
+
   // tell the UI how many rows and columns this maze has - see note above
   // setRowsAndCols
   public void updateUIRowsAndCols(UI ui) {
@@ -118,6 +3879,7 @@ class Maze {
 
   // make a solution to the maze according to kruskal's algorithm
   public void makeSolution() {
+    this.stopReplay();
     while (!this.finishedMaze()) {
       this.kruskalStep();
     }
@@ -128,77 +3890,93 @@ class Maze {
     return this.numEdges >= this.numCols * this.numRows - 1;
   }
 
+  // is this maze finished with exactly one path between any two cells? -
+  // braiding it adds loops
+  public boolean isPerfect() {
+    return this.numEdges == this.numCells - 1;
+  }
+
   // initialize all variables for solving later
   public void initSolution() {
-    this.edges = new ArrayList<Edge>();
-    this.reps = new HashMap<Posn, Posn>();
-    this.adjacencyList = new HashMap<Posn, ArrayList<Posn>>();
-    // init every cell's representative to itself
-    // and every cell's adjacencyList to an empty list
-    for (int y = 0; y < this.numRows; y++) {
-      for (int x = 0; x < this.numCols; x++) {
-        this.reps.put(new Posn(x, y), new Posn(x, y));
-        this.adjacencyList.put(new Posn(x, y), new ArrayList<Posn>());
-      }
-    }
-    // init all the horizontal walls
-    for (int y = 0; y < this.numRows - 1; y++) {
-      for (int x = 0; x < this.numCols; x++) {
-        this.edges.add(new Edge(x, y, false));
-      }
-    }
-    // init all the vertical walls
-    for (int y = 0; y < this.numRows; y++) {
-      for (int x = 0; x < this.numCols - 1; x++) {
-        this.edges.add(new Edge(x, y, true));
-      }
-    }
-    Collections.shuffle(this.edges);
+    this.grid = new MazeGrid(this.numRows, this.numCols);
+    this.kruskal = new KruskalEngine(this.grid, MazeRandom.forRegion(this.seed, 0));
     numEdges = 0;
+    this.generationFrames = 0;
   }
 
   // step once in kruskal's algorithm
   public void kruskalStep() {
-    Edge e = this.edges.get(0);
-    this.edges.remove(0);
-    // add it back to the end of the list - it will never be reached again
-    this.edges.add(e);
-    Posn p1 = e.getMainPosn();
-    Posn p2 = e.getOtherPosn();
-    if (!this.getRep(p1).equals(this.getRep(p2))) {
-      this.addEdge(e, p1, p2);
+    if (this.kruskal.step()) {
+      this.numEdges++;
+      this.wallChanged(this.kruskal.walls[this.kruskal.numLogged - 1]);
     }
   }
 
-  // add a new edge to the minimal spanning tree
+  // add a new edge to the minimal spanning tree, unless its cells are already
+  // joined
   public void addEdge(Edge e, Posn p1, Posn p2) {
-    Posn p1Rep = this.getRep(p1);
-    Posn p2Rep = this.getRep(p2);
-    this.reps.put(p1Rep, p2Rep);
-    this.numEdges++;
-    this.adjacencyList.get(p1).add(p2);
-    this.adjacencyList.get(p2).add(p1);
-    e.connected();
+    this.checkKruskal();
+    if (this.kruskal.union(this.grid.index(p1), this.grid.index(p2))) {
+      this.numEdges++;
+      this.wallChanged(this.grid.wallBetween(this.grid.index(p1), this.grid.index(p2)));
+      e.connected();
+    }
+  }
+
+  // remember that the given wall was knocked down or put back up so the UI can
+  // draw just that
+  public void wallChanged(int wall) {
+    if (this.redrawAll) {
+      return;
+    }
+    if (this.numChangedWalls == MAX_CHANGED_WALLS) {
+      this.redrawAll = true;
+      this.numChangedWalls = 0;
+      return;
+    }
+    if (this.numChangedWalls == this.changedWalls.length) {
+      this.changedWalls = Arrays.copyOf(this.changedWalls, this.numChangedWalls * 2);
+    }
+    this.changedWalls[this.numChangedWalls++] = wall;
   }
 
   // get the representative of given node
   public Posn getRep(Posn p) {
-    Posn immediateRep = this.reps.get(p);
-    if (p.equals(immediateRep)) {
-      return immediateRep;
+    this.checkKruskal();
+    return this.grid.toPosn(this.kruskal.getRep(this.grid.index(p)));
+  }
+
+  // throw if this maze wasn't built one kruskal step at a time, so it has no
+  // kruskal engine to ask
+  void checkKruskal() {
+    if (this.kruskal == null) {
+      throw new IllegalStateException("this maze was built all at once and has no kruskal engine");
     }
-    else {
-      Posn rep = this.getRep(immediateRep);
-      this.reps.put(p, rep);
-      return rep;
+  }
+
+  // are the two given cells connected by a passage?
+  public boolean isConnected(Posn p1, Posn p2) {
+    return this.neighbors(p1).contains(p2);
+  }
 
+  // get every cell connected to the given cell by a passage
+  public ArrayList<Posn> neighbors(Posn p) {
+    int[] out = new int[4];
+    int count = this.grid.neighbors(this.grid.index(p), out);
+    ArrayList<Posn> res = new ArrayList<Posn>();
+    for (int i = 0; i < count; i++) {
+      res.add(this.grid.toPosn(out[i]));
     }
+    return res;
   }
 
   // maze is being generated and we want an animation of it
   public void tick() {
-    if (!this.finishedMaze()) {
-      this.kruskalStep();
+    if (this.replay != null) {
+      this.replayStep();
+    }
+    else if (!this.finishedMaze()) {
+      this.generationStep();
     }
     if (this.drawingSolution) {
       // I tick by more than just 1 so on bigger mazes the
@@ -208,146 +3986,517 @@ class Maze {
     }
   }
 
-  // draw all walls by telling UI where to put them
-  public void drawWalls(UI ui) {
-    for (Edge e : this.edges) {
-      e.drawIfNotConnected(ui);
+  // run kruskal steps until the walls due by the end of this frame have been
+  // knocked down, the maze is finished or the step budget runs out - rejected
+  // walls change nothing on screen so they don't count, and frames cut short
+  // by the budget are caught up on later. Return the number of walls knocked
+  // down.
+  public int generationStep() {
+    int target = this.wallsDue(++this.generationFrames);
+    long deadline = System.nanoTime() + this.stepBudgetNanos;
+    int before = this.numEdges;
+    int steps = 0;
+    while (this.numEdges < target && !this.finishedMaze()) {
+      this.kruskalStep();
+      // reading the clock costs about as much as a step, so only do it now and
+      // then
+      if ((++steps & 63) == 0 && System.nanoTime() - deadline >= 0) {
+        break;
+      }
+    }
+    return this.numEdges - before;
+  }
+
+  // get the log of this maze's generation, finishing the maze first if it isn't
+  // finished yet
+  public GenerationLog generationLog() {
+    if (!this.finishedMaze()) {
+      this.makeSolution();
+    }
+    if (this.log == null || this.log.numFrames() != this.numEdges) {
+      this.log = GenerationLog.record(this.grid, this.kruskal, this.algorithm, this.seed);
+    }
+    return this.log;
+  }
+
+  // replay the generation of this maze from the start, or rewind it from the
+  // end when backwards
+  public void startReplay(boolean backwards) {
+    GenerationLog log = this.generationLog();
+    this.replay = log;
+    this.replayFrame = log.numFrames();
+    this.replayStep = (int) Math.max(1,
+        Math.ceil(log.numFrames() / (this.animationSeconds * UI.FRAMES_PER_SECOND)));
+    if (backwards) {
+      this.replayStep = -this.replayStep;
+    }
+    else {
+      this.seek(0);
+    }
+  }
+
+  // play the replay the other way, starting a rewind from the end if there is
+  // no replay
+  public void reverseReplay() {
+    if (this.replay == null) {
+      this.startReplay(true);
+    }
+    else {
+      this.replayStep = -this.replayStep;
+    }
+  }
+
+  // move the replay on by one tick's worth of frames - it ends once it plays
+  // forward to the last frame, and waits on the first frame after a rewind
+  public void replayStep() {
+    this.seek(this.replayFrame + this.replayStep);
+    if (this.replayFrame == this.replay.numFrames() && this.replayStep > 0) {
+      this.replay = null;
+    }
+  }
+
+  // show the given frame of the replay, if there is one. The grid keeps the
+  // finished maze and drawing reads the walls of the frame shown from the
+  // log's open times, so only the frame number changes - the walls in between
+  // are handed to the UI to draw again unless there are too many, in which case
+  // it redraws everything.
+  public void seek(int frame) {
+    if (this.replay == null) {
+      return;
+    }
+    frame = Math.max(0, Math.min(this.replay.numFrames(), frame));
+    if (Math.abs(frame - this.replayFrame) > MAX_CHANGED_WALLS) {
+      this.redrawAll = true;
+      this.numChangedWalls = 0;
+    }
+    else {
+      for (int i = Math.min(frame, this.replayFrame); i < Math.max(frame, this.replayFrame); i++) {
+        this.wallChanged(this.replay.wallAt(i));
+      }
+    }
+    this.replayFrame = frame;
+  }
+
+  // is the given wall down in the maze the UI shows - the frame of the replay
+  // if there is one?
+  boolean isShownOpen(int wall) {
+    return this.replay == null ? this.grid.isOpen(wall) : this.replay.isOpen(wall,
+        this.replayFrame);
+  }
+
+  // get the maze the UI shows - the frame of the replay if there is one
+  MazeGraph shownGraph() {
+    return this.replay == null ? this.grid : this.replay.frame(this.replayFrame);
+  }
+
+  // get the walls from first to first + 63 in the maze the UI shows - see
+  // MazeGrid.wallBits
+  long shownWallBits(int first) {
+    return this.replay == null ? this.grid.wallBits(first) : this.replay.wallBits(first,
+        this.replayFrame);
+  }
+
+  // end the replay, if there is one, showing the whole maze again
+  public void stopReplay() {
+    if (this.replay != null) {
+      this.seek(this.replay.numFrames());
+      this.replay = null;
+    }
+  }
+
+  // get the number of walls that should be down by the end of the given frame
+  // so generating the whole maze takes animationSeconds
+  public int wallsDue(int frame) {
+    int total = this.numCells - 1;
+    return (int) Math.min(total,
+        Math.ceil((double) total * frame / (this.animationSeconds * UI.FRAMES_PER_SECOND)));
+  }
+
+  // draw only what changed since the UI last drew this maze on top of what it
+  // drew then: the walls knocked down or put back up and the solution cells
+  // revealed since, into the UI's layer if it has one -
+  // return the number of images drawn
+  public int drawChanges(UI ui) {
+    if (ui.layer != null) {
+      return this.drawLayerChanges(ui);
+    }
+    int drawn = 0;
+    for (int i = 0; i < this.numChangedWalls; i++) {
+      int wall = this.changedWalls[i];
+      int c1 = MazeGrid.cellOf(wall);
+      int c2 = this.grid.otherCell(wall);
+      if (!this.isVisible(ui, c1) && !this.isVisible(ui, c2)) {
+        continue;
+      }
+      if (!this.isShownOpen(wall)) {
+        // put back up by a rewind
+        ui.drawEdge(this.grid.rowOf(c1), this.grid.colOf(c1), this.grid.rowOf(c2),
+            this.grid.colOf(c2));
+        drawn++;
+        continue;
+      }
+      // a knocked down wall shows the cell it overlaps
+      Color color = this.cellColor(c2);
+      if (color == null) {
+        color = this.cellColor(c1);
+      }
+      ui.drawOpening(this.grid.rowOf(c1), this.grid.colOf(c1), this.grid.rowOf(c2),
+          this.grid.colOf(c2), color == null ? UI.BACKGROUND_COLOR : color);
+      drawn += 1 + this.drawWallsAround(ui, c1) + this.drawWallsAround(ui, c2);
+    }
+    this.numChangedWalls = 0;
+    if (this.drawingSolution) {
+      int[] timeline = this.solution.timeline();
+      int shown = this.solution.shownAt(this.tick);
+      for (; this.revealed < shown; this.revealed++) {
+        int cell = timeline[this.revealed];
+        if (this.isVisible(ui, cell)) {
+          ui.drawSquareAt(this.grid.colOf(cell), this.grid.rowOf(cell),
+              UI.STATE_COLORS[this.solution.state[cell]]);
+          drawn += 1 + this.drawWallsAround(ui, cell);
+        }
+      }
+    }
+    return drawn;
+  }
+
+  // is the given cell inside the part of the maze the UI shows?
+  boolean isVisible(UI ui, int cell) {
+    int row = this.grid.rowOf(cell);
+    int col = this.grid.colOf(cell);
+    return row >= ui.firstRow && row < ui.lastRow && col >= ui.firstCol && col < ui.lastCol;
+  }
+
+  // does the given cell, or the line on its right or below it, show in the
+  // window of the given UI
+  boolean touchesLayer(UI ui, int cell) {
+    int row = this.grid.rowOf(cell);
+    int col = this.grid.colOf(cell);
+    return row >= ui.firstRow - 1 && row < ui.lastRow && col >= ui.firstCol - 1
+        && col < ui.lastCol;
+  }
+
+  // get the color the given cell is drawn in, null if it isn't drawn at all
+  Color cellColor(int cell) {
+    if (this.drawingSolution && this.solution.delay(cell) < this.tick) {
+      return UI.STATE_COLORS[this.solution.state[cell]];
+    }
+    if (cell == 0) {
+      return UI.START_NODE_COLOR;
+    }
+    if (cell == this.numCells - 1) {
+      return UI.TARGET_NODE_COLOR;
+    }
+    return null;
+  }
+
+  // draw the walls still standing around the given cell again, since a square
+  // drawn on the cell covers them - return the number of walls drawn
+  int drawWallsAround(UI ui, int cell) {
+    int row = this.grid.rowOf(cell);
+    int col = this.grid.colOf(cell);
+    int drawn = 0;
+    if (col > 0 && !this.isShownOpen(MazeGrid.wallId(cell - 1, MazeGrid.RIGHT))) {
+      ui.drawEdge(row, col - 1, row, col);
+      drawn++;
+    }
+    if (col < this.numCols - 1 && !this.isShownOpen(MazeGrid.wallId(cell, MazeGrid.RIGHT))) {
+      ui.drawEdge(row, col, row, col + 1);
+      drawn++;
+    }
+    if (row > 0 && !this.isShownOpen(MazeGrid.wallId(cell - this.numCols, MazeGrid.DOWN))) {
+      ui.drawEdge(row - 1, col, row, col);
+      drawn++;
+    }
+    if (row < this.numRows - 1 && !this.isShownOpen(MazeGrid.wallId(cell, MazeGrid.DOWN))) {
+      ui.drawEdge(row, col, row + 1, col);
+      drawn++;
+    }
+    return drawn;
+  }
+
+  // draw everything the UI shows into its pixel layer at once, with the cells of
+  // the solution revealed so far
+  public void drawLayer(UI ui) {
+    ui.drawRaster(this.rasterizer(ui.pxPerCell));
+    this.revealed = this.drawingSolution ? this.solution.shownAt(this.tick) : 0;
+  }
+
+  // get a rasterizer for the maze the UI shows, with the cells of the solution
+  // revealed so far
+  MazeRasterizer rasterizer(int pxPerCell) {
+    MazeRasterizer raster = new MazeRasterizer(this.shownGraph(), pxPerCell);
+    if (this.drawingSolution) {
+      raster.setSolution(this.solution, this.tick);
+    }
+    return raster;
+  }
+
+  // draw what changed since the UI last drew this maze into its layer: the
+  // cell on the left of or above every wall knocked down or put back up, and
+  // every solution cell revealed since, each with the walls around it - return
+  // the number of cells drawn
+  int drawLayerChanges(UI ui) {
+    MazeRasterizer raster = this.rasterizer(ui.pxPerCell);
+    int drawn = 0;
+    for (int i = 0; i < this.numChangedWalls; i++) {
+      int cell = MazeGrid.cellOf(this.changedWalls[i]);
+      if (this.touchesLayer(ui, cell)) {
+        ui.drawCellPixels(raster, this.grid.rowOf(cell), this.grid.colOf(cell));
+        drawn++;
+      }
+    }
+    this.numChangedWalls = 0;
+    if (this.drawingSolution) {
+      int[] timeline = this.solution.timeline();
+      int shown = this.solution.shownAt(this.tick);
+      for (; this.revealed < shown; this.revealed++) {
+        int cell = timeline[this.revealed];
+        if (this.touchesLayer(ui, cell)) {
+          ui.drawCellPixels(raster, this.grid.rowOf(cell), this.grid.colOf(cell));
+          drawn++;
+        }
+      }
+    }
+    return drawn;
+  }
+
+  // draw all walls the UI shows by telling UI where to put them. The walls of
+  // each row it shows are read 64 at a time, skipping the knocked down ones.
+  public void drawWalls(UI ui) {
+    int firstCol = Math.max(0, ui.firstCol);
+    int lastCol = Math.min(this.numCols, ui.lastCol);
+    for (int row = Math.max(0, ui.firstRow); row < Math.min(this.numRows, ui.lastRow); row++) {
+      int end = 2 * this.grid.index(lastCol, row);
+      for (int first = 2 * this.grid.index(firstCol, row); first < end; first += 64) {
+        long standing = ~this.shownWallBits(first);
+        if (end - first < 64) {
+          standing &= (1L << (end - first)) - 1;
+        }
+        for (; standing != 0; standing &= standing - 1) {
+          int wall = first + Long.numberOfTrailingZeros(standing);
+          int col = this.grid.colOf(MazeGrid.cellOf(wall));
+          if ((wall & 1) == MazeGrid.RIGHT) {
+            if (col < this.numCols - 1) {
+              ui.drawEdge(row, col, row, col + 1);
+            }
+          }
+          else if (row < this.numRows - 1) {
+            ui.drawEdge(row, col, row + 1, col);
+          }
+        }
+      }
+    }
+  }
+
+  // draw the animation of the solution
+  public void drawSolution(UI ui) {
+    this.revealed = 0;
+    if (this.drawingSolution) {
+      int[] timeline = this.solution.timeline();
+      int shown = this.solution.shownAt(this.tick);
+      int firstRow = Math.max(0, ui.firstRow);
+      int lastRow = Math.min(this.numRows, ui.lastRow);
+      int firstCol = Math.max(0, ui.firstCol);
+      int lastCol = Math.min(this.numCols, ui.lastCol);
+      if ((long) (lastRow - firstRow) * (lastCol - firstCol) < shown) {
+        // fewer cells in view than shown - look at just those
+        for (int row = firstRow; row < lastRow; row++) {
+          for (int col = firstCol; col < lastCol; col++) {
+            int cell = this.grid.index(col, row);
+            if (this.solution.delay(cell) < this.tick) {
+              ui.drawSquareAt(col, row, UI.STATE_COLORS[this.solution.state[cell]]);
+            }
+          }
+        }
+        this.revealed = shown;
+      }
+      for (; this.revealed < shown; this.revealed++) {
+        int cell = timeline[this.revealed];
+        if (this.isVisible(ui, cell)) {
+          ui.drawSquareAt(this.grid.colOf(cell), this.grid.rowOf(cell),
+              UI.STATE_COLORS[this.solution.state[cell]]);
+        }
+      }
+    }
+  }
+
+  // DFS solve the maze
+  public SolveResult solveDFS() {
+    // must check if maze is already solved
+    // if not, generate maze solution then run dfs
+    if (!this.finishedMaze()) {
+      this.makeSolution();
+    }
+    if (this.search.dfs(this.grid, 0, this.numCells - 1)) {
+      return SolveResult.fromSearch(this.search, this.numCells, 0, this.numCells - 1);
+    }
+    return null;
+  }
+
+  // BFS solve the maze
+  public SolveResult solveBFS() {
+    // must check if maze is already solved
+    // if not, generate maze solution then run bfs
+    if (!this.finishedMaze()) {
+      this.makeSolution();
+    }
+    if (this.search.bfs(this.grid, 0, this.numCells - 1)) {
+      return SolveResult.fromSearch(this.search, this.numCells, 0, this.numCells - 1);
+    }
+    // unless the code breaks this line will never be reached
+    return null;
+  }
+
+  // A* solve the maze
+  public SolveResult solveAStar() {
+    // must check if maze is already solved
+    // if not, generate maze solution then run A*
+    if (!this.finishedMaze()) {
+      this.makeSolution();
+    }
+    if (this.search.astar(this.grid, 0, this.numCells - 1)) {
+      return SolveResult.fromSearch(this.search, this.numCells, 0, this.numCells - 1);
+    }
+    return null;
+  }
+
+  // solve the maze with a BFS from both ends at once
+  public SolveResult solveBidirectional() {
+    // must check if maze is already solved
+    // if not, generate maze solution then search
+    if (!this.finishedMaze()) {
+      this.makeSolution();
+    }
+    if (this.search.bidirectionalBfs(this.grid, 0, this.numCells - 1)) {
+      return SolveResult.fromSearch(this.search, this.numCells, 0, this.numCells - 1);
+    }
+    return null;
+  }
+
+  // get an immutable snapshot of this maze that can be shared between threads,
+  // finishing the maze first if it isn't finished yet
+  public FrozenMaze freeze() {
+    if (!this.finishedMaze()) {
+      this.makeSolution();
+    }
+    return new FrozenMaze(this.grid, this.seed, this.algorithm);
+  }
+
+  // save this maze to the file at the given path - only for finished mazes
+  public void save(Path path) throws IOException {
+    if (!this.finishedMaze()) {
+      this.makeSolution();
+    }
+    MazeFile.write(path, this.grid, this.algorithm, this.seed);
+  }
+
+  // load a maze saved with save onto the heap
+  public static Maze load(Path path) throws IOException {
+    MappedMaze mapped = MazeFile.open(path);
+    return new Maze(mapped.toGrid(), mapped.algorithm, mapped.seed);
+  }
+
+  // draw this maze as a PNG without a display, with its solution if one is
+  // being drawn
+  public void writePng(OutputStream out, int pxPerCell) throws IOException {
+    if (!this.finishedMaze()) {
+      this.makeSolution();
+    }
+    MazeRasterizer raster = new MazeRasterizer(this.grid, pxPerCell);
+    if (this.drawingSolution) {
+      raster.setSolution(this.solution);
+    }
+    raster.writePng(out, ForkJoinPool.commonPool());
+  }
+
+  // knock down walls to remove the given fraction of dead ends, so the maze has
+  // loops - return the number of walls opened
+  public int braid(double fraction) {
+    if (!this.finishedMaze()) {
+      this.makeSolution();
     }
+    int opened = Braider.braid(this.grid, fraction,
+        MazeRandom.forRegion(this.seed, Braider.BRAID_REGION));
+    this.numEdges += opened;
+    this.redrawAll = true;
+    return opened;
   }
 
-  // draw the animation of the solution
-  public void drawSolution(UI ui) {
-    if (this.drawingSolution) {
-      Posn cell;
-      for (int row = 0; row < this.numRows; row++) {
-        for (int col = 0; col < this.numCols; col++) {
-          cell = new Posn(col, row);
-          if (this.delays.get(cell) < tick) {
-            ui.drawSquareAt(col, row, this.coloring.get(cell));
-          }
-        }
-      }
-    }
+  // give every cell a random cost between 1 and maxCost
+  public void randomTerrain(int maxCost) {
+    this.costs = Terrain.random(this.numCells, maxCost,
+        MazeRandom.forRegion(this.seed, Terrain.TERRAIN_REGION));
   }
 
-  // DFS solve the maze
-  public HashMap<Posn, Integer> solveDFS() {
-    // must check if maze is already solved
-    // if not, generate maze solution then run dfs
+  // dijkstra solve the maze, taking the cost of every cell into account
+  public SolveResult solveDijkstra() {
     if (!this.finishedMaze()) {
       this.makeSolution();
     }
-    HashMap<Posn, Posn> cameFromPosn = new HashMap<Posn, Posn>();
-    Stack<Posn> worklist = new Stack<Posn>();
-    ArrayList<Posn> processed = new ArrayList<Posn>();
-    worklist.push(new Posn(0, 0));
-    while (!worklist.isEmpty()) {
-      Posn next = worklist.pop();
-      if (processed.contains(next)) {
-        continue;
-      }
-      processed.add(next);
-      if (new Posn(this.numCols - 1, this.numRows - 1).equals(next)) {
-        return this.reconstruct(new HashMap<Posn, Integer>(), cameFromPosn, processed);
-      }
-      for (Posn p : this.adjacencyList.get(next)) {
-        if (!processed.contains(p)) {
-          worklist.push(p);
-          cameFromPosn.put(p, next);
-        }
-      }
+    if (this.search.dijkstra(this.grid, this.costs, 0, this.numCells - 1)) {
+      return SolveResult.fromSearch(this.search, this.numCells, 0, this.numCells - 1);
     }
     return null;
   }
 
-  // BFS solve the maze
-  public HashMap<Posn, Integer> solveBFS() {
-    // must check if maze is already solved
-    // if not, generate maze solution then run bfs
+  // get an analysis engine for this maze's metrics - only for finished mazes
+  public MazeAnalysis analyze() {
     if (!this.finishedMaze()) {
       this.makeSolution();
     }
-    HashMap<Posn, Posn> cameFromPosn = new HashMap<Posn, Posn>();
-    Queue<Posn> worklist = new ArrayDeque<Posn>();
-    ArrayList<Posn> processed = new ArrayList<Posn>();
-    worklist.add(new Posn(0, 0));
-    while (!worklist.isEmpty()) {
-      Posn next = worklist.poll();
-      if (processed.contains(next)) {
-        continue;
-      }
-      processed.add(next);
-      if (new Posn(this.numCols - 1, this.numRows - 1).equals(next)) {
-        return this.reconstruct(new HashMap<Posn, Integer>(), cameFromPosn, processed);
-      }
-      for (Posn p : this.adjacencyList.get(next)) {
-        if (!processed.contains(p)) {
-          worklist.add(p);
-          cameFromPosn.put(p, next);
-        }
-      }
+    return new MazeAnalysis(this.grid);
+  }
+
+  // collapse the corridors of this maze into a junction graph for repeated path
+  // queries - only for finished mazes
+  public JunctionGraph buildJunctionGraph() {
+    if (!this.finishedMaze()) {
+      this.makeSolution();
     }
-    // unless the code breaks this line will never be reached
-    return null;
+    return new JunctionGraph(this.grid);
   }
 
-  // backtrack from the end to rebuild the solution
-  public HashMap<Posn, Integer> reconstruct(HashMap<Posn, Integer> res,
-      HashMap<Posn, Posn> cameFromPosn, ArrayList<Posn> processed) {
-    Posn cur = new Posn(this.numCols - 1, this.numRows - 1);
-    ArrayList<Posn> solution = new ArrayList<Posn>();
-    while (!cur.equals(new Posn(0, 0))) {
-      solution.add(0, cur);
-      cur = cameFromPosn.get(cur);
+  // build an index for path queries between any two cells - only for perfect
+  // mazes, finishing the maze first if it isn't finished yet
+  public PathIndex buildPathIndex() {
+    if (!this.finishedMaze()) {
+      this.makeSolution();
     }
-    for (Posn n : this.adjacencyList.keySet()) {
-      if (solution.contains(n)) {
-        res.put(n, 2 * numCells + processed.indexOf(n));
-      }
-      else {
-        if (processed.contains(n)) {
-          res.put(n, numCells + processed.indexOf(n));
-        }
-        else {
-          res.put(n, 0);
-        }
-      }
+    if (!this.isPerfect()) {
+      throw new IllegalStateException("path indexes only work on perfect mazes");
     }
-    return res;
+    return new PathIndex(this.grid);
   }
 
   // BFS solve the maze and animate the solution
   public void drawBFSSolution(UI ui) {
-    HashMap<Posn, Integer> animation = this.solveBFS();
-    this.coloring = new HashMap<Posn, Color>();
-    this.delays = new HashMap<Posn, Integer>();
-    Color[] colors = { UI.NOT_VISITED_COLOR, UI.VISITED_NODE_COLOR, UI.NODE_IN_SOL_COLOR };
-    for (Posn p : animation.keySet()) {
-      this.coloring.put(p, colors[animation.get(p) / this.numCells]);
-      this.delays.put(p, animation.get(p) % this.numCells);
-    }
-    this.drawingSolution = true;
-    this.tick = 0;
+    this.animateSolution(this.solveBFS());
   }
 
   // DFS solve the maze and animate the solution
   public void drawDFSSolution(UI ui) {
-    HashMap<Posn, Integer> animation = this.solveDFS();
-    this.coloring = new HashMap<Posn, Color>();
-    this.delays = new HashMap<Posn, Integer>();
-    Color[] colors = { UI.NOT_VISITED_COLOR, UI.VISITED_NODE_COLOR, UI.NODE_IN_SOL_COLOR };
-    for (Posn p : animation.keySet()) {
-      this.coloring.put(p, colors[animation.get(p) / this.numCells]);
-      this.delays.put(p, animation.get(p) % this.numCells);
-    }
+    this.animateSolution(this.solveDFS());
+  }
+
+  // A* solve the maze and animate the solution
+  public void drawAStarSolution(UI ui) {
+    this.animateSolution(this.solveAStar());
+  }
+
+  // start animating the given solution from the beginning
+  public void animateSolution(SolveResult result) {
+    this.solution = result;
     this.drawingSolution = true;
     this.tick = 0;
+    this.redrawAll = true;
   }
 
   // clear solution drawing
   public void clearSolutionDrawing() {
     this.drawingSolution = false;
     this.tick = 0;
+    this.redrawAll = true;
   }
 }
 
@@ -356,12 +4505,26 @@ class UI extends World {
 
   public static int DEFAULT_WIDTH = 640;
   public static int DEFAULT_HEIGHT = 360;
+  public static final int FRAMES_PER_SECOND = 60;
+  // the smallest and largest cells the camera zooms to, in pixels
+  public static final int MIN_PX_PER_CELL = 2;
+  public static final int MAX_PX_PER_CELL = 256;
+  // cells at least this wide are drawn one image per wall and cell, since few
+  // of them fit in the window - smaller ones are drawn into the pixel layer
+  public static int MIN_PX_PER_CELL_AS_IMAGES = 32;
+  // what UI.layerShown holds for pixels the layer leaves clear
+  static final byte NO_PIXEL = -1;
+  static final Color CLEAR = new Color(0, 0, 0, 0);
 
+  public static Color BACKGROUND_COLOR = Color.white;
   public static Color START_NODE_COLOR = Color.green;
   public static Color TARGET_NODE_COLOR = Color.blue;
   public static Color NODE_IN_SOL_COLOR = new Color(100, 255, 100);
   public static Color VISITED_NODE_COLOR = new Color(100, 100, 255);
   public static Color NOT_VISITED_COLOR = new Color(100, 100, 100);
+  // the color of a cell in each SolveResult state
+  public static Color[] STATE_COLORS = { NOT_VISITED_COLOR, VISITED_NODE_COLOR,
+      NODE_IN_SOL_COLOR };
 
   int width;
   int height;
@@ -372,11 +4535,30 @@ class UI extends World {
   int numCols;
 
   int pxPerCell;
+  // the rows and columns of the maze inside the window - the last ones are
+  // exclusive
+  int firstRow;
+  int lastRow;
+  int firstCol;
+  int lastCol;
 
   boolean animatingMazeGeneration = false;
 
   Maze maze;
   WorldScene scene;
+  // the maze inside the window, drawn as a single image and patched one pixel
+  // at a time as the maze changes - null when the cells are drawn as images
+  ComputedPixelImage layer;
+  // the palette indices the layer is drawn from, kept from draw to draw, the
+  // one every pixel of the window shows - NO_PIXEL where the layer is clear -
+  // and the colors of the palette
+  byte[] layerPixels = new byte[0];
+  byte[] layerShown;
+  Color[] layerColors;
+  // the maze the scene was last drawn from in full, and the number of images
+  // drawn on top of it since when there is no layer
+  Maze sceneMaze;
+  int overlays;
 
   // constructor w/o pre-made maze
   UI() {
@@ -434,49 +4616,221 @@ class UI extends World {
   // needs to know how many rows & cols are in the Maze class.
   // the latter makes more sense so we implement it here:
 
-  // set and process the number of rows and columns in the maze for this UI
+  // set and process the number of rows and columns in the maze for this UI. A
+  // maze too big to fit the window shows its middle at the smallest zoom.
   public void processRowsAndCols(int rows, int cols) {
     this.numRows = rows;
     this.numCols = cols;
-    this.pxPerCell = Math.min((int) (0.8 * this.width / cols), (int) (0.8 * this.height / rows));
+    this.pxPerCell = Math.max(MIN_PX_PER_CELL,
+        Math.min((int) (0.8 * this.width / cols), (int) (0.8 * this.height / rows)));
     this.marginSide = (int) ((this.width - cols * this.pxPerCell) / 2);
     this.marginTop = (int) ((this.height - rows * this.pxPerCell) / 2);
+    this.updateViewport();
+  }
+
+  // work out the rows and columns of the maze inside the window
+  void updateViewport() {
+    this.firstRow = Math.max(0, Math.floorDiv(-this.marginTop, this.pxPerCell));
+    this.lastRow = Math.min(this.numRows,
+        Math.floorDiv(this.height - this.marginTop, this.pxPerCell) + 1);
+    this.firstCol = Math.max(0, Math.floorDiv(-this.marginSide, this.pxPerCell));
+    this.lastCol = Math.min(this.numCols,
+        Math.floorDiv(this.width - this.marginSide, this.pxPerCell) + 1);
+  }
+
+  // get the number of cells inside the window
+  int numVisibleCells() {
+    return Math.max(0, this.lastRow - this.firstRow) * Math.max(0, this.lastCol - this.firstCol);
+  }
+
+  // move the camera so the given point of the window is in the middle of it
+  public void centerOn(int x, int y) {
+    this.moveCamera(this.marginSide + this.width / 2 - x, this.marginTop + this.height / 2 - y);
   }
 
-  // Draw everything on the screen
+  // zoom in (factor above 1) or out (below 1) around the middle of the window
+  public void zoom(double factor) {
+    int px = (int) Math.max(MIN_PX_PER_CELL, Math.min(MAX_PX_PER_CELL, this.pxPerCell * factor));
+    // the point of the maze in the middle of the window stays there
+    double x = (this.width / 2 - this.marginSide) / (double) this.pxPerCell;
+    double y = (this.height / 2 - this.marginTop) / (double) this.pxPerCell;
+    this.pxPerCell = px;
+    this.moveCamera((int) Math.round(this.width / 2 - x * px),
+        (int) Math.round(this.height / 2 - y * px));
+  }
+
+  // put the top left corner of the maze at the given point of the window, as
+  // long as the maze still covers the middle of the window, and draw the scene
+  // again
+  void moveCamera(int marginSide, int marginTop) {
+    this.marginSide = Math.max(this.width / 2 - this.numCols * this.pxPerCell,
+        Math.min(this.width / 2, marginSide));
+    this.marginTop = Math.max(this.height / 2 - this.numRows * this.pxPerCell,
+        Math.min(this.height / 2, marginTop));
+    this.updateViewport();
+    this.scene = null;
+  }
+
+  // Draw everything on the screen. Small cells are drawn into one pixel image,
+  // in full only when the maze or the camera changes, and large ones as an
+  // image per wall and cell. The scene is kept from frame to frame and only
+  // what changed in the maze is drawn again - into the pixels of the layer, or
+  // on top of the scene until there are about as many images on top as cells
+  // in the window. Either way a frame costs the same whatever the size of the
+  // maze.
   @Override
   public WorldScene makeScene() {
-    this.scene = new WorldScene(this.width, this.height);
-    this.drawConstants();
-    this.maze.drawSolution(this);
-    this.maze.drawWalls(this);
+    if (this.scene == null || this.sceneMaze != this.maze || this.maze.redrawAll
+        || (this.layer == null && this.overlays > 2 * this.numVisibleCells())) {
+      this.scene = new WorldScene(this.width, this.height);
+      if (this.pxPerCell < MIN_PX_PER_CELL_AS_IMAGES) {
+        if (this.layer == null) {
+          this.layer = new ComputedPixelImage(this.width, this.height);
+          this.layerShown = new byte[this.width * this.height];
+          Arrays.fill(this.layerShown, NO_PIXEL);
+        }
+        this.maze.drawLayer(this);
+        this.scene.placeImageXY(this.layer, this.width / 2, this.height / 2);
+        this.drawConstants();
+      }
+      else {
+        this.layer = null;
+        this.drawConstants();
+        this.maze.drawSolution(this);
+        this.maze.drawWalls(this);
+      }
+      this.sceneMaze = this.maze;
+      this.overlays = 0;
+      this.maze.redrawAll = false;
+      this.maze.numChangedWalls = 0;
+    }
+    else {
+      int drawn = this.maze.drawChanges(this);
+      if (this.layer == null) {
+        this.overlays += drawn;
+      }
+    }
     return this.scene;
   }
 
+  // draw the part of the maze in the window into the layer, with the rows of
+  // palette indices the given rasterizer draws. Only the pixels that differ
+  // from what the layer holds are set, so panning over plain areas and
+  // drawing the same maze again cost little more than the rasterizer itself.
+  void drawRaster(MazeRasterizer raster) {
+    int firstRow = Math.max(0, this.firstRow);
+    int lastRow = Math.max(firstRow, Math.min(raster.numRows, this.lastRow));
+    int firstCol = Math.max(0, this.firstCol);
+    int lastCol = Math.max(firstCol, Math.min(raster.numCols, this.lastCol));
+    int stride = (lastCol - firstCol) * this.pxPerCell + 1;
+    int lines = (lastRow - firstRow) * this.pxPerCell + 1;
+    if (this.layerPixels.length < stride * lines) {
+      this.layerPixels = new byte[stride * lines];
+    }
+    byte[] pixels = this.layerPixels;
+    raster.renderCells(firstRow, lastRow, firstCol, lastCol, pixels, 0, stride);
+    // the wall along the bottom, which is outside the window unless it is the
+    // bottom of the maze
+    Arrays.fill(pixels, (lines - 1) * stride, lines * stride, MazeRasterizer.WALL);
+    this.layerColors = MazeRasterizer.paletteColors();
+    Color[] colors = this.layerColors;
+    int left = this.marginSide + firstCol * this.pxPerCell;
+    int top = this.marginTop + firstRow * this.pxPerCell;
+    boolean empty = firstRow == lastRow || firstCol == lastCol;
+    byte[] shown = this.layerShown;
+    for (int y = 0; y < this.height; y++) {
+      int row = y * this.width;
+      // the part of the window's row the maze covers
+      int from = 0;
+      int to = 0;
+      if (!empty && y >= top && y < top + lines) {
+        from = Math.max(0, left);
+        to = Math.max(from, Math.min(this.width, left + stride));
+      }
+      this.clearLayer(y, 0, from);
+      int line = (y - top) * stride - left;
+      for (int x = from; x < to; x++) {
+        byte color = pixels[line + x];
+        if (shown[row + x] != color) {
+          this.layer.setPixel(x, y, colors[color]);
+          shown[row + x] = color;
+        }
+      }
+      this.clearLayer(y, to, this.width);
+    }
+  }
+
+  // clear the pixels of the layer from column from to column to - 1 of row y
+  // that aren't clear yet
+  void clearLayer(int y, int from, int to) {
+    for (int x = from; x < to; x++) {
+      if (this.layerShown[y * this.width + x] != NO_PIXEL) {
+        this.layer.setPixel(x, y, CLEAR);
+        this.layerShown[y * this.width + x] = NO_PIXEL;
+      }
+    }
+  }
+
+  // draw the given cell into the layer again, with the walls on all four sides
+  // of it, the way the given rasterizer draws them - the wall below is the top
+  // line of the next row
+  void drawCellPixels(MazeRasterizer raster, int row, int col) {
+    int px = this.pxPerCell;
+    int stride = px + 1;
+    if (this.layerPixels.length < 2 * px * stride) {
+      this.layerPixels = new byte[2 * px * stride];
+    }
+    byte[] pixels = this.layerPixels;
+    raster.renderCells(row, Math.min(raster.numRows, row + 2), col, col + 1, pixels, 0, stride);
+    if (row == raster.numRows - 1) {
+      Arrays.fill(pixels, px * stride, (px + 1) * stride, MazeRasterizer.WALL);
+    }
+    Color[] colors = this.layerColors;
+    int left = this.marginSide + col * px;
+    int top = this.marginTop + row * px;
+    for (int y = Math.max(0, top); y < Math.min(this.height, top + stride); y++) {
+      for (int x = Math.max(0, left); x < Math.min(this.width, left + stride); x++) {
+        byte color = pixels[(y - top) * stride + x - left];
+        if (this.layerShown[y * this.width + x] != color) {
+          this.layer.setPixel(x, y, colors[color]);
+          this.layerShown[y * this.width + x] = color;
+        }
+      }
+    }
+  }
+
   // draws the unchanging parts of the maze - the perimeter and the starting and
-  // ending cells
+  // ending cells, which the layer already holds if there is one
   public void drawConstants() {
-    // draw starting cell
-    this.drawSquareAt(0, 0, START_NODE_COLOR);
-    // draw ending cell
-    this.drawSquareAt(this.numCols - 1, this.numRows - 1, TARGET_NODE_COLOR);
-    // draw the perimeter
+    if (this.layer == null) {
+      // draw starting cell
+      this.drawSquareAt(0, 0, START_NODE_COLOR);
+      // draw ending cell
+      this.drawSquareAt(this.numCols - 1, this.numRows - 1, TARGET_NODE_COLOR);
+    }
+    // draw the part of the perimeter inside the window
+    int right = this.marginSide + this.numCols * this.pxPerCell;
+    int bottom = this.marginTop + this.numRows * this.pxPerCell;
+    int x1 = Math.max(0, this.marginSide);
+    int x2 = Math.min(this.width, right);
+    int y1 = Math.max(0, this.marginTop);
+    int y2 = Math.min(this.height, bottom);
     this.scene.placeImageXY( // top border
-        new RectangleImage(this.width - 2 * this.marginSide, 2, OutlineMode.SOLID, Color.black),
-        (int) (0.5 * this.width), this.marginTop);
+        new RectangleImage(x2 - x1, 2, OutlineMode.SOLID, Color.black), (x1 + x2) / 2,
+        this.marginTop);
     this.scene.placeImageXY( // bottow border
-        new RectangleImage(this.width - 2 * this.marginSide, 2, OutlineMode.SOLID, Color.black),
-        (int) (0.5 * this.width), this.height - this.marginTop);
+        new RectangleImage(x2 - x1, 2, OutlineMode.SOLID, Color.black), (x1 + x2) / 2, bottom);
     this.scene.placeImageXY( // left border
-        new RectangleImage(2, this.height - 2 * this.marginTop, OutlineMode.SOLID, Color.black),
-        this.marginSide, (int) (0.5 * this.height));
+        new RectangleImage(2, y2 - y1, OutlineMode.SOLID, Color.black), this.marginSide,
+        (y1 + y2) / 2);
     this.scene.placeImageXY( // right border
-        new RectangleImage(2, this.height - 2 * this.marginTop, OutlineMode.SOLID, Color.black),
-        this.width - this.marginSide, (int) (0.5 * this.height));
+        new RectangleImage(2, y2 - y1, OutlineMode.SOLID, Color.black), right, (y1 + y2) / 2);
     this.scene.placeImageXY( // instructions
         new TextImage("a to get a new animated maze; " + "b to bfs search; c to hide solution; "
-            + " d to dfs search; n to get a new maze", Color.black),
-        (int) (0.5 * this.width), (int) (this.height - this.marginTop * 0.5));
+            + " d to dfs search; n to get a new maze; s to A* search;"
+            + " r to replay generation; w to rewind it; arrows to pan; + and - to zoom;"
+            + " 0 to fit; click to center", Color.black),
+        (int) (0.5 * this.width), (int) (this.height - Math.max(20, this.marginTop) * 0.5));
   }
 
   // draw a square with a specified color at column x and row y in the maze
@@ -502,6 +4856,21 @@ class UI extends World {
     }
   }
 
+  // draw over a knocked down wall between two cells in the given color. Always:
+  // Row1 <= Row2, Col1 <= Col2
+  public void drawOpening(int cellRow1, int cellCol1, int cellRow2, int cellCol2, Color color) {
+    int topleftX = this.marginSide + this.pxPerCell * cellCol2;
+    int topleftY = this.marginTop + this.pxPerCell * cellRow2;
+    if (cellRow1 == cellRow2) {
+      this.scene.placeImageXY(new RectangleImage(1, this.pxPerCell, OutlineMode.SOLID, color)
+          .movePinhole(0, -0.5 * this.pxPerCell), topleftX, topleftY);
+    }
+    else {
+      this.scene.placeImageXY(new RectangleImage(this.pxPerCell, 1, OutlineMode.SOLID, color)
+          .movePinhole(-0.5 * this.pxPerCell, 0), topleftX, topleftY);
+    }
+  }
+
   // on tick : if the maze's generation is being animated, step that
   // if a search algorithm is being animated, step that
   @Override
@@ -511,41 +4880,718 @@ class UI extends World {
     }
   }
 
-  // on key press: n for new maze
-  // b for BFS search
-  // d for DFS search
-  @Override
-  public void onKeyEvent(String key) {
-    if (key.equals("a") || key.equals("A")) {
-      this.maze = new Maze(this.numRows, this.numCols, false);
-      this.animatingMazeGeneration = true;
+  // on mouse click: move the camera so the point clicked is in the middle
+  @Override
+  public void onMouseClicked(Posn pos) {
+    this.centerOn(pos.x, pos.y);
+  }
+
+  // on key press: n for new maze
+  // b for BFS search
+  // d for DFS search
+  // s for A* search
+  // r to replay the generation of the maze
+  // w to rewind it, or play a replay the other way
+  // arrow keys to pan, + and - to zoom and 0 to fit the whole maze again
+  @Override
+  public void onKeyEvent(String key) {
+    if (this.onCameraKey(key)) {
+      return;
+    }
+    if (key.equals("r") || key.equals("R")) {
+      this.maze.startReplay(false);
+      this.animatingMazeGeneration = true;
+    }
+    else if (key.equals("w") || key.equals("W")) {
+      this.maze.reverseReplay();
+      this.animatingMazeGeneration = true;
+    }
+    else {
+      // anything else shows the whole maze again first
+      this.maze.stopReplay();
+      this.onOtherKey(key);
+    }
+  }
+
+  // move the camera if the given key is for the camera - return whether it was
+  boolean onCameraKey(String key) {
+    if (key.equals("left")) {
+      this.moveCamera(this.marginSide + this.width / 4, this.marginTop);
+    }
+    else if (key.equals("right")) {
+      this.moveCamera(this.marginSide - this.width / 4, this.marginTop);
+    }
+    else if (key.equals("up")) {
+      this.moveCamera(this.marginSide, this.marginTop + this.height / 4);
+    }
+    else if (key.equals("down")) {
+      this.moveCamera(this.marginSide, this.marginTop - this.height / 4);
+    }
+    else if (key.equals("+") || key.equals("=")) {
+      this.zoom(2);
+    }
+    else if (key.equals("-")) {
+      this.zoom(0.5);
+    }
+    else if (key.equals("0")) {
+      this.processRowsAndCols(this.numRows, this.numCols);
+      this.scene = null;
+    }
+    else {
+      return false;
+    }
+    return true;
+  }
+
+  // handle every key that isn't for replays
+  void onOtherKey(String key) {
+    if (key.equals("a") || key.equals("A")) {
+      this.maze = new Maze(this.numRows, this.numCols, false);
+      this.animatingMazeGeneration = true;
+    }
+    else {
+      if (key.equals("b") || key.equals("B")) {
+        this.maze.drawBFSSolution(this);
+      }
+      else {
+        if (key.equals("c") || key.equals("C")) {
+          this.maze.clearSolutionDrawing();
+        }
+        else {
+          if (key.equals("d") || key.equals("D")) {
+            this.maze.drawDFSSolution(this);
+          }
+          else {
+            if (key.equals("n") || key.equals("N")) {
+              this.maze = new Maze(this.numRows, this.numCols);
+            }
+            else {
+              if (key.equals("s") || key.equals("S")) {
+                this.maze.drawAStarSolution(this);
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+
+  public static void main(String[] args) {
+    Maze m = new Maze(9, 16, false);
+    UI ui = new UI(m, 640, 360, true);
+    ui.bigBang(ui.width, ui.height, 1.0 / FRAMES_PER_SECOND);
+  }
+}
+
+// Timings for the heavy parts of the maze. Run with the name of a benchmark as
+// the only argument (or no arguments to run all of them), e.g.
+// java MazeBenchmarks kruskal
+class MazeBenchmarks {
+
+  public static void main(String[] args) {
+    String which = args.length > 0 ? args[0] : "all";
+    if (which.equals("all") || which.equals("kruskal")) {
+      kruskalScaling();
+    }
+    if (which.equals("all") || which.equals("unionfind")) {
+      unionFind(100000000);
+    }
+    if (which.equals("all") || which.equals("tiled")) {
+      tiledSpeedup(4000);
+    }
+    if (which.equals("all") || which.equals("eller")) {
+      ellerStream(100000, 2000);
+    }
+    if (which.equals("all") || which.equals("solvers")) {
+      solverComparison();
+    }
+    if (which.equals("all") || which.equals("bidirectional")) {
+      bidirectionalComparison();
+    }
+    if (which.equals("all") || which.equals("pathindex")) {
+      pathIndexQueries(2000, 1000000);
+    }
+    if (which.equals("all") || which.equals("analysis")) {
+      analysis(2000);
+    }
+    if (which.equals("all") || which.equals("parallelbfs")) {
+      parallelBfs(3000);
+    }
+    if (which.equals("all") || which.equals("junction")) {
+      junctionQueries(1000, 500);
+    }
+    if (which.equals("all") || which.equals("dijkstra")) {
+      weightedSolve(2000);
+    }
+    if (which.equals("all") || which.equals("mapped")) {
+      mappedFile(10000, 10000);
+    }
+    if (which.equals("all") || which.equals("codec")) {
+      treeCodec(2000, 2000);
+    }
+    if (which.equals("all") || which.equals("scene")) {
+      sceneFrames(200, 2000);
+    }
+    if (which.equals("all") || which.equals("animate")) {
+      animateGeneration(200);
+      animateGeneration(1000);
+    }
+    if (which.equals("all") || which.equals("replay")) {
+      replayLog(1000);
+    }
+    if (which.equals("all") || which.equals("solution")) {
+      animateSolution(1000);
+    }
+    if (which.equals("all") || which.equals("viewport")) {
+      viewportFrames(2000, 100);
+    }
+    if (which.equals("all") || which.equals("raster")) {
+      rasterize(20000, 2);
+    }
+    if (which.equals("all") || which.equals("batch")) {
+      batchQueries(500, 400000, false);
+      batchQueries(500, 2000, true);
+    }
+  }
+
+  // time building whole mazes with kruskal's algorithm from 100x100 up to
+  // 4000x4000. The work per cell is constant, but the time per cell roughly
+  // triples past 1M cells once the shuffled walls and the union-find parents no
+  // longer fit in cache.
+  static void kruskalScaling() {
+    int[] sizes = { 100, 250, 500, 1000, 2000, 4000 };
+    // warm up the JIT so the first size isn't penalized
+    for (int i = 0; i < 5; i++) {
+      new Maze(200, 200);
+    }
+    System.out.println("kruskal: size, cells, ms, ns/cell");
+    for (int size : sizes) {
+      long start = System.nanoTime();
+      Maze m = new Maze(size, size);
+      long elapsed = System.nanoTime() - start;
+      System.out.println(size + "x" + size + ", " + m.numCells + ", " + (elapsed / 1000000) + ", "
+          + (elapsed / m.numCells));
+    }
+  }
+
+  // time building a size x size maze with TiledGenerator on pools of 1 up to
+  // twice the number of cores, next to plain kruskal on one thread
+  static void tiledSpeedup(int size) {
+    int cores = Runtime.getRuntime().availableProcessors();
+    for (int i = 0; i < 3; i++) {
+      new Maze(500, 500, MazeAlgorithm.TILED_KRUSKAL, i);
+    }
+    long start = System.nanoTime();
+    new Maze(size, size);
+    long serial = System.nanoTime() - start;
+    System.out.println("tiled " + size + "x" + size + " on " + cores + " cores");
+    System.out.println("kruskal, 1 thread, " + (serial / 1000000) + " ms");
+    System.out.println("threads, ms, speedup vs kruskal");
+    for (int threads = 1; threads <= 2 * cores; threads *= 2) {
+      ForkJoinPool pool = new ForkJoinPool(threads);
+      start = System.nanoTime();
+      new TiledGenerator(new MazeGrid(size, size), TiledGenerator.DEFAULT_TILE_SIZE, 1)
+          .generate(pool);
+      long elapsed = System.nanoTime() - start;
+      pool.shutdown();
+      System.out.println(threads + ", " + (elapsed / 1000000) + ", "
+          + String.format("%.2f", (double) serial / elapsed));
+    }
+  }
+
+  // stream a maze with eller's algorithm into a sink that throws the rows away,
+  // reporting the throughput and how much heap it took
+  static void ellerStream(int cols, int rows) {
+    Runtime rt = Runtime.getRuntime();
+    System.gc();
+    long heapBefore = rt.totalMemory() - rt.freeMemory();
+    long[] count = new long[1];
+    long start = System.nanoTime();
+    try {
+      new EllerGenerator(rows, cols, 1).generate((row, right, down) -> {
+        count[0] += Long.bitCount(right[0]);
+      });
+    }
+    catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    long elapsed = System.nanoTime() - start;
+    long heapAfter = rt.totalMemory() - rt.freeMemory();
+    System.out.println("eller: " + cols + " cols x " + rows + " rows, " + (elapsed / 1000000)
+        + " ms, " + (elapsed / ((long) rows * cols)) + " ns/cell, heap grew by about "
+        + Math.max(0, (heapAfter - heapBefore) / 1024) + " KB");
+  }
+
+  // compare how many cells BFS, DFS and A* expand between opposite corners,
+  // averaged over 20 mazes of each size
+  static void solverComparison() {
+    int[] sizes = { 50, 200, 1000 };
+    int trials = 20;
+    System.out.println("solvers: size, avg expanded by bfs, dfs, astar (% of cells)");
+    for (int size : sizes) {
+      long bfs = 0;
+      long dfs = 0;
+      long astar = 0;
+      for (int seed = 0; seed < trials; seed++) {
+        Maze m = new Maze(size, size, MazeAlgorithm.KRUSKAL, seed);
+        bfs += m.solveBFS().numVisited();
+        dfs += m.solveDFS().numVisited();
+        astar += m.solveAStar().numVisited();
+      }
+      double cells = (double) size * size * trials;
+      System.out.println(size + "x" + size + ", "
+          + String.format("%d (%.1f%%), %d (%.1f%%), %d (%.1f%%)", bfs / trials, 100 * bfs / cells,
+              dfs / trials, 100 * dfs / cells, astar / trials, 100 * astar / cells));
+    }
+  }
+
+  // compare a bidirectional BFS with a plain one between opposite corners, on
+  // tiled mazes from 100x100 up to 5000x5000
+  static void bidirectionalComparison() {
+    int[] sizes = { 100, 500, 1000, 2000, 5000 };
+    int trials = 5;
+    SearchEngine search = new SearchEngine();
+    System.out.println("bidirectional: size, bfs expanded, bfs ms, bidirectional expanded, "
+        + "bidirectional ms (averages)");
+    for (int size : sizes) {
+      long bfsExpanded = 0;
+      long bfsTime = 0;
+      long biExpanded = 0;
+      long biTime = 0;
+      for (int seed = 0; seed < trials; seed++) {
+        Maze m = new Maze(size, size, MazeAlgorithm.TILED_KRUSKAL, seed);
+        // once unmeasured to warm up
+        search.bfs(m.grid, 0, m.numCells - 1);
+        search.bidirectionalBfs(m.grid, 0, m.numCells - 1);
+        long start = System.nanoTime();
+        search.bfs(m.grid, 0, m.numCells - 1);
+        bfsTime += System.nanoTime() - start;
+        bfsExpanded += search.numVisited;
+        start = System.nanoTime();
+        search.bidirectionalBfs(m.grid, 0, m.numCells - 1);
+        biTime += System.nanoTime() - start;
+        biExpanded += search.numVisited;
+      }
+      System.out.println(size + "x" + size + ", " + bfsExpanded / trials + ", "
+          + String.format("%.1f", bfsTime / 1e6 / trials) + ", " + biExpanded / trials + ", "
+          + String.format("%.1f", biTime / 1e6 / trials));
+    }
+  }
+
+  // build a PathIndex over a size x size maze and time random distance and
+  // path queries against it
+  static void pathIndexQueries(int size, int queries) {
+    Maze m = new Maze(size, size, MazeAlgorithm.TILED_KRUSKAL, 1);
+    long start = System.nanoTime();
+    PathIndex idx = m.buildPathIndex();
+    long build = System.nanoTime() - start;
+    SplittableRandom rand = new SplittableRandom(2);
+    long total = 0;
+    start = System.nanoTime();
+    for (int i = 0; i < queries; i++) {
+      total += idx.distance(rand.nextInt(m.numCells), rand.nextInt(m.numCells));
+    }
+    long distances = System.nanoTime() - start;
+    start = System.nanoTime();
+    for (int i = 0; i < queries / 10; i++) {
+      total += idx.path(rand.nextInt(m.numCells), rand.nextInt(m.numCells)).length;
+    }
+    long paths = System.nanoTime() - start;
+    System.out.println("pathindex " + size + "x" + size + ": build " + (build / 1000000)
+        + " ms, " + idx.up.length + " levels, distance " + (distances / queries) + " ns/query, "
+        + "path " + (paths / (queries / 10)) + " ns/query (checksum " + total + ")");
+  }
+
+  // time each metric of a MazeAnalysis on a size x size maze
+  static void analysis(int size) {
+    Maze m = new Maze(size, size, MazeAlgorithm.TILED_KRUSKAL, 1);
+    MazeAnalysis a = m.analyze();
+    long start = System.nanoTime();
+    int diameter = a.diameter();
+    long diameterTime = System.nanoTime() - start;
+    start = System.nanoTime();
+    int[] degrees = a.degreeCounts();
+    long degreeTime = System.nanoTime() - start;
+    start = System.nanoTime();
+    int[] corridors = a.corridorLengths();
+    long corridorTime = System.nanoTime() - start;
+    System.out.println("analysis " + size + "x" + size + ": diameter " + diameter + " in "
+        + (diameterTime / 1000000) + " ms, degrees " + Arrays.toString(degrees) + " in "
+        + (degreeTime / 1000000) + " ms, longest corridor " + (corridors.length - 1) + " in "
+        + (corridorTime / 1000000) + " ms");
+  }
+
+  // time a full BFS of a size x size perfect maze and a size x size open grid,
+  // serially and on pools of more and more threads
+  static void parallelBfs(int size) {
+    int cores = Runtime.getRuntime().availableProcessors();
+    MazeGrid perfect = new Maze(size, size, MazeAlgorithm.TILED_KRUSKAL, 1).grid;
+    MazeGrid open = new MazeGrid(size, size);
+    for (int wall = 0; wall < 2 * open.numCells; wall++) {
+      if (open.isInnerWall(wall)) {
+        open.open(wall);
+      }
+    }
+    System.out.println("parallel bfs " + size + "x" + size + " on " + cores + " cores");
+    System.out.println("maze, threads, ms, parallel levels, speedup vs serial search");
+    for (MazeGrid grid : new MazeGrid[] { perfect, open }) {
+      String name = grid == open ? "open" : "perfect";
+      // from the middle, where the open grid's levels are widest
+      int source = grid.index(size / 2, size / 2);
+      SearchEngine search = new SearchEngine();
+      search.bfs(grid, source, -1);
+      long start = System.nanoTime();
+      search.bfs(grid, source, -1);
+      long serial = System.nanoTime() - start;
+      System.out.println(name + ", serial, " + (serial / 1000000) + ", 0, 1.00");
+      for (int threads = 1; threads <= 2 * cores; threads *= 2) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        ParallelBfs bfs = new ParallelBfs(grid, pool);
+        bfs.search(source, -1);
+        start = System.nanoTime();
+        bfs.search(source, -1);
+        long elapsed = System.nanoTime() - start;
+        pool.shutdown();
+        System.out.println(name + ", " + threads + ", " + (elapsed / 1000000) + ", "
+            + bfs.parallelLevels + ", " + String.format("%.2f", (double) serial / elapsed));
+      }
+    }
+  }
+
+  // report how much a junction graph shrinks a size x size maze and time
+  // random path queries on it against BFS on the whole maze
+  static void junctionQueries(int size, int queries) {
+    Maze m = new Maze(size, size, MazeAlgorithm.TILED_KRUSKAL, 1);
+    long start = System.nanoTime();
+    JunctionGraph j = m.buildJunctionGraph();
+    long build = System.nanoTime() - start;
+    SplittableRandom rand = new SplittableRandom(2);
+    int[] starts = new int[queries];
+    int[] goals = new int[queries];
+    for (int i = 0; i < queries; i++) {
+      starts[i] = rand.nextInt(m.numCells);
+      goals[i] = rand.nextInt(m.numCells);
+    }
+    SearchEngine search = new SearchEngine();
+    long total = 0;
+    // warm up
+    for (int i = 0; i < 50; i++) {
+      search.bfs(m.grid, goals[i], starts[i]);
+      total += j.path(goals[i], starts[i]).length;
+    }
+    start = System.nanoTime();
+    for (int i = 0; i < queries; i++) {
+      search.bfs(m.grid, starts[i], goals[i]);
+      total += search.numVisited;
+    }
+    long bfs = System.nanoTime() - start;
+    start = System.nanoTime();
+    for (int i = 0; i < queries; i++) {
+      total += j.path(starts[i], goals[i]).length;
+    }
+    long junction = System.nanoTime() - start;
+    System.out.println("junction " + size + "x" + size + ": build " + (build / 1000000) + " ms, "
+        + j.numNodes + " nodes, " + j.numEdges + " edges, compression "
+        + String.format("%.2f", j.compressionRatio()) + "x, bfs " + (bfs / queries / 1000)
+        + " us/query, junction graph " + (junction / queries / 1000) + " us/query (checksum "
+        + total + ")");
+  }
+
+  // braid a size x size maze, give it random terrain and time dijkstra on it
+  // against plain BFS
+  static void weightedSolve(int size) {
+    Maze m = new Maze(size, size, MazeAlgorithm.TILED_KRUSKAL, 1);
+    long start = System.nanoTime();
+    int opened = m.braid(0.5);
+    long braid = System.nanoTime() - start;
+    m.randomTerrain(9);
+    SearchEngine search = new SearchEngine();
+    search.bfs(m.grid, 0, -1);
+    search.dijkstra(m.grid, m.costs, 0, -1);
+    start = System.nanoTime();
+    search.bfs(m.grid, 0, -1);
+    long bfs = System.nanoTime() - start;
+    start = System.nanoTime();
+    search.dijkstra(m.grid, m.costs, 0, -1);
+    long dijkstra = System.nanoTime() - start;
+    System.out.println("dijkstra " + size + "x" + size + ": braid " + (braid / 1000000)
+        + " ms (" + opened + " walls), full bfs " + (bfs / 1000000) + " ms, full dijkstra "
+        + (dijkstra / 1000000) + " ms, " + String.format("%.1f", (double) dijkstra / bfs)
+        + "x bfs");
+  }
+
+  // stream a maze straight into a mapped file, time opening it and compare a
+  // full BFS on the mapped file with one on a copy on the heap
+  static void mappedFile(int cols, int rows) {
+    try {
+      File file = File.createTempFile("maze", ".bin");
+      file.deleteOnExit();
+      long start = System.nanoTime();
+      MazeFile.writeEller(file.toPath(), rows, cols, 1);
+      long write = System.nanoTime() - start;
+      start = System.nanoTime();
+      MappedMaze mapped = MazeFile.open(file.toPath());
+      long open = System.nanoTime() - start;
+      SearchEngine search = new SearchEngine();
+      start = System.nanoTime();
+      search.bfs(mapped, 0, -1);
+      long mappedBfs = System.nanoTime() - start;
+      start = System.nanoTime();
+      MazeGrid grid = mapped.toGrid();
+      long load = System.nanoTime() - start;
+      start = System.nanoTime();
+      search.bfs(grid, 0, -1);
+      long heapBfs = System.nanoTime() - start;
+      System.out.println("mapped " + cols + "x" + rows + ": file " + (file.length() >> 20)
+          + " MB written in " + (write / 1000000) + " ms, open " + (open / 1000) + " us, bfs on "
+          + "the mapping " + (mappedBfs / 1000000) + " ms, copy to heap " + (load / 1000000)
+          + " ms, bfs on the heap " + (heapBfs / 1000000) + " ms");
+      file.delete();
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // compress a cols x rows maze from each generator, reporting the bits per
+  // cell and how fast the raw wall bits go through each way
+  static void treeCodec(int cols, int rows) {
+    double rawMB = 2.0 * cols * rows / 8 / (1 << 20);
+    for (MazeAlgorithm algorithm : MazeAlgorithm.values()) {
+      Maze m = new Maze(rows, cols, algorithm, 1);
+      try {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TreeCodec.encode(m, new ByteArrayOutputStream());
+        long start = System.nanoTime();
+        TreeCodec.encode(m, out);
+        long encode = System.nanoTime() - start;
+        byte[] bytes = out.toByteArray();
+        new TreeDecoder(new ByteArrayInputStream(bytes)).decode((row, right, down) -> { });
+        start = System.nanoTime();
+        new TreeDecoder(new ByteArrayInputStream(bytes)).decode((row, right, down) -> { });
+        long decode = System.nanoTime() - start;
+        System.out.println("codec " + algorithm + " " + cols + "x" + rows + ": "
+            + String.format("%.3f", 8.0 * bytes.length / m.numCells) + " bits/cell, encode "
+            + String.format("%.1f", rawMB / (encode / 1e9)) + " MB/s, decode "
+            + String.format("%.1f", rawMB / (decode / 1e9)) + " MB/s");
+      }
+      catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  // time generating a size x size maze with union-find against seeking to
+  // either end of its replay, and writing and reading the log
+  static void replayLog(int size) {
+    try {
+      long start = System.nanoTime();
+      Maze m = new Maze(size, size, MazeAlgorithm.KRUSKAL, 1);
+      long generate = System.nanoTime() - start;
+      GenerationLog log = m.generationLog();
+      m.startReplay(false);
+      start = System.nanoTime();
+      m.seek(log.numFrames());
+      long forward = System.nanoTime() - start;
+      start = System.nanoTime();
+      m.seek(0);
+      long backward = System.nanoTime() - start;
+      start = System.nanoTime();
+      int open = 0;
+      for (int wall = 0; wall < 2 * m.numCells; wall++) {
+        if (log.isOpen(wall, log.numFrames() / 2)) {
+          open++;
+        }
+      }
+      long query = System.nanoTime() - start;
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      start = System.nanoTime();
+      log.write(out);
+      long write = System.nanoTime() - start;
+      start = System.nanoTime();
+      GenerationLog.read(new ByteArrayInputStream(out.toByteArray()));
+      long read = System.nanoTime() - start;
+      System.out.println("replay " + size + "x" + size + ": union-find " + (generate / 1000000)
+          + " ms, seek to the end " + (forward / 1000) + " us, back to the start "
+          + (backward / 1000) + " us, " + open + " walls open halfway in " + (query / 1000000)
+          + " ms, log " + (out.size() >> 20) + " MB written in " + (write / 1000000)
+          + " ms, read in " + (read / 1000000) + " ms");
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // time the frames of the animated BFS solution of a size x size maze
+  static void animateSolution(int size) {
+    Maze m = new Maze(size, size, MazeAlgorithm.KRUSKAL, 1);
+    UI ui = new UI(m, 1280, 720, true);
+    m.drawBFSSolution(ui);
+    ui.makeScene();
+    int frames = 0;
+    long start = System.nanoTime();
+    while (m.tick <= m.solution.numVisited()) {
+      ui.onTick();
+      ui.makeScene();
+      frames++;
+    }
+    long elapsed = System.nanoTime() - start;
+    System.out.println("solution " + size + "x" + size + ": " + frames + " frames, "
+        + String.format("%.3f", elapsed / 1e6 / frames) + " ms/frame");
+  }
+
+  // time drawing a size x size maze from scratch as the camera pans over it at
+  // every zoom from the smallest cells up, into the pixel layer and as images
+  static void viewportFrames(int size, int frames) {
+    Maze m = new Maze(size, size, MazeAlgorithm.ELLER, 1);
+    UI ui = new UI(m, 1280, 720);
+    int asImages = UI.MIN_PX_PER_CELL_AS_IMAGES;
+    for (; ui.pxPerCell <= 128; ui.zoom(2)) {
+      String times = "";
+      for (int pass = 0; pass < 2; pass++) {
+        UI.MIN_PX_PER_CELL_AS_IMAGES = pass == 0 ? Integer.MAX_VALUE : 0;
+        ui.scene = null;
+        ui.makeScene();
+        long start = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+          ui.onKeyEvent(i % 20 < 10 ? "right" : "left");
+          ui.makeScene();
+        }
+        times += String.format("%.2f", (System.nanoTime() - start) / 1e6 / frames)
+            + (pass == 0 ? " ms/frame into the layer, " : " ms/frame as images");
+      }
+      System.out.println("viewport " + size + "x" + size + " at " + ui.pxPerCell + " px/cell: "
+          + ui.numVisibleCells() + " cells in view, " + times);
+    }
+    UI.MIN_PX_PER_CELL_AS_IMAGES = asImages;
+  }
+
+  // count the frames animating the generation of a size x size maze takes, and
+  // the time the slowest of them spends generating
+  static void animateGeneration(int size) {
+    Maze m = new Maze(size, size, false);
+    int frames = 0;
+    long slowest = 0;
+    while (!m.finishedMaze()) {
+      long start = System.nanoTime();
+      m.tick();
+      slowest = Math.max(slowest, System.nanoTime() - start);
+      frames++;
+    }
+    System.out.println("animate " + size + "x" + size + ": " + frames + " frames ("
+        + String.format("%.1f", frames / (double) UI.FRAMES_PER_SECOND) + " s) instead of "
+        + m.kruskal.cursor + " one-step frames, slowest frame "
+        + String.format("%.2f", slowest / 1e6) + " ms");
+  }
+
+  // time the frames of an animated size x size maze generation, drawing every
+  // frame from scratch and then drawing only what changed
+  static void sceneFrames(int size, int frames) {
+    for (int pass = 0; pass < 2; pass++) {
+      boolean full = pass == 0;
+      Maze m = new Maze(size, size, false);
+      UI ui = new UI(m, 1280, 720, true);
+      ui.makeScene();
+      long start = System.nanoTime();
+      for (int i = 0; i < frames; i++) {
+        for (int k = 0; k < 50; k++) {
+          ui.onTick();
+        }
+        m.redrawAll |= full;
+        ui.makeScene();
+      }
+      long elapsed = System.nanoTime() - start;
+      System.out.println("scene " + size + "x" + size
+          + (full ? " full redraw: " : " changes only: ")
+          + String.format("%.3f", elapsed / 1e6 / frames) + " ms/frame");
+    }
+  }
+
+  // stream a size x size maze out as a PNG with no display, to a file so the
+  // compression is paid for too
+  static void rasterize(int size, int pxPerCell) {
+    try {
+      Maze m = new Maze(size, size, MazeAlgorithm.ELLER, 1);
+      MazeRasterizer r = new MazeRasterizer(m.grid, pxPerCell);
+      File file = File.createTempFile("maze", ".png");
+      file.deleteOnExit();
+      OutputStream out = new FileOutputStream(file);
+      long start = System.nanoTime();
+      r.writePng(out, ForkJoinPool.commonPool());
+      out.close();
+      long png = System.nanoTime() - start;
+      byte[] band = new byte[MazeRasterizer.BATCH_ROWS * pxPerCell * r.width];
+      start = System.nanoTime();
+      for (int lo = 0; lo < size; lo += MazeRasterizer.BATCH_ROWS) {
+        int hi = Math.min(size, lo + MazeRasterizer.BATCH_ROWS);
+        ForkJoinPool.commonPool().invoke(new RasterTask(r, lo, hi, band, 0, r.width));
+      }
+      long draw = System.nanoTime() - start;
+      System.out.println("raster " + size + "x" + size + " at " + pxPerCell + " px/cell: "
+          + r.width + "x" + r.height + " pixels, drawing " + (draw / 1000000) + " ms, png "
+          + (png / 1000000) + " ms, " + (file.length() >> 20) + " MB");
+      file.delete();
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // time a batch of random path queries on a size x size maze, serially and
+  // with a BatchPathSolver
+  static void batchQueries(int size, int queries, boolean braided) {
+    Maze m = new Maze(size, size, MazeAlgorithm.TILED_KRUSKAL, 1);
+    if (braided) {
+      m.braid(0.5);
     }
-    else {
-      if (key.equals("b") || key.equals("B")) {
-        this.maze.drawBFSSolution(this);
-      }
-      else {
-        if (key.equals("c") || key.equals("C")) {
-          this.maze.clearSolutionDrawing();
-        }
-        else {
-          if (key.equals("d") || key.equals("D")) {
-            this.maze.drawDFSSolution(this);
-          }
-          else {
-            if (key.equals("n") || key.equals("N")) {
-              this.maze = new Maze(this.numRows, this.numCols);
-            }
-          }
-        }
-      }
+    FrozenMaze f = m.freeze();
+    SplittableRandom rand = new SplittableRandom(2);
+    int[] starts = new int[queries];
+    int[] goals = new int[queries];
+    for (int i = 0; i < queries; i++) {
+      starts[i] = rand.nextInt(f.numCells());
+      goals[i] = rand.nextInt(f.numCells());
     }
+    ExecutorService executor = BatchPathSolver.newExecutor();
+    ExecutorService single = Executors.newSingleThreadExecutor();
+    BatchPathSolver parallel = new BatchPathSolver(f, executor);
+    BatchPathSolver serial = new BatchPathSolver(f, single);
+    // warm up
+    parallel.distances(Arrays.copyOf(starts, 500), Arrays.copyOf(goals, 500));
+    serial.distances(Arrays.copyOf(starts, 500), Arrays.copyOf(goals, 500));
+    long start = System.nanoTime();
+    serial.distances(starts, goals);
+    long serialTime = System.nanoTime() - start;
+    start = System.nanoTime();
+    parallel.distances(starts, goals);
+    long parallelTime = System.nanoTime() - start;
+    executor.shutdown();
+    single.shutdown();
+    System.out.println("batch " + size + "x" + size + (braided ? " braided" : " perfect") + ", "
+        + queries + " queries: 1 thread "
+        + String.format("%.0f", queries / (serialTime / 1e9)) + " queries/s, "
+        + Runtime.getRuntime().availableProcessors() + " threads "
+        + String.format("%.0f", queries / (parallelTime / 1e9)) + " queries/s");
   }
 
-  public static void main(String[] args) {
-    Maze m = new Maze(9, 16, false);
-    UI ui = new UI(m, 640, 360, true);
-    ui.bigBang(ui.width, ui.height, 1.0 / 60);
+  // union n elements in random order into a single set and time it, along with
+  // the number of finds and links that took
+  static void unionFind(int n) {
+    DisjointSet d = new DisjointSet(n);
+    long start = System.nanoTime();
+    // join neighbors in a random order, like kruskal on a 1-row maze
+    int[] order = new int[n - 1];
+    for (int i = 0; i < n - 1; i++) {
+      order[i] = i;
+    }
+    MazeRandom.shuffle(order, order.length, MazeRandom.forRegion(42, 0));
+    for (int i : order) {
+      d.union(i, i + 1);
+    }
+    long elapsed = System.nanoTime() - start;
+    System.out.println("unionfind: elements, sets left, finds, links, ms, ns/element");
+    System.out.println(n + ", " + d.numSets + ", " + d.numFinds + ", " + d.numLinks + ", "
+        + (elapsed / 1000000) + ", " + (elapsed / n));
   }
 }
 
@@ -574,6 +5620,11 @@ class TestingUI extends UI {
 
 }
 
+// Code a test expects to throw - see ExamplesMaze.errorOf
+interface Failing {
+  void run() throws Exception;
+}
+
 class ExamplesMaze {
 
   // test the TestingUI drawEdge method
@@ -643,6 +5694,1243 @@ class ExamplesMaze {
     t.checkExpect(h.getOtherPosn(), new Posn(0, 1));
   }
 
+  // test the wallId method of Edge
+  void testEdgeWallId(Tester t) {
+    // in a 3 column grid the cell at (1, 2) is cell 7
+    t.checkExpect(new Edge(1, 2, true).wallId(3), 14);
+    t.checkExpect(new Edge(1, 2, false).wallId(3), 15);
+    t.checkExpect(new Edge(0, 0, true).wallId(3), MazeGrid.wallId(0, MazeGrid.RIGHT));
+  }
+
+  // test the constructor of MazeGrid
+  void testMazeGridConstructor(Tester t) {
+    MazeGrid g = new MazeGrid(3, 40);
+    t.checkExpect(g.numRows, 3);
+    t.checkExpect(g.numCols, 40);
+    t.checkExpect(g.numCells, 120);
+    // 2 bits per cell packed into longs
+    t.checkExpect(g.passages.length, 4);
+    // every wall starts out standing
+    for (int wall = 0; wall < 2 * g.numCells; wall++) {
+      t.checkExpect(g.isOpen(wall), false);
+    }
+  }
+
+  // test the index, colOf, rowOf and toPosn methods of MazeGrid
+  void testMazeGridIndex(Tester t) {
+    MazeGrid g = new MazeGrid(3, 4);
+    t.checkExpect(g.index(0, 0), 0);
+    t.checkExpect(g.index(3, 0), 3);
+    t.checkExpect(g.index(1, 2), 9);
+    t.checkExpect(g.index(new Posn(1, 2)), 9);
+    t.checkExpect(g.colOf(9), 1);
+    t.checkExpect(g.rowOf(9), 2);
+    t.checkExpect(g.toPosn(9), new Posn(1, 2));
+  }
+
+  // test the wall id arithmetic of MazeGrid
+  void testMazeGridWallIds(Tester t) {
+    MazeGrid g = new MazeGrid(3, 4);
+    t.checkExpect(MazeGrid.wallId(5, MazeGrid.RIGHT), 10);
+    t.checkExpect(MazeGrid.wallId(5, MazeGrid.DOWN), 11);
+    t.checkExpect(MazeGrid.cellOf(10), 5);
+    t.checkExpect(MazeGrid.cellOf(11), 5);
+    t.checkExpect(g.otherCell(10), 6);
+    t.checkExpect(g.otherCell(11), 9);
+    t.checkExpect(g.wallBetween(5, 6), 10);
+    t.checkExpect(g.wallBetween(6, 5), 10);
+    t.checkExpect(g.wallBetween(9, 5), 11);
+    // cell 3 ends its row, so the cell it shares a wall with is the one below it
+    t.checkExpect(g.wallBetween(3, 7), MazeGrid.wallId(3, MazeGrid.DOWN));
+    t.checkExpect(g.isInnerWall(10), true);
+    t.checkExpect(g.isInnerWall(MazeGrid.wallId(3, MazeGrid.RIGHT)), false);
+    t.checkExpect(g.isInnerWall(MazeGrid.wallId(9, MazeGrid.DOWN)), false);
+  }
+
+  // test the open and isOpen methods of MazeGrid
+  void testMazeGridOpen(Tester t) {
+    MazeGrid g = new MazeGrid(10, 10);
+    t.checkExpect(g.isOpen(70), false);
+    g.open(70);
+    t.checkExpect(g.isOpen(70), true);
+    // bits in the same and in other words are untouched
+    t.checkExpect(g.isOpen(69), false);
+    t.checkExpect(g.isOpen(71), false);
+    t.checkExpect(g.isOpen(6), false);
+  }
+
+  // test the neighbors and degree methods of MazeGrid
+  void testMazeGridNeighbors(Tester t) {
+    MazeGrid g = new MazeGrid(3, 3);
+    int[] out = new int[4];
+    t.checkExpect(g.neighbors(4, out), 0);
+    t.checkExpect(g.degree(4), 0);
+    g.open(g.wallBetween(4, 5));
+    g.open(g.wallBetween(4, 7));
+    g.open(g.wallBetween(4, 3));
+    g.open(g.wallBetween(4, 1));
+    t.checkExpect(g.neighbors(4, out), 4);
+    t.checkExpect(g.degree(4), 4);
+    // right, down, left, up
+    t.checkExpect(out, new int[] { 5, 7, 3, 1 });
+    t.checkExpect(g.neighbors(1, out), 1);
+    t.checkExpect(out[0], 4);
+    // border cells never see through the perimeter
+    t.checkExpect(g.degree(2), 0);
+    t.checkExpect(g.degree(6), 0);
+  }
+
+  // test the copy constructor of MazeGrid
+  void testMazeGridCopy(Tester t) {
+    MazeGrid g = this.exampleTree();
+    MazeGrid copy = new MazeGrid(g);
+    t.checkExpect(copy.numRows, 3);
+    t.checkExpect(copy.numCols, 3);
+    t.checkExpect(copy.passages, g.passages);
+    // the copy has walls of its own
+    copy.open(g.wallBetween(4, 7));
+    t.checkExpect(g.isOpen(g.wallBetween(4, 7)), false);
+  }
+
+  // test the MazeGraph accessors of MazeGrid
+  void testMazeGridAsGraph(Tester t) {
+    MazeGraph g = new MazeGrid(3, 7);
+    t.checkExpect(g.numRows(), 3);
+    t.checkExpect(g.numCols(), 7);
+    t.checkExpect(g.numCells(), 21);
+    t.checkExpect(g.colOf(15), 1);
+    t.checkExpect(g.rowOf(15), 2);
+  }
+
+  // test the isConnected and neighbors methods of Maze
+  void testMazeIsConnected(Tester t) {
+    Maze m = new Maze(2, 2, false);
+    Posn p00 = new Posn(0, 0);
+    Posn p10 = new Posn(1, 0);
+    t.checkExpect(m.isConnected(p00, p10), false);
+    m.addEdge(new Edge(0, 0, true), p00, p10);
+    t.checkExpect(m.isConnected(p00, p10), true);
+    t.checkExpect(m.isConnected(p10, p00), true);
+    t.checkExpect(m.neighbors(p00), new ArrayList<Posn>(Arrays.asList(p10)));
+  }
+
+  // test the forRegion method of MazeRandom
+  void testMazeRandomForRegion(Tester t) {
+    // the same seed and region always give the same stream
+    t.checkExpect(MazeRandom.forRegion(10, 3).nextLong(), MazeRandom.forRegion(10, 3).nextLong());
+    // other regions and other seeds don't
+    t.checkExpect(MazeRandom.forRegion(10, 3).nextLong() == MazeRandom.forRegion(10, 4).nextLong(),
+        false);
+    t.checkExpect(MazeRandom.forRegion(10, 3).nextLong() == MazeRandom.forRegion(11, 3).nextLong(),
+        false);
+    t.checkExpect(MazeRandom.mix(0), 0L);
+    t.checkExpect(MazeRandom.mix(1) == 1, false);
+  }
+
+  // test the shuffle method of MazeRandom
+  void testMazeRandomShuffle(Tester t) {
+    int[] arr = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9 };
+    MazeRandom.shuffle(arr, 6, new SplittableRandom(8));
+    // only the first 6 move, and they are still a permutation
+    t.checkExpect(Arrays.copyOfRange(arr, 6, 10), new int[] { 6, 7, 8, 9 });
+    int[] firstSix = Arrays.copyOf(arr, 6);
+    Arrays.sort(firstSix);
+    t.checkExpect(firstSix, new int[] { 0, 1, 2, 3, 4, 5 });
+    int[] again = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9 };
+    MazeRandom.shuffle(again, 6, new SplittableRandom(8));
+    t.checkExpect(again, arr);
+  }
+
+  // test that the same seed always gives the same maze, whatever the algorithm
+  void testMazeSeedReproducible(Tester t) {
+    MazeAlgorithm[] algorithms = { MazeAlgorithm.KRUSKAL, MazeAlgorithm.TILED_KRUSKAL,
+        MazeAlgorithm.ELLER };
+    for (MazeAlgorithm algorithm : algorithms) {
+      Maze m1 = new Maze(300, 270, algorithm, 1234);
+      Maze m2 = new Maze(300, 270, algorithm, 1234);
+      Maze m3 = new Maze(300, 270, algorithm, 1235);
+      t.checkExpect(m1.seed, 1234L);
+      t.checkExpect(m1.grid.passages, m2.grid.passages);
+      t.checkExpect(Arrays.equals(m1.grid.passages, m3.grid.passages), false);
+      t.checkExpect(this.isPerfectMaze(m1.grid), true);
+    }
+    // mazes without a seed get a new one each
+    t.checkExpect(new Maze(2, 2).seed == new Maze(2, 2).seed, false);
+  }
+
+  // test that a tiled maze is the same whichever number of threads builds it
+  void testTiledGeneratorDeterministic(Tester t) {
+    ForkJoinPool serial = new ForkJoinPool(1);
+    ForkJoinPool parallel = new ForkJoinPool(4);
+    MazeGrid g1 = new MazeGrid(200, 130);
+    MazeGrid g2 = new MazeGrid(200, 130);
+    new TiledGenerator(g1, 16, 77).generate(serial);
+    new TiledGenerator(g2, 16, 77).generate(parallel);
+    t.checkExpect(g1.passages, g2.passages);
+    serial.shutdown();
+    parallel.shutdown();
+  }
+
+  // test the constructor of DisjointSet
+  void testDisjointSetConstructor(Tester t) {
+    DisjointSet d = new DisjointSet(5);
+    t.checkExpect(d.size(), 5);
+    t.checkExpect(d.numSets, 5);
+    t.checkExpect(d.numFinds, 0L);
+    t.checkExpect(d.numLinks, 0L);
+    for (int i = 0; i < 5; i++) {
+      t.checkExpect(d.find(i), i);
+    }
+    t.checkExpect(d.numFinds, 5L);
+  }
+
+  // test the union method of DisjointSet
+  void testDisjointSetUnion(Tester t) {
+    DisjointSet d = new DisjointSet(4);
+    t.checkExpect(d.union(0, 1), true);
+    // equal ranks: the root of the first goes under the root of the second
+    t.checkExpect(d.find(0), 1);
+    t.checkExpect(d.rank[1], (byte) 1);
+    // a lone element always goes under the bigger tree, whichever side it's on
+    t.checkExpect(d.union(1, 2), true);
+    t.checkExpect(d.find(2), 1);
+    t.checkExpect(d.union(3, 0), true);
+    t.checkExpect(d.find(3), 1);
+    t.checkExpect(d.rank[1], (byte) 1);
+    t.checkExpect(d.union(2, 3), false);
+    t.checkExpect(d.numSets, 1);
+    t.checkExpect(d.numLinks, 3L);
+    t.checkExpect(d.sameSet(0, 3), true);
+  }
+
+  // test the path halving done by the find method of DisjointSet
+  void testDisjointSetFind(Tester t) {
+    DisjointSet d = new DisjointSet(5);
+    // build the chain 0 -> 1 -> 2 -> 3 -> 4 by hand
+    for (int i = 0; i < 4; i++) {
+      d.parent[i] = i + 1;
+    }
+    t.checkExpect(d.find(0), 4);
+    // every node on the path now skips its old parent
+    t.checkExpect(d.parent[0], 2);
+    t.checkExpect(d.parent[2], 4);
+    t.checkExpect(d.find(0), 4);
+    t.checkExpect(d.parent[0], 4);
+  }
+
+  // test a DisjointSet big enough that a recursive find would overflow the stack
+  void testDisjointSetLongChain(Tester t) {
+    int n = 1000000;
+    DisjointSet d = new DisjointSet(n);
+    for (int i = 0; i < n - 1; i++) {
+      d.parent[i] = i + 1;
+    }
+    t.checkExpect(d.find(0), n - 1);
+    t.checkExpect(d.find(n / 2), n - 1);
+  }
+
+  // test the constructor of KruskalEngine
+  void testKruskalEngineConstructor(Tester t) {
+    MazeGrid g = new MazeGrid(3, 4);
+    KruskalEngine k = new KruskalEngine(g, new SplittableRandom(5));
+    // 3 rows of 3 vertical walls and 2 rows of 4 horizontal walls
+    t.checkExpect(k.walls.length, 17);
+    t.checkExpect(k.cursor, 0);
+    t.checkExpect(k.numUnions, 0);
+    t.checkExpect(k.finished(), false);
+    // every inner wall shows up exactly once
+    boolean[] seen = new boolean[2 * g.numCells];
+    for (int wall : k.walls) {
+      t.checkExpect(g.isInnerWall(wall), true);
+      t.checkExpect(seen[wall], false);
+      seen[wall] = true;
+    }
+    for (int i = 0; i < g.numCells; i++) {
+      t.checkExpect(k.getRep(i), i);
+    }
+  }
+
+  // test the step method of KruskalEngine
+  void testKruskalEngineStep(Tester t) {
+    MazeGrid g = new MazeGrid(2, 2);
+    KruskalEngine k = new KruskalEngine(g, new SplittableRandom(1));
+    int first = k.walls[0];
+    t.checkExpect(k.step(), true);
+    t.checkExpect(k.cursor, 1);
+    t.checkExpect(k.numUnions, 1);
+    t.checkExpect(g.isOpen(first), true);
+    // the 4th wall of a 2x2 maze always closes a loop
+    k.step();
+    k.step();
+    t.checkExpect(k.finished(), true);
+    t.checkExpect(k.numUnions, 3);
+    t.checkExpect(k.step(), false);
+    t.checkExpect(k.cursor, 4);
+    t.checkExpect(g.isOpen(k.walls[3]), false);
+    t.checkExpect(k.numLogged, 3);
+    // stepping past the end does nothing
+    t.checkExpect(k.step(), false);
+    t.checkExpect(k.cursor, 4);
+  }
+
+  // test the run method of KruskalEngine
+  void testKruskalEngineRun(Tester t) {
+    MazeGrid g = new MazeGrid(20, 30);
+    KruskalEngine k = new KruskalEngine(g, new SplittableRandom(2));
+    k.run();
+    t.checkExpect(k.finished(), true);
+    t.checkExpect(k.numUnions, 599);
+    // every cell ends up in the same tree
+    int rep = k.getRep(0);
+    int open = 0;
+    for (int i = 0; i < g.numCells; i++) {
+      t.checkExpect(k.getRep(i), rep);
+      open += g.degree(i);
+    }
+    // a spanning tree has exactly numCells - 1 passages
+    t.checkExpect(open / 2, 599);
+  }
+
+  // test the union and getRep methods of KruskalEngine
+  void testKruskalEngineUnion(Tester t) {
+    MazeGrid g = new MazeGrid(2, 2);
+    KruskalEngine k = new KruskalEngine(g, new SplittableRandom(3));
+    k.union(0, 1);
+    t.checkExpect(k.getRep(0), k.getRep(1));
+    t.checkExpect(k.getRep(0) == k.getRep(2), false);
+    t.checkExpect(g.isOpen(g.wallBetween(0, 1)), true);
+    t.checkExpect(k.numUnions, 1);
+    // joining cells that are already joined does nothing
+    k.union(1, 3);
+    k.union(0, 2);
+    t.checkExpect(k.union(2, 3), false);
+    t.checkExpect(k.numUnions, 3);
+    t.checkExpect(g.isOpen(g.wallBetween(2, 3)), false);
+  }
+
+  // test the log of walls KruskalEngine knocks down
+  void testKruskalEngineLog(Tester t) {
+    MazeGrid g = new MazeGrid(20, 30);
+    KruskalEngine k = new KruskalEngine(g, new SplittableRandom(4));
+    int[] shuffled = k.walls.clone();
+    MazeGrid replayed = new MazeGrid(20, 30);
+    DisjointSet sets = new DisjointSet(g.numCells);
+    int logged = 0;
+    // step by step, the log holds exactly the walls that were knocked down
+    while (!k.finished()) {
+      int wall = shuffled[k.cursor];
+      if (k.step()) {
+        t.checkExpect(k.walls[logged], wall);
+        logged++;
+      }
+      t.checkExpect(k.numLogged, logged);
+    }
+    t.checkExpect(k.numLogged, 599);
+    for (int i = 0; i < k.numLogged; i++) {
+      int wall = k.walls[i];
+      t.checkExpect(sets.union(MazeGrid.cellOf(wall), g.otherCell(wall)), true);
+      replayed.open(wall);
+    }
+    t.checkExpect(replayed.passages, g.passages);
+  }
+
+  // is the given grid a perfect maze? - exactly numCells - 1 passages that
+  // connect every cell
+  boolean isPerfectMaze(MazeGrid g) {
+    DisjointSet d = new DisjointSet(g.numCells);
+    int passages = 0;
+    for (int wall = 0; wall < 2 * g.numCells; wall++) {
+      if (g.isOpen(wall)) {
+        if (!g.isInnerWall(wall)) {
+          return false;
+        }
+        passages++;
+        d.union(MazeGrid.cellOf(wall), g.otherCell(wall));
+      }
+    }
+    return passages == g.numCells - 1 && d.numSets == 1;
+  }
+
+  // test the constructor and tileOf method of TiledGenerator
+  void testTiledGeneratorConstructor(Tester t) {
+    TiledGenerator gen = new TiledGenerator(new MazeGrid(10, 25), 8, 9);
+    t.checkExpect(gen.tilesAcross, 4);
+    t.checkExpect(gen.tilesDown, 2);
+    t.checkExpect(gen.numTiles, 8);
+    t.checkExpect(gen.tileOf(0), 0);
+    t.checkExpect(gen.tileOf(gen.grid.index(7, 7)), 0);
+    t.checkExpect(gen.tileOf(gen.grid.index(8, 7)), 1);
+    t.checkExpect(gen.tileOf(gen.grid.index(24, 9)), 7);
+  }
+
+  // test the buildTile method of TiledGenerator
+  void testTiledGeneratorBuildTile(Tester t) {
+    TiledGenerator gen = new TiledGenerator(new MazeGrid(10, 25), 8, 9);
+    // the last tile is only 1 column by 2 rows
+    gen.buildTile(7);
+    t.checkExpect(gen.tileWalls[7],
+        new int[] { MazeGrid.wallId(gen.grid.index(24, 8), MazeGrid.DOWN) });
+    gen.buildTile(0);
+    t.checkExpect(gen.tileWalls[0].length, 63);
+    for (int wall : gen.tileWalls[0]) {
+      t.checkExpect(gen.tileOf(MazeGrid.cellOf(wall)), 0);
+      t.checkExpect(gen.tileOf(gen.grid.otherCell(wall)), 0);
+    }
+    // building a tile doesn't touch the grid yet
+    t.checkExpect(gen.grid.degree(0), 0);
+  }
+
+  // test the generate method of TiledGenerator
+  void testTiledGeneratorGenerate(Tester t) {
+    ForkJoinPool pool = new ForkJoinPool(3);
+    MazeGrid g1 = new MazeGrid(37, 53);
+    t.checkExpect(new TiledGenerator(g1, 8, 9).generate(pool), 37 * 53 - 1);
+    t.checkExpect(this.isPerfectMaze(g1), true);
+    // tiles bigger than the grid
+    MazeGrid g2 = new MazeGrid(5, 6);
+    t.checkExpect(new TiledGenerator(g2, 64, 9).generate(pool), 29);
+    t.checkExpect(this.isPerfectMaze(g2), true);
+    // tiles of a single cell leave all the work to the stitching pass
+    MazeGrid g3 = new MazeGrid(6, 7);
+    t.checkExpect(new TiledGenerator(g3, 1, 9).generate(pool), 41);
+    t.checkExpect(this.isPerfectMaze(g3), true);
+    pool.shutdown();
+  }
+
+  // test the constructor of Maze that picks an algorithm
+  void testMazeConstructorAlgorithm(Tester t) {
+    Maze k = new Maze(20, 30, MazeAlgorithm.KRUSKAL);
+    Maze p = new Maze(300, 400, MazeAlgorithm.TILED_KRUSKAL);
+    t.checkExpect(k.algorithm, MazeAlgorithm.KRUSKAL);
+    t.checkExpect(k.finishedMaze(), true);
+    t.checkExpect(this.isPerfectMaze(k.grid), true);
+    t.checkExpect(p.algorithm, MazeAlgorithm.TILED_KRUSKAL);
+    t.checkExpect(p.numEdges, 300 * 400 - 1);
+    t.checkExpect(p.finishedMaze(), true);
+    t.checkExpect(this.isPerfectMaze(p.grid), true);
+    // default mazes are built with kruskal
+    t.checkExpect(new Maze(2, 2).algorithm, MazeAlgorithm.KRUSKAL);
+  }
+
+  // test the constructor of Maze from a grid
+  void testMazeConstructorGrid(Tester t) {
+    Maze k = new Maze(6, 7, MazeAlgorithm.KRUSKAL, 2);
+    Maze copy = new Maze(new MazeGrid(k.grid), MazeAlgorithm.KRUSKAL, 2);
+    t.checkExpect(copy.numEdges, 41);
+    t.checkExpect(copy.finishedMaze(), true);
+    // a braided maze still connects every cell
+    k.braid(1.0);
+    t.checkExpect(new Maze(new MazeGrid(k.grid), MazeAlgorithm.KRUSKAL, 2).numEdges, k.numEdges);
+    // a grid that leaves cells cut off has nothing left to generate them with
+    MazeGrid g = new MazeGrid(2, 2);
+    g.open(g.wallBetween(0, 2));
+    g.open(g.wallBetween(1, 3));
+    t.checkExpect(this.errorOf(() -> new Maze(g, MazeAlgorithm.KRUSKAL, 1)),
+        "the grid doesn't connect every cell");
+    // with two loops but a cell cut off
+    MazeGrid h = new MazeGrid(3, 3);
+    for (int cell : new int[] { 0, 1, 3, 4 }) {
+      h.open(MazeGrid.wallId(cell, MazeGrid.RIGHT));
+      h.open(MazeGrid.wallId(cell, MazeGrid.DOWN));
+    }
+    t.checkExpect(this.errorOf(() -> new Maze(h, MazeAlgorithm.KRUSKAL, 1)),
+        "the grid doesn't connect every cell");
+    // a perfect maze with a wall on the border knocked down as well
+    MazeGrid right = new MazeGrid(k.grid);
+    right.open(MazeGrid.wallId(right.index(6, 2), MazeGrid.RIGHT));
+    t.checkExpect(this.errorOf(() -> new Maze(right, MazeAlgorithm.KRUSKAL, 1)),
+        "the grid doesn't connect every cell");
+    MazeGrid down = new MazeGrid(copy.grid);
+    down.open(MazeGrid.wallId(down.index(6, 5), MazeGrid.DOWN));
+    t.checkExpect(this.errorOf(() -> new Maze(down, MazeAlgorithm.KRUSKAL, 1)),
+        "the grid doesn't connect every cell");
+    // or a bit past the last cell
+    MazeGrid past = new MazeGrid(copy.grid);
+    past.passages[past.passages.length - 1] |= 1L << 63;
+    t.checkExpect(this.errorOf(() -> new Maze(past, MazeAlgorithm.KRUSKAL, 1)),
+        "the grid doesn't connect every cell");
+  }
+
+  // get the message of the exception the given code throws, or null if it
+  // finishes - the name of the exception if it has no message
+  String errorOf(Failing code) {
+    try {
+      code.run();
+      return null;
+    }
+    catch (Exception e) {
+      return e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+    }
+  }
+
+  // test that mazes built all at once have no kruskal engine to ask
+  void testMazeWithoutKruskal(Tester t) {
+    IllegalStateException noKruskal = new IllegalStateException(
+        "this maze was built all at once and has no kruskal engine");
+    Maze e = new Maze(5, 5, MazeAlgorithm.ELLER, 1);
+    Maze p = new Maze(5, 5, MazeAlgorithm.TILED_KRUSKAL, 1);
+    t.checkException(noKruskal, e, "getRep", new Posn(0, 0));
+    t.checkException(noKruskal, p, "getRep", new Posn(0, 0));
+    Edge edge = new Edge(0, 0, true);
+    t.checkException(noKruskal, e, "addEdge", edge, edge.getMainPosn(), edge.getOtherPosn());
+    // they are finished, so solving never needs one
+    t.checkExpect(e.solveBFS() == null, false);
+    t.checkExpect(p.solveDFS() == null, false);
+  }
+
+  // test that the perfect-only queries refuse braided mazes
+  void testPerfectOnlyAfterBraid(Tester t) {
+    Maze m = new Maze(20, 20, MazeAlgorithm.KRUSKAL, 5);
+    t.checkExpect(m.isPerfect(), true);
+    t.checkExpect(m.buildPathIndex().distance(0, 399) > 0, true);
+    t.checkExpect(m.analyze().diameter() > 0, true);
+    m.braid(0.5);
+    t.checkExpect(m.isPerfect(), false);
+    t.checkException(new IllegalStateException("path indexes only work on perfect mazes"), m,
+        "buildPathIndex");
+    t.checkException(new IllegalStateException("the diameter is only known for perfect mazes"),
+        m.analyze(), "diameter");
+    // cells cut off are refused too
+    MazeGrid g = new MazeGrid(2, 2);
+    g.open(g.wallBetween(0, 1));
+    t.checkException(new IllegalStateException("the diameter is only known for perfect mazes"),
+        new MazeAnalysis(g), "diameter");
+  }
+
+  // test the generate method of EllerGenerator
+  void testEllerGenerate(Tester t) {
+    int[][] sizes = { { 1, 1 }, { 1, 9 }, { 9, 1 }, { 2, 2 }, { 40, 70 }, { 3, 130 } };
+    for (int[] size : sizes) {
+      MazeGrid g = new MazeGrid(size[0], size[1]);
+      try {
+        new EllerGenerator(size[0], size[1], 7).generate(new GridRowSink(g));
+      }
+      catch (IOException e) {
+        t.checkExpect(e, null);
+      }
+      t.checkExpect(this.isPerfectMaze(g), true);
+    }
+  }
+
+  // test that EllerGenerator hands rows to its sink in order, one at a time
+  void testEllerRowsInOrder(Tester t) {
+    ArrayList<Integer> rows = new ArrayList<Integer>();
+    try {
+      new EllerGenerator(5, 4, 1).generate((row, right, down) -> rows.add(row));
+    }
+    catch (IOException e) {
+      t.checkExpect(e, null);
+    }
+    t.checkExpect(rows, new ArrayList<Integer>(Arrays.asList(0, 1, 2, 3, 4)));
+  }
+
+  // test that a maze written by RowStreamWriter reads back the same
+  void testRowStreamRoundTrip(Tester t) {
+    MazeGrid expected = new MazeGrid(30, 77);
+    MazeGrid actual = null;
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      RowStreamWriter writer = new RowStreamWriter(bytes, 30, 77);
+      GridRowSink copy = new GridRowSink(expected);
+      // write to both sinks from the same run
+      new EllerGenerator(30, 77, 3).generate((row, right, down) -> {
+        writer.acceptRow(row, right, down);
+        copy.acceptRow(row, right, down);
+      });
+      // 12 byte header, then 2 * 10 bytes per row
+      t.checkExpect(bytes.size(), 12 + 30 * 20);
+      actual = GridRowSink.read(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+    catch (IOException e) {
+      t.checkExpect(e, null);
+    }
+    t.checkExpect(actual.numRows, 30);
+    t.checkExpect(actual.numCols, 77);
+    t.checkExpect(actual.passages, expected.passages);
+    Maze m = new Maze(actual, MazeAlgorithm.ELLER, 3);
+    t.checkExpect(m.numEdges, 30 * 77 - 1);
+    t.checkExpect(m.finishedMaze(), true);
+    t.checkExpect(m.solveBFS() == null, false);
+  }
+
+  // test the writeFile method of EllerGenerator
+  void testEllerWriteFile(Tester t) {
+    try {
+      File file = File.createTempFile("eller", ".maze");
+      EllerGenerator.writeFile(file.getPath(), 12, 15, 4);
+      t.checkExpect(file.length(), 12L + 12 * 4);
+      InputStream in = new FileInputStream(file);
+      MazeGrid g = GridRowSink.read(in);
+      in.close();
+      file.delete();
+      t.checkExpect(this.isPerfectMaze(g), true);
+    }
+    catch (IOException e) {
+      t.checkExpect(e, null);
+    }
+  }
+
+  // test that GridRowSink refuses streams that aren't mazes, and leaves the
+  // border of the grid standing whatever bits a stream has for it
+  void testGridRowSinkErrors(Tester t) {
+    byte[] junk = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12 };
+    t.checkExpect(this.errorOf(() -> GridRowSink.read(new ByteArrayInputStream(junk))),
+        "not a row stream");
+    for (int[] size : new int[][] { { 0, 3 }, { 3, 0 }, { -1, 3 }, { 1 << 16, 1 << 15 } }) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      DataOutputStream data = new DataOutputStream(out);
+      try {
+        data.writeInt(RowStreamWriter.MAGIC);
+        data.writeInt(size[0]);
+        data.writeInt(size[1]);
+      }
+      catch (IOException e) {
+        t.checkExpect(e, null);
+      }
+      t.checkExpect(
+          this.errorOf(() -> GridRowSink.read(new ByteArrayInputStream(out.toByteArray()))),
+          "corrupt row stream");
+    }
+    // a 2x3 grid with every bit set
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      RowStreamWriter writer = new RowStreamWriter(out, 2, 3);
+      long[] all = new long[] { -1L };
+      writer.acceptRow(0, all, all);
+      writer.acceptRow(1, all, all);
+      MazeGrid g = GridRowSink.read(new ByteArrayInputStream(out.toByteArray()));
+      MazeGrid expected = new MazeGrid(2, 3);
+      for (int cell = 0; cell < 6; cell++) {
+        if (cell % 3 < 2) {
+          expected.open(MazeGrid.wallId(cell, MazeGrid.RIGHT));
+        }
+        if (cell < 3) {
+          expected.open(MazeGrid.wallId(cell, MazeGrid.DOWN));
+        }
+      }
+      t.checkExpect(g.passages, expected.passages);
+    }
+    catch (IOException e) {
+      t.checkExpect(e, null);
+    }
+  }
+
+  // test the write and open methods of MazeFile
+  void testMazeFileRoundTrip(Tester t) {
+    try {
+      File file = File.createTempFile("maze", ".bin");
+      MazeFile.write(file.toPath(), this.exampleTree(), MazeAlgorithm.ELLER, -42);
+      t.checkExpect(file.length(), 32L + 8);
+      MappedMaze m = MazeFile.open(file.toPath());
+      t.checkExpect(m.numRows(), 3);
+      t.checkExpect(m.numCols(), 3);
+      t.checkExpect(m.numCells(), 9);
+      t.checkExpect(m.seed, -42L);
+      t.checkExpect(m.algorithm, MazeAlgorithm.ELLER);
+      t.checkExpect(m.toGrid().passages, this.exampleTree().passages);
+      int[] out = new int[4];
+      t.checkExpect(m.neighbors(1, out), 3);
+      t.checkExpect(out, new int[] { 2, 4, 0, 0 });
+      t.checkExpect(m.isOpen(MazeGrid.wallId(4, MazeGrid.DOWN)), false);
+      // the solvers run on the mapped file
+      SearchEngine s = new SearchEngine();
+      t.checkExpect(s.bfs(m, 8, 5), true);
+      t.checkExpect(SolveResult.fromSearch(s, 9, 8, 5).path,
+          new int[] { 8, 7, 6, 3, 0, 1, 4, 5 });
+      file.delete();
+      // a grid that doesn't fill its last long
+      file = File.createTempFile("maze", ".bin");
+      MazeGrid g = new Maze(37, 41, MazeAlgorithm.KRUSKAL, 6).grid;
+      MazeFile.write(file.toPath(), g, MazeAlgorithm.KRUSKAL, 6);
+      t.checkExpect(file.length(), 32L + 8 * ((2 * 37 * 41 + 63) / 64));
+      t.checkExpect(MazeFile.open(file.toPath()).toGrid().passages, g.passages);
+      file.delete();
+    }
+    catch (IOException e) {
+      t.checkExpect(e, null);
+    }
+  }
+
+  // test the writeEller method of MazeFile
+  void testMazeFileWriteEller(Tester t) {
+    try {
+      File file = File.createTempFile("maze", ".bin");
+      MazeFile.writeEller(file.toPath(), 23, 70, 9);
+      MappedMaze m = MazeFile.open(file.toPath());
+      t.checkExpect(m.algorithm, MazeAlgorithm.ELLER);
+      t.checkExpect(m.seed, 9L);
+      // the same maze as one streamed onto the heap
+      t.checkExpect(m.toGrid().passages, new Maze(23, 70, MazeAlgorithm.ELLER, 9).grid.passages);
+      t.checkExpect(new MazeAnalysis(m).degreeCounts()[0], 0);
+      file.delete();
+    }
+    catch (IOException e) {
+      t.checkExpect(e, null);
+    }
+  }
+
+  // test that MazeFile refuses files that aren't mazes
+  void testMazeFileOpenErrors(Tester t) {
+    try {
+      File file = File.createTempFile("maze", ".bin");
+      Failing open = () -> MazeFile.open(file.toPath());
+      t.checkExpect(this.errorOf(open), "not a maze file: " + file.getPath());
+      OutputStream out = new FileOutputStream(file);
+      out.write(new byte[40]);
+      out.close();
+      t.checkExpect(this.errorOf(open), "not a maze file: " + file.getPath());
+      MazeFile.write(file.toPath(), this.exampleTree(), MazeAlgorithm.KRUSKAL, 1);
+      // cut off the last long
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      raf.setLength(36);
+      raf.close();
+      t.checkExpect(this.errorOf(open), "corrupt maze file: " + file.getPath());
+      MazeFile.write(file.toPath(), this.exampleTree(), MazeAlgorithm.KRUSKAL, 1);
+      raf = new RandomAccessFile(file, "rw");
+      raf.seek(4);
+      raf.write(2);
+      raf.close();
+      t.checkExpect(this.errorOf(open), "unsupported maze file version 2: " + file.getPath());
+      // more cells than wall ids can number, whatever the size of the file
+      MazeFile.write(file.toPath(), this.exampleTree(), MazeAlgorithm.KRUSKAL, 1);
+      raf = new RandomAccessFile(file, "rw");
+      raf.seek(8);
+      raf.write(new byte[] { 1, (byte) 0x80, 0, 0, 0, (byte) 0x80, 0, 0 });
+      raf.close();
+      t.checkExpect(this.errorOf(open), "maze file too big: " + file.getPath());
+      file.delete();
+      // and no such file gets written
+      t.checkException(new IllegalArgumentException("a maze file holds at most 1073741824 cells"),
+          new MazeFile(), "writeEller", file.toPath(), 1 << 15, (1 << 15) + 1, 1L);
+      t.checkExpect(file.exists(), false);
+    }
+    catch (IOException e) {
+      t.checkExpect(e, null);
+    }
+  }
+
+  // test the save and load methods of Maze
+  void testMazeSaveLoad(Tester t) {
+    try {
+      File file = File.createTempFile("maze", ".bin");
+      Maze m = new Maze(20, 30, MazeAlgorithm.TILED_KRUSKAL, 77);
+      m.braid(0.3);
+      m.save(file.toPath());
+      Maze loaded = Maze.load(file.toPath());
+      t.checkExpect(loaded.grid.passages, m.grid.passages);
+      t.checkExpect(loaded.numEdges, m.numEdges);
+      t.checkExpect(loaded.seed, 77L);
+      t.checkExpect(loaded.algorithm, MazeAlgorithm.TILED_KRUSKAL);
+      t.checkExpect(loaded.solveBFS().path, m.solveBFS().path);
+      // an unfinished maze is finished before it is saved
+      Maze unfinished = new Maze(4, 5, false);
+      unfinished.save(file.toPath());
+      t.checkExpect(unfinished.finishedMaze(), true);
+      t.checkExpect(Maze.load(file.toPath()).grid.passages, unfinished.grid.passages);
+      file.delete();
+    }
+    catch (IOException e) {
+      t.checkExpect(e, null);
+    }
+  }
+
+  // test that RangeDecoder reads back what RangeEncoder wrote
+  void testRangeCoderRoundTrip(Tester t) {
+    try {
+      SplittableRandom rand = new SplittableRandom(8);
+      int[] bits = new int[20000];
+      int[] contexts = new int[bits.length];
+      for (int i = 0; i < bits.length; i++) {
+        contexts[i] = rand.nextInt(3);
+        // context 0 is mostly 0, context 1 mostly 1 and context 2 a coin flip
+        int odds = contexts[i] == 2 ? 2 : 10;
+        bits[i] = rand.nextInt(odds) == 0 ? 1 - contexts[i] % 2 : contexts[i] % 2;
+        if (contexts[i] == 2) {
+          bits[i] = rand.nextInt(2);
+        }
+      }
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      RangeEncoder enc = new RangeEncoder(out);
+      short[] probs = new short[3];
+      Arrays.fill(probs, (short) RangeEncoder.PROB_INIT);
+      for (int i = 0; i < bits.length; i++) {
+        enc.encodeBit(probs, contexts[i], bits[i]);
+      }
+      enc.finish();
+      // the skewed contexts take well under a bit each
+      t.checkExpect(out.size() < bits.length / 8 * 3 / 4, true);
+      RangeDecoder dec = new RangeDecoder(new ByteArrayInputStream(out.toByteArray()));
+      Arrays.fill(probs, (short) RangeEncoder.PROB_INIT);
+      int[] decoded = new int[bits.length];
+      for (int i = 0; i < bits.length; i++) {
+        decoded[i] = dec.decodeBit(probs, contexts[i]);
+      }
+      t.checkExpect(decoded, bits);
+      // running out of input
+      RangeDecoder empty = new RangeDecoder(new ByteArrayInputStream(new byte[5]));
+      t.checkExpect(this.errorOf(() -> {
+        for (int i = 0; i < 1000; i++) {
+          empty.decodeBit(probs, 0);
+        }
+      }), "compressed maze ends early");
+    }
+    catch (IOException e) {
+      t.checkExpect(e, null);
+    }
+  }
+
+  // test the forced bits of TreeRowModel
+  void testTreeRowModel(Tester t) {
+    // the rows of exampleTree: right 0-1, 1-2 then down 0, 1, then 4-5 and
+    // down 3, then 6-7, 7-8
+    TreeRowModel m = new TreeRowModel(4, 3);
+    long[] none = new long[1];
+    m.startRow(0, none);
+    t.checkExpect(m.forcedRight(0), -1);
+    m.setRight(0, 1);
+    t.checkExpect(m.forcedRight(1), -1);
+    m.setRight(1, 1);
+    m.finishRight();
+    t.checkExpect(m.labels[0] == m.labels[2], true);
+    // one set, so the last cell has to go down if no other did
+    t.checkExpect(m.forcedDown(0), -1);
+    m.setDown(0, 0);
+    t.checkExpect(m.forcedDown(1), -1);
+    m.setDown(1, 0);
+    t.checkExpect(m.forcedDown(2), 1);
+    m.setDown(2, 1);
+    // second row: only cell 2 carries the set down
+    m.startRow(1, new long[] { 4L });
+    t.checkExpect(m.labels[0] != m.labels[2] && m.labels[1] != m.labels[2]
+        && m.labels[0] != m.labels[1], true);
+    m.setRight(0, 1);
+    // 1 and 2 are in different sets, but 0 and 1 now share one
+    t.checkExpect(m.forcedRight(1), -1);
+    m.setRight(1, 1);
+    m.finishRight();
+    m.setDown(0, 1);
+    // the set already goes down, so nothing is certain
+    t.checkExpect(m.forcedDown(2), -1);
+    // cells 0 and 2 come down from the same set, so once 0 joins 1, opening
+    // 1 to 2 would make a loop
+    m.startRow(2, new long[] { 5L });
+    t.checkExpect(m.forcedRight(0), -1);
+    m.setRight(0, 1);
+    t.checkExpect(m.forcedRight(1), 0);
+    m.setRight(1, 0);
+    m.finishRight();
+    m.setDown(0, 0);
+    m.setDown(1, 1);
+    m.setDown(2, 1);
+    // last row: cell 0 is on its own, so it has to join cell 1, which then
+    // already shares a set with cell 2
+    m.startRow(3, new long[] { 6L });
+    t.checkExpect(m.forcedRight(0), 1);
+    m.setRight(0, 1);
+    t.checkExpect(m.forcedRight(1), 0);
+    // last row where cells 0 and 2 share a set: 0 can still meet 1 through 2,
+    // but once 0-1 stays shut, 1 can't
+    m = new TreeRowModel(2, 3);
+    m.startRow(0, none);
+    m.setRight(0, 1);
+    m.setRight(1, 1);
+    m.finishRight();
+    m.setDown(0, 1);
+    m.setDown(1, 0);
+    m.setDown(2, 1);
+    m.startRow(1, new long[] { 5L });
+    t.checkExpect(m.forcedRight(0), -1);
+    m.setRight(0, 0);
+    t.checkExpect(m.forcedRight(1), 1);
+    // two cells that both come down from one set
+    m = new TreeRowModel(2, 2);
+    m.startRow(0, none);
+    m.setRight(0, 1);
+    m.finishRight();
+    m.setDown(0, 1);
+    m.setDown(1, 1);
+    m.startRow(1, new long[] { 3L });
+    t.checkExpect(m.forcedRight(0), 0);
+  }
+
+  // test the encode and decode methods of TreeCodec
+  void testTreeCodecRoundTrip(Tester t) {
+    try {
+      int[][] sizes = { { 1, 1 }, { 1, 9 }, { 9, 1 }, { 2, 2 }, { 17, 65 }, { 40, 128 } };
+      for (MazeAlgorithm algorithm : MazeAlgorithm.values()) {
+        for (int[] size : sizes) {
+          Maze m = new Maze(size[0], size[1], algorithm, size[0] * 1000 + size[1]);
+          ByteArrayOutputStream out = new ByteArrayOutputStream();
+          TreeCodec.encode(m, out);
+          Maze back = TreeCodec.decode(new ByteArrayInputStream(out.toByteArray()));
+          t.checkExpect(back.grid.passages, m.grid.passages);
+          t.checkExpect(back.algorithm, algorithm);
+          t.checkExpect(back.seed, m.seed);
+          t.checkExpect(back.numEdges, m.numCells - 1);
+        }
+      }
+      // under two bits a cell once the header is paid for
+      Maze m = new Maze(100, 100, MazeAlgorithm.KRUSKAL, 3);
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      TreeCodec.encode(m, out);
+      t.checkExpect(8 * (out.size() - 24) < 1.8 * m.numCells, true);
+    }
+    catch (IOException e) {
+      t.checkExpect(e, null);
+    }
+  }
+
+  // test TreeEncoder and TreeDecoder streaming rows straight through
+  void testTreeCodecStreaming(Tester t) {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      new EllerGenerator(30, 77, 5).generate(
+          new TreeEncoder(out, 30, 77, MazeAlgorithm.ELLER, 5));
+      TreeDecoder dec = new TreeDecoder(new ByteArrayInputStream(out.toByteArray()));
+      t.checkExpect(dec.numRows, 30);
+      t.checkExpect(dec.numCols, 77);
+      MazeGrid g = new MazeGrid(30, 77);
+      dec.decode(new GridRowSink(g));
+      t.checkExpect(g.passages, new Maze(30, 77, MazeAlgorithm.ELLER, 5).grid.passages);
+    }
+    catch (IOException e) {
+      t.checkExpect(e, null);
+    }
+  }
+
+  // test that TreeCodec refuses what it can't handle
+  void testTreeCodecErrors(Tester t) {
+    Maze braided = new Maze(10, 10, MazeAlgorithm.KRUSKAL, 1);
+    braided.braid(1.0);
+    t.checkExpect(this.errorOf(() -> TreeCodec.encode(braided, new ByteArrayOutputStream())),
+        "only perfect mazes can be compressed");
+    t.checkExpect(
+        this.errorOf(() -> TreeCodec.encode(new Maze(3, 3, false), new ByteArrayOutputStream())),
+        "only perfect mazes can be compressed");
+    // 0-2 and 1-3 are both open, but the two columns never meet
+    Maze apart = new Maze(2, 2, false);
+    apart.grid.open(MazeGrid.wallId(0, MazeGrid.DOWN));
+    apart.grid.open(MazeGrid.wallId(1, MazeGrid.DOWN));
+    t.checkExpect(this.errorOf(() -> TreeCodec.encode(apart, new ByteArrayOutputStream())),
+        "only perfect mazes can be compressed");
+    byte[] junk = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 };
+    t.checkExpect(this.errorOf(() -> TreeCodec.decode(new ByteArrayInputStream(junk))),
+        "not a compressed maze");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      TreeCodec.encode(new Maze(20, 20, MazeAlgorithm.KRUSKAL, 1), out);
+    }
+    catch (IOException e) {
+      t.checkExpect(e, null);
+    }
+    byte[] cut = Arrays.copyOf(out.toByteArray(), 30);
+    t.checkExpect(this.errorOf(() -> TreeCodec.decode(new ByteArrayInputStream(cut))),
+        "compressed maze ends early");
+    // too many cells to decode onto the heap, but few enough columns to stream
+    ByteArrayOutputStream huge = new ByteArrayOutputStream();
+    ByteArrayOutputStream wide = new ByteArrayOutputStream();
+    try {
+      TreeCodec.writeHeader(new DataOutputStream(huge), 1 << 16, 1 << 15, MazeAlgorithm.ELLER, 1);
+      TreeCodec.writeHeader(new DataOutputStream(wide), 1, (1 << 30) + 1, MazeAlgorithm.ELLER, 1);
+      t.checkExpect(new TreeDecoder(new ByteArrayInputStream(huge.toByteArray())).numCols,
+          1 << 15);
+    }
+    catch (IOException e) {
+      t.checkExpect(e, null);
+    }
+    byte[] hugeBytes = huge.toByteArray();
+    byte[] wideBytes = wide.toByteArray();
+    t.checkExpect(this.errorOf(() -> TreeCodec.decode(new ByteArrayInputStream(hugeBytes))),
+        "corrupt compressed maze");
+    t.checkExpect(this.errorOf(() -> new TreeDecoder(new ByteArrayInputStream(wideBytes))),
+        "corrupt compressed maze");
+  }
+
+  // test the wallBits method of MazeGrid
+  void testWallBits(Tester t) {
+    MazeGrid g = new MazeGrid(3, 50);
+    g.open(63);
+    g.open(64);
+    g.open(70);
+    g.open(298);
+    t.checkExpect(g.wallBits(0), 1L << 63);
+    t.checkExpect(g.wallBits(60), (1L << 3) | (1L << 4) | (1L << 10));
+    t.checkExpect(g.wallBits(64), 1L | (1L << 6));
+    t.checkExpect(g.wallBits(290), 1L << 8);
+    t.checkExpect(g.wallBits(299), 0L);
+  }
+
+  // test the record method of GenerationLog
+  void testGenerationLogRecord(Tester t) {
+    Maze m = new Maze(12, 17, MazeAlgorithm.KRUSKAL, 3);
+    GenerationLog log = GenerationLog.record(m.grid, m.kruskal, m.algorithm, m.seed);
+    t.checkExpect(log.numFrames(), m.numCells - 1);
+    t.checkExpect(Arrays.copyOf(m.kruskal.walls, m.kruskal.numLogged), log.walls);
+    t.checkExpect(log.numRows, 12);
+    t.checkExpect(log.numCols, 17);
+    t.checkExpect(log.seed, 3L);
+    // a generator with no order is logged in the order of the wall ids
+    Maze e = new Maze(12, 17, MazeAlgorithm.ELLER, 3);
+    GenerationLog elog = GenerationLog.record(e.grid, null, e.algorithm, e.seed);
+    t.checkExpect(elog.numFrames(), e.numCells - 1);
+    boolean increasing = true;
+    for (int i = 1; i < elog.numFrames(); i++) {
+      increasing = increasing && elog.wallAt(i - 1) < elog.wallAt(i);
+    }
+    t.checkExpect(increasing, true);
+    t.checkExpect(elog.gridAt(elog.numFrames()).passages, e.grid.passages);
+    // braided walls come after the ones kruskal knocked down
+    int opened = m.braid(0.5);
+    GenerationLog blog = GenerationLog.record(m.grid, m.kruskal, m.algorithm, m.seed);
+    t.checkExpect(blog.numFrames(), m.numCells - 1 + opened);
+    t.checkExpect(Arrays.copyOf(blog.walls, log.numFrames()), log.walls);
+    t.checkExpect(blog.gridAt(blog.numFrames()).passages, m.grid.passages);
+  }
+
+  // test the openTime, isOpen and gridAt methods of GenerationLog
+  void testGenerationLogFrames(Tester t) {
+    GenerationLog log = new GenerationLog(2, 2, MazeAlgorithm.KRUSKAL, 1,
+        new int[] { 1, 4, 0 });
+    t.checkExpect(log.openTime(1), 0);
+    t.checkExpect(log.openTime(4), 1);
+    t.checkExpect(log.openTime(0), 2);
+    t.checkExpect(log.openTime(2), GenerationLog.NEVER);
+    t.checkExpect(log.isOpen(4, 1), false);
+    t.checkExpect(log.isOpen(4, 2), true);
+    t.checkExpect(log.isOpen(2, 3), false);
+    MazeGrid g = log.gridAt(2);
+    t.checkExpect(g.isOpen(1), true);
+    t.checkExpect(g.isOpen(4), true);
+    t.checkExpect(g.isOpen(0), false);
+    t.checkExpect(log.gridAt(0).passages, new MazeGrid(2, 2).passages);
+  }
+
+  // test the write and read methods of GenerationLog
+  void testGenerationLogRoundTrip(Tester t) {
+    try {
+      Maze m = new Maze(25, 40, MazeAlgorithm.KRUSKAL, 9);
+      GenerationLog log = m.generationLog();
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      log.write(out);
+      t.checkExpect(out.size(), 32 + 4 * log.numFrames());
+      GenerationLog back = GenerationLog.read(new ByteArrayInputStream(out.toByteArray()));
+      t.checkExpect(back.walls, log.walls);
+      t.checkExpect(back.seed, 9L);
+      t.checkExpect(back.algorithm, MazeAlgorithm.KRUSKAL);
+      Maze n = new Maze(back);
+      t.checkExpect(n.grid.passages, m.grid.passages);
+      t.checkExpect(n.numEdges, m.numEdges);
+      t.checkExpect(n.finishedMaze(), true);
+      t.checkExpect(n.generationLog(), back);
+      // the errors
+      byte[] junk = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 };
+      t.checkExpect(this.errorOf(() -> GenerationLog.read(new ByteArrayInputStream(junk))),
+          "not a generation log");
+      byte[] version = out.toByteArray();
+      version[7] = 9;
+      t.checkExpect(this.errorOf(() -> GenerationLog.read(new ByteArrayInputStream(version))),
+          "unsupported generation log version 9");
+      // the same wall twice
+      byte[] twice = out.toByteArray();
+      System.arraycopy(twice, 32, twice, 36, 4);
+      t.checkExpect(this.errorOf(() -> GenerationLog.read(new ByteArrayInputStream(twice))),
+          "corrupt generation log");
+      // a wall on the border
+      byte[] border = out.toByteArray();
+      border[32] = 0;
+      border[33] = 0;
+      border[34] = 0;
+      border[35] = (byte) MazeGrid.wallId(39, MazeGrid.RIGHT);
+      t.checkExpect(this.errorOf(() -> GenerationLog.read(new ByteArrayInputStream(border))),
+          "corrupt generation log");
+      byte[] early = Arrays.copyOf(out.toByteArray(), 100);
+      t.checkExpect(this.errorOf(() -> GenerationLog.read(new ByteArrayInputStream(early))),
+          "EOFException");
+      // a log that stops before every cell is connected
+      ByteArrayOutputStream cut = new ByteArrayOutputStream();
+      new GenerationLog(25, 40, MazeAlgorithm.KRUSKAL, 9,
+          Arrays.copyOf(log.walls, log.numFrames() - 1)).write(cut);
+      byte[] unconnected = cut.toByteArray();
+      t.checkExpect(this.errorOf(() -> GenerationLog.read(new ByteArrayInputStream(unconnected))),
+          "generation log doesn't connect every cell");
+    }
+    catch (IOException e) {
+      t.checkExpect(e, null);
+    }
+  }
+
+  // test the render method of MazeRasterizer
+  void testMazeRasterizerRender(Tester t) {
+    MazeGrid g = new MazeGrid(2, 2);
+    g.open(g.wallBetween(0, 1));
+    g.open(g.wallBetween(1, 3));
+    MazeRasterizer r = new MazeRasterizer(g, 3);
+    t.checkExpect(r.width, 7);
+    t.checkExpect(r.height, 7);
+    ForkJoinPool pool = new ForkJoinPool(2);
+    BufferedImage image = r.render(pool);
+    byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    t.checkExpect(pixels, new byte[] {
+        1, 1, 1, 1, 1, 1, 1,
+        1, 2, 2, 0, 0, 0, 1,
+        1, 2, 2, 0, 0, 0, 1,
+        1, 1, 1, 1, 0, 0, 1,
+        1, 0, 0, 1, 3, 3, 1,
+        1, 0, 0, 1, 3, 3, 1,
+        1, 1, 1, 1, 1, 1, 1 });
+    t.checkExpect(image.getRGB(1, 1), UI.START_NODE_COLOR.getRGB());
+    t.checkExpect(image.getRGB(4, 4), UI.TARGET_NODE_COLOR.getRGB());
+    t.checkExpect(image.getRGB(3, 3), Color.black.getRGB());
+    // with a solution, open walls along the path take its color
+    SearchEngine s = new SearchEngine();
+    s.bfs(g, 0, 3);
+    r.setSolution(SolveResult.fromSearch(s, 4, 0, 3));
+    pixels = ((DataBufferByte) r.render(pool).getRaster().getDataBuffer()).getData();
+    t.checkExpect(Arrays.copyOfRange(pixels, 7, 14), new byte[] { 1, 6, 6, 6, 6, 6, 1 });
+    t.checkExpect(Arrays.copyOfRange(pixels, 21, 28), new byte[] { 1, 1, 1, 1, 6, 6, 1 });
+    t.checkExpect(Arrays.copyOfRange(pixels, 28, 35), new byte[] { 1, 4, 4, 1, 6, 6, 1 });
+    pool.shutdown();
+  }
+
+  // test that the rows of MazeRasterizer come out the same however they are split
+  void testMazeRasterizerBands(Tester t) {
+    Maze m = new Maze(37, 23, MazeAlgorithm.KRUSKAL, 4);
+    MazeRasterizer r = new MazeRasterizer(m.grid, 4);
+    r.setSolution(m.solveBFS());
+    byte[] serial = new byte[r.width * r.height];
+    r.renderCellRows(0, m.numRows, serial, 0, r.width);
+    r.renderBottom(serial, (r.height - 1) * r.width);
+    ForkJoinPool pool = new ForkJoinPool(3);
+    byte[] parallel = ((DataBufferByte) r.render(pool).getRaster().getDataBuffer()).getData();
+    t.checkExpect(parallel, serial);
+    pool.shutdown();
+  }
+
+  // test the writePng method of MazeRasterizer
+  void testMazeRasterizerWritePng(Tester t) {
+    try {
+      // more cell rows than a batch
+      Maze m = new Maze(300, 11, MazeAlgorithm.ELLER, 2);
+      MazeRasterizer r = new MazeRasterizer(m.grid, 2);
+      r.setSolution(m.solveDFS());
+      ForkJoinPool pool = new ForkJoinPool(2);
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      r.writePng(out, pool);
+      BufferedImage read = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+      BufferedImage expected = r.render(pool);
+      t.checkExpect(read.getWidth(), 23);
+      t.checkExpect(read.getHeight(), 601);
+      boolean same = true;
+      for (int y = 0; y < r.height; y++) {
+        for (int x = 0; x < r.width; x++) {
+          same = same && read.getRGB(x, y) == expected.getRGB(x, y);
+        }
+      }
+      t.checkExpect(same, true);
+      pool.shutdown();
+    }
+    catch (IOException e) {
+      t.checkExpect(e, null);
+    }
+  }
+
+  // test the writePng method of Maze
+  void testMazeWritePng(Tester t) {
+    try {
+      Maze m = new Maze(5, 8, false);
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      m.writePng(out, 5);
+      t.checkExpect(m.finishedMaze(), true);
+      BufferedImage read = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+      t.checkExpect(read.getWidth(), 41);
+      t.checkExpect(read.getHeight(), 26);
+      t.checkExpect(read.getRGB(2, 2), UI.START_NODE_COLOR.getRGB());
+      m.drawBFSSolution(new TestingUI());
+      out = new ByteArrayOutputStream();
+      m.writePng(out, 5);
+      read = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+      t.checkExpect(read.getRGB(2, 2), UI.NODE_IN_SOL_COLOR.getRGB());
+    }
+    catch (IOException e) {
+      t.checkExpect(e, null);
+    }
+  }
+
+  // a 3x3 grid with the passages 0-1, 1-2, 0-3, 3-6, 6-7, 7-8, 1-4 and 4-5
+  MazeGrid exampleTree() {
+    MazeGrid g = new MazeGrid(3, 3);
+    int[][] passages = { { 0, 1 }, { 1, 2 }, { 0, 3 }, { 3, 6 }, { 6, 7 }, { 7, 8 }, { 1, 4 },
+        { 4, 5 } };
+    for (int[] p : passages) {
+      g.open(g.wallBetween(p[0], p[1]));
+    }
+    return g;
+  }
+
+  // test the bfs method of SearchEngine
+  void testSearchEngineBFS(Tester t) {
+    SearchEngine s = new SearchEngine();
+    t.checkExpect(s.bfs(this.exampleTree(), 0, 8), true);
+    t.checkExpect(s.numVisited, 9);
+    t.checkExpect(s.order, new int[] { 0, 1, 3, 2, 4, 6, 5, 7, 8 });
+    t.checkExpect(s.cameFrom[8], 7);
+    t.checkExpect(s.cameFrom[7], 6);
+    t.checkExpect(s.cameFrom[5], 4);
+    t.checkExpect(s.isVisited(5), true);
+    // stops as soon as the goal is visited
+    t.checkExpect(s.bfs(this.exampleTree(), 0, 2), true);
+    t.checkExpect(s.numVisited, 4);
+    // an unreachable goal
+    t.checkExpect(s.bfs(new MazeGrid(2, 2), 0, 3), false);
+    t.checkExpect(s.numVisited, 1);
+    t.checkExpect(s.isVisited(3), false);
+  }
+
+  // test the dfs method of SearchEngine
+  void testSearchEngineDFS(Tester t) {
+    SearchEngine s = new SearchEngine();
+    t.checkExpect(s.dfs(this.exampleTree(), 0, 8), true);
+    t.checkExpect(s.numVisited, 5);
+    t.checkExpect(Arrays.copyOf(s.order, 5), new int[] { 0, 3, 6, 7, 8 });
+    t.checkExpect(s.cameFrom[8], 7);
+    t.checkExpect(s.cameFrom[3], 0);
+    // 1 was pushed but never visited
+    t.checkExpect(s.isVisited(1), true);
+    t.checkExpect(s.isVisited(2), false);
+    // searches can start anywhere
+    t.checkExpect(s.dfs(this.exampleTree(), 5, 2), true);
+    // from 1 the stack holds 2 then 0, so the whole left side goes before 2
+    t.checkExpect(Arrays.copyOf(s.order, s.numVisited), new int[] { 5, 4, 1, 0, 3, 6, 7, 8, 2 });
+  }
+
+  // test that SearchEngine reuses its arrays from one search to the next
+  void testSearchEngineReuse(Tester t) {
+    SearchEngine s = new SearchEngine();
+    Maze big = new Maze(300, 300, MazeAlgorithm.KRUSKAL, 5);
+    t.checkExpect(s.bfs(big.grid, 0, big.numCells - 1), true);
+    int[] order = s.order;
+    long[] visited = s.visited;
+    t.checkExpect(s.dfs(this.exampleTree(), 0, 8), true);
+    t.checkExpect(s.dfs(big.grid, 0, big.numCells - 1), true);
+    t.checkExpect(s.order == order, true);
+    t.checkExpect(s.visited == visited, true);
+    // nothing from the big search leaks into a smaller one
+    t.checkExpect(s.bfs(this.exampleTree(), 0, 8), true);
+    t.checkExpect(s.numVisited, 9);
+  }
+
+  // test that the solvers of Maze handle mazes too big for the old quadratic ones
+  void testSolveBigMaze(Tester t) {
+    Maze m = new Maze(1000, 1000, MazeAlgorithm.TILED_KRUSKAL, 3);
+    SolveResult bfs = m.solveBFS();
+    SolveResult dfs = m.solveDFS();
+    t.checkExpect(bfs.state.length, 1000000);
+    t.checkExpect(dfs.state.length, 1000000);
+    t.checkExpect(bfs.state[999999], SolveResult.ON_PATH);
+    // there is only one path through a perfect maze
+    t.checkExpect(bfs.path, dfs.path);
+  }
+
   // test the default constructor of Maze
   void testDefaultMazeConstructor(Tester t) {
     t.checkConstructorNoException("Maze no args", "Maze");
@@ -650,8 +6938,8 @@ class ExamplesMaze {
     t.checkExpect(m.numRows, 18);
     t.checkExpect(m.numCols, 32);
     t.checkExpect(m.numCells, 576);
-    // check maze has initialized its representatives hashmap
-    t.checkExpect(m.reps.size(), 32 * 18);
+    // check maze has initialized its representatives array
+    t.checkExpect(m.kruskal.sets.size(), 32 * 18);
     // check maze is solved
     t.checkExpect(m.numEdges, 32 * 18 - 1);
     t.checkExpect(m.finishedMaze(), true);
@@ -664,9 +6952,9 @@ class ExamplesMaze {
     t.checkExpect(m.numRows, 2);
     t.checkExpect(m.numCols, 2);
     t.checkExpect(m.numCells, 4);
-    // check maze has initialized representative hashmap
-    t.checkExpect(m.reps.size(), 4);
-    t.checkExpect(m.edges.size(), 4);
+    // check maze has initialized representative array
+    t.checkExpect(m.kruskal.sets.size(), 4);
+    t.checkExpect(m.kruskal.walls.length, 4);
     // check maze is solved
     t.checkExpect(m.numEdges, 3);
     t.checkExpect(m.finishedMaze(), true);
@@ -685,11 +6973,11 @@ class ExamplesMaze {
     t.checkExpect(n.numRows, 2);
     t.checkExpect(n.numCols, 2);
     t.checkExpect(m.numCells, 4);
-    // check maze has initialized representative hashmap
-    t.checkExpect(m.reps.size(), 4);
-    t.checkExpect(m.edges.size(), 4);
-    t.checkExpect(n.reps.size(), 4);
-    t.checkExpect(n.edges.size(), 4);
+    // check maze has initialized representative array
+    t.checkExpect(m.kruskal.sets.size(), 4);
+    t.checkExpect(m.kruskal.walls.length, 4);
+    t.checkExpect(n.kruskal.sets.size(), 4);
+    t.checkExpect(n.kruskal.walls.length, 4);
     // check solved maze is solved
     t.checkExpect(m.numEdges, 3);
     t.checkExpect(m.finishedMaze(), true);
@@ -727,7 +7015,7 @@ class ExamplesMaze {
     Maze m = new Maze(2, 2, false);
     t.checkExpect(m.finishedMaze(), false);
     t.checkExpect(m.numEdges, 0);
-    Edge e = m.edges.get(2);
+    Edge e = new Edge(0, 0, false);
     m.addEdge(e, e.getMainPosn(), e.getOtherPosn());
     t.checkExpect(m.finishedMaze(), false);
     t.checkExpect(m.numEdges, 1);
@@ -747,16 +7035,15 @@ class ExamplesMaze {
     t.checkExpect(m.finishedMaze(), false);
     // unsolved maze should have no edges
     t.checkExpect(m.numEdges, 0);
-    // we still expect the same number of nodes in the representatives hashmap tho
-    t.checkExpect(m.reps.size(), 4);
-    // check adjacencyList has been initialized and its nodes have been initialized
-    t.checkExpect(m.adjacencyList == null, false);
-    t.checkExpect(m.adjacencyList.get(new Posn(0, 0)) == null, false);
-    // check adjacencyList is empty.
-    t.checkExpect(m.adjacencyList.get(new Posn(0, 0)).size(), 0);
-    t.checkExpect(m.adjacencyList.get(new Posn(0, 1)).size(), 0);
-    t.checkExpect(m.adjacencyList.get(new Posn(1, 0)).size(), 0);
-    t.checkExpect(m.adjacencyList.get(new Posn(1, 1)).size(), 0);
+    // we still expect the same number of nodes in the representatives array tho
+    t.checkExpect(m.kruskal.sets.size(), 4);
+    // check the grid has been initialized
+    t.checkExpect(m.grid == null, false);
+    // check no cell has any neighbors.
+    t.checkExpect(m.neighbors(new Posn(0, 0)).size(), 0);
+    t.checkExpect(m.neighbors(new Posn(0, 1)).size(), 0);
+    t.checkExpect(m.neighbors(new Posn(1, 0)).size(), 0);
+    t.checkExpect(m.neighbors(new Posn(1, 1)).size(), 0);
   }
 
   // test the kruskalStep method of Maze
@@ -767,8 +7054,8 @@ class ExamplesMaze {
     t.checkExpect(m.numEdges, 0);
     m.kruskalStep();
     int numMatching = 0;
-    for (Posn p : m.reps.keySet()) {
-      if (p.equals(m.reps.get(p))) {
+    for (int i = 0; i < m.kruskal.sets.size(); i++) {
+      if (m.kruskal.sets.parent[i] == i) {
         numMatching += 1;
       }
     }
@@ -779,14 +7066,23 @@ class ExamplesMaze {
   // test the addEdge method of Maze
   void testAddEdge(Tester t) {
     Maze m = new Maze(2, 2, false);
-    Edge e = m.edges.get(3);
+    Edge e = new Edge(0, 1, true);
     t.checkExpect(m.numEdges, 0);
     m.addEdge(e, e.getMainPosn(), e.getOtherPosn());
     t.checkExpect(m.numEdges, 1);
-    t.checkExpect(m.reps.get(e.getMainPosn()), e.getOtherPosn());
-    t.checkExpect(m.reps.get(e.getOtherPosn()), e.getOtherPosn());
-    t.checkExpect(m.adjacencyList.get(e.getMainPosn()).contains(e.getOtherPosn()), true);
-    t.checkExpect(m.adjacencyList.get(e.getOtherPosn()).contains(e.getMainPosn()), true);
+    t.checkExpect(m.getRep(e.getMainPosn()), e.getOtherPosn());
+    t.checkExpect(m.getRep(e.getOtherPosn()), e.getOtherPosn());
+    t.checkExpect(m.isConnected(e.getMainPosn(), e.getOtherPosn()), true);
+    t.checkExpect(m.isConnected(e.getOtherPosn(), e.getMainPosn()), true);
+    t.checkExpect(m.grid.isOpen(e.wallId(m.numCols)), true);
+    // an edge whose cells are already joined isn't added
+    m.addEdge(new Edge(0, 0, false), new Posn(0, 0), new Posn(0, 1));
+    m.addEdge(new Edge(1, 0, false), new Posn(1, 0), new Posn(1, 1));
+    t.checkExpect(m.numEdges, 3);
+    Edge loop = new Edge(0, 0, true);
+    m.addEdge(loop, loop.getMainPosn(), loop.getOtherPosn());
+    t.checkExpect(m.numEdges, 3);
+    t.checkExpect(m.grid.isOpen(loop.wallId(m.numCols)), false);
   }
 
   // test the getRep method of Maze
@@ -799,16 +7095,17 @@ class ExamplesMaze {
     Edge e1 = new Edge(0, 0, true);
     Edge e2 = new Edge(0, 0, false);
     // originally each node should be its own representative
-    t.checkExpect(m.reps.get(p00), p00);
-    t.checkExpect(m.reps.get(p01), p01);
-    t.checkExpect(m.reps.get(p10), p10);
+    t.checkExpect(m.getRep(p00), p00);
+    t.checkExpect(m.getRep(p01), p01);
+    t.checkExpect(m.getRep(p10), p10);
     // add the two manually created edges
     m.addEdge(e1, p00, p01);
     m.addEdge(e2, p00, p10);
-    // now all three should have the same representative (p10)
-    t.checkExpect(m.getRep(p00), p10);
-    t.checkExpect(m.getRep(p01), p10);
-    t.checkExpect(m.getRep(p10), p10);
+    // now all three should have the same representative (p01) - p10 is the
+    // smaller tree so it goes under p01
+    t.checkExpect(m.getRep(p00), p01);
+    t.checkExpect(m.getRep(p01), p01);
+    t.checkExpect(m.getRep(p10), p01);
   }
 
   // test the tick method of Maze
@@ -828,8 +7125,8 @@ class ExamplesMaze {
     m.tick();
     n.tick();
     int numMatching = 0;
-    for (Posn p : m.reps.keySet()) {
-      if (p.equals(m.reps.get(p))) {
+    for (int i = 0; i < m.kruskal.sets.size(); i++) {
+      if (m.kruskal.sets.parent[i] == i) {
         numMatching += 1;
       }
     }
@@ -847,6 +7144,241 @@ class ExamplesMaze {
     t.checkExpect(n.tick, 4 / 144.0);
   }
 
+  // test the wallsDue method of Maze
+  void testWallsDue(Tester t) {
+    // 3 walls over 600 frames
+    Maze small = new Maze(2, 2, false);
+    t.checkExpect(small.wallsDue(1), 1);
+    t.checkExpect(small.wallsDue(200), 1);
+    t.checkExpect(small.wallsDue(201), 2);
+    t.checkExpect(small.wallsDue(600), 3);
+    Maze m = new Maze(60, 60, false);
+    // 3599 walls over 600 frames
+    t.checkExpect(m.wallsDue(1), 6);
+    t.checkExpect(m.wallsDue(2), 12);
+    t.checkExpect(m.wallsDue(600), 3599);
+    t.checkExpect(m.wallsDue(700), 3599);
+    m.animationSeconds = 1;
+    t.checkExpect(m.wallsDue(1), 60);
+  }
+
+  // test the generationStep method of Maze
+  void testGenerationStep(Tester t) {
+    Maze m = new Maze(60, 60, false);
+    t.checkExpect(m.generationStep(), 6);
+    t.checkExpect(m.numEdges, 6);
+    m.tick();
+    t.checkExpect(m.numEdges, 12);
+    // the whole maze takes the same number of frames whatever its size
+    Maze n = new Maze(100, 100, false);
+    n.animationSeconds = 1;
+    n.stepBudgetNanos = 1000000000L;
+    int frames = 0;
+    while (!n.finishedMaze()) {
+      n.tick();
+      frames++;
+    }
+    t.checkExpect(frames, 60);
+    t.checkExpect(n.generationStep(), 0);
+    // with no time to spare a frame stops after a handful of steps
+    Maze o = new Maze(300, 300, false);
+    o.stepBudgetNanos = 0;
+    int knocked = o.generationStep();
+    t.checkExpect(knocked > 0 && knocked <= 64, true);
+    t.checkExpect(o.kruskal.cursor, 64);
+    o.generationStep();
+    t.checkExpect(o.numEdges < o.wallsDue(2), true);
+    // the first frame with time to spare catches up on the ones cut short
+    o.stepBudgetNanos = 1000000000L;
+    int edges = o.numEdges;
+    t.checkExpect(o.generationStep(), o.wallsDue(3) - edges);
+    t.checkExpect(o.numEdges, 450);
+  }
+
+  // test the generationLog method of Maze
+  void testMazeGenerationLog(Tester t) {
+    Maze m = new Maze(6, 6, false);
+    GenerationLog log = m.generationLog();
+    t.checkExpect(m.finishedMaze(), true);
+    t.checkExpect(log.numFrames(), 35);
+    t.checkExpect(m.generationLog(), log);
+    // a braided maze needs a new log
+    m.braid(1.0);
+    t.checkExpect(m.generationLog() == log, false);
+    t.checkExpect(m.generationLog().numFrames(), m.numEdges);
+  }
+
+  // test replaying the generation of a maze
+  void testMazeReplay(Tester t) {
+    Maze m = new Maze(30, 30, MazeAlgorithm.KRUSKAL, 5);
+    long[] finished = m.grid.passages.clone();
+    m.animationSeconds = 1;
+    m.startReplay(false);
+    // 899 walls over 60 frames
+    t.checkExpect(m.replayStep, 15);
+    t.checkExpect(m.replayFrame, 0);
+    t.checkExpect(this.shownWalls(m), new MazeGrid(30, 30).passages);
+    m.tick();
+    t.checkExpect(m.replayFrame, 15);
+    t.checkExpect(this.shownWalls(m), m.replay.gridAt(15).passages);
+    // seeking anywhere shows that frame, and leaves the maze itself alone
+    m.seek(400);
+    t.checkExpect(this.shownWalls(m), m.replay.gridAt(400).passages);
+    m.seek(7);
+    t.checkExpect(this.shownWalls(m), m.replay.gridAt(7).passages);
+    t.checkExpect(m.grid.passages, finished);
+    t.checkExpect(m.numEdges, 899);
+    m.seek(-5);
+    t.checkExpect(m.replayFrame, 0);
+    // rewinding waits on the first frame
+    m.seek(20);
+    m.reverseReplay();
+    m.tick();
+    t.checkExpect(m.replayFrame, 5);
+    m.tick();
+    t.checkExpect(m.replayFrame, 0);
+    t.checkExpect(m.replay == null, false);
+    // playing forward to the end ends the replay
+    m.reverseReplay();
+    int ticks = 0;
+    while (m.replay != null) {
+      m.tick();
+      ticks++;
+    }
+    t.checkExpect(ticks, 60);
+    t.checkExpect(this.shownWalls(m), finished);
+    t.checkExpect(m.finishedMaze(), true);
+    // a rewind with no replay starts from the end, solving still sees the
+    // whole maze, and stopping shows it again
+    m.reverseReplay();
+    t.checkExpect(m.replayFrame, 899);
+    m.tick();
+    t.checkExpect(m.replayFrame, 884);
+    t.checkExpect(m.solveBFS() == null, false);
+    t.checkExpect(m.replayFrame, 884);
+    m.stopReplay();
+    t.checkExpect(m.replay, null);
+    t.checkExpect(this.shownWalls(m), finished);
+  }
+
+  // get the wall bits of the maze the given maze shows, read through
+  // shownWallBits
+  long[] shownWalls(Maze m) {
+    long[] bits = new long[m.grid.passages.length];
+    for (int i = 0; i < bits.length; i++) {
+      bits[i] = m.shownWallBits(64 * i);
+    }
+    return bits;
+  }
+
+  // test the seek method of Maze
+  void testMazeSeek(Tester t) {
+    Maze m = new Maze(100, 100, MazeAlgorithm.KRUSKAL, 2);
+    // nothing to seek in without a replay
+    m.seek(10);
+    t.checkExpect(m.replayFrame, 0);
+    m.startReplay(false);
+    m.redrawAll = false;
+    m.numChangedWalls = 0;
+    // a short jump tells the UI which walls to draw again
+    m.seek(30);
+    t.checkExpect(m.numChangedWalls, 30);
+    t.checkExpect(m.changedWalls[29], m.replay.wallAt(29));
+    t.checkExpect(m.redrawAll, false);
+    m.seek(20);
+    t.checkExpect(m.numChangedWalls, 40);
+    t.checkExpect(m.isShownOpen(m.replay.wallAt(19)), true);
+    t.checkExpect(m.isShownOpen(m.replay.wallAt(20)), false);
+    // a long one redraws everything instead
+    m.seek(9000);
+    t.checkExpect(m.redrawAll, true);
+    t.checkExpect(m.numChangedWalls, 0);
+    t.checkExpect(m.isShownOpen(m.replay.wallAt(8999)), true);
+    t.checkExpect(m.isShownOpen(m.replay.wallAt(9000)), false);
+    int wall = m.replay.wallAt(9000);
+    m.stopReplay();
+    t.checkExpect(m.isShownOpen(wall), true);
+  }
+
+  // test that walls put back up by a rewind get drawn
+  void testDrawChangesRewind(Tester t) {
+    Maze m = new Maze(2, 2, true);
+    TestingUI tui = new TestingUI();
+    tui.maze = m;
+    tui.pxPerCell = UI.MIN_PX_PER_CELL_AS_IMAGES;
+    m.reverseReplay();
+    tui.makeScene();
+    tui.edgesDrawn = 0;
+    m.seek(2);
+    t.checkExpect(m.drawChanges(tui), 1);
+    t.checkExpect(tui.edgesDrawn, 1);
+  }
+
+  // test that drawWalls only draws the walls inside the UI's window
+  void testDrawWallsViewport(Tester t) {
+    Maze m = new Maze(40, 60, MazeAlgorithm.KRUSKAL, 3);
+    TestingUI tui = new TestingUI();
+    int[][] views = { { 0, 40, 0, 60 }, { 5, 12, 7, 45 }, { 39, 40, 31, 33 }, { 3, 3, 0, 60 },
+        { -4, 100, -10, 100 } };
+    for (int[] view : views) {
+      tui.firstRow = view[0];
+      tui.lastRow = view[1];
+      tui.firstCol = view[2];
+      tui.lastCol = view[3];
+      int expected = 0;
+      for (int row = Math.max(0, view[0]); row < Math.min(40, view[1]); row++) {
+        for (int col = Math.max(0, view[2]); col < Math.min(60, view[3]); col++) {
+          int cell = m.grid.index(col, row);
+          if (col < 59 && !m.grid.isOpen(MazeGrid.wallId(cell, MazeGrid.RIGHT))) {
+            expected++;
+          }
+          if (row < 39 && !m.grid.isOpen(MazeGrid.wallId(cell, MazeGrid.DOWN))) {
+            expected++;
+          }
+        }
+      }
+      tui.edgesDrawn = 0;
+      m.drawWalls(tui);
+      t.checkExpect(tui.edgesDrawn, expected);
+    }
+    // a perfect maze leaves (rows - 1) * (cols - 1) walls up
+    tui.firstRow = 0;
+    tui.lastRow = 40;
+    tui.firstCol = 0;
+    tui.lastCol = 60;
+    tui.edgesDrawn = 0;
+    m.drawWalls(tui);
+    t.checkExpect(tui.edgesDrawn, 39 * 59);
+  }
+
+  // test that the solution only draws the cells inside the UI's window
+  void testDrawSolutionViewport(Tester t) {
+    Maze m = new Maze(10, 10, MazeAlgorithm.KRUSKAL, 8);
+    TestingUI tui = new TestingUI();
+    tui.maze = m;
+    tui.firstRow = 0;
+    tui.lastRow = 2;
+    tui.firstCol = 0;
+    tui.lastCol = 3;
+    m.drawBFSSolution(tui);
+    m.tick = 1000;
+    m.drawSolution(tui);
+    t.checkExpect(tui.squaresDrawn.size(), 6);
+    t.checkExpect(m.revealed, 100);
+    t.checkExpect(tui.squaresDrawn.get(new Posn(0, 0)), UI.NODE_IN_SOL_COLOR);
+    // only the new cells in the window get drawn as the animation goes on
+    tui.squaresDrawn.clear();
+    m.tick = 0;
+    m.drawSolution(tui);
+    m.tick = 1000;
+    m.drawChanges(tui);
+    t.checkExpect(tui.squaresDrawn.size(), 6);
+    t.checkExpect(m.revealed, 100);
+    t.checkExpect(m.isVisible(tui, m.grid.index(2, 1)), true);
+    t.checkExpect(m.isVisible(tui, m.grid.index(3, 1)), false);
+    t.checkExpect(m.isVisible(tui, m.grid.index(0, 2)), false);
+  }
+
   // test the drawWalls method of Maze
   void testDrawWalls(Tester t) {
     Maze m = new Maze(2, 2, false);
@@ -865,87 +7397,986 @@ class ExamplesMaze {
     // test the actual colors drawn
     TestingUI tui = new TestingUI();
     tui.squaresDrawn.clear();
-    HashMap<Posn, Integer> animation = m.solveBFS();
-    m.coloring = new HashMap<Posn, Color>();
-    m.delays = new HashMap<Posn, Integer>();
-    Color[] colors = { UI.NOT_VISITED_COLOR, UI.VISITED_NODE_COLOR, UI.NODE_IN_SOL_COLOR };
-    for (Posn p : animation.keySet()) {
-      m.coloring.put(p, colors[animation.get(p) / m.numCells]);
-      m.delays.put(p, animation.get(p) % m.numCells);
-    }
+    m.solution = m.solveBFS();
     m.drawingSolution = true;
     m.tick = 10;
     m.drawSolution(tui);
     t.checkExpect(tui.squaresDrawn.size(), 4);
+    t.checkExpect(tui.squaresDrawn.get(new Posn(1, 1)), UI.NODE_IN_SOL_COLOR);
+    // only cells visited before the tick show up
+    tui.squaresDrawn.clear();
+    m.tick = 1;
+    m.drawSolution(tui);
+    t.checkExpect(tui.squaresDrawn.size(), 4 - m.solution.numVisited() + 1);
+    t.checkExpect(tui.squaresDrawn.get(new Posn(0, 0)), UI.NODE_IN_SOL_COLOR);
+  }
+
+  // test the wallChanged method of Maze
+  void testWallChanged(Tester t) {
+    Maze m = new Maze(2, 2, false);
+    // nothing is remembered until the UI has drawn the maze once
+    t.checkExpect(m.redrawAll, true);
+    m.kruskalStep();
+    t.checkExpect(m.numChangedWalls, 0);
+    m.redrawAll = false;
+    m.wallChanged(1);
+    m.wallChanged(4);
+    t.checkExpect(m.numChangedWalls, 2);
+    t.checkExpect(Arrays.copyOf(m.changedWalls, 2), new int[] { 1, 4 });
+    // too many changes between two frames means drawing everything again
+    for (int i = 2; i < Maze.MAX_CHANGED_WALLS; i++) {
+      m.wallChanged(1);
+    }
+    t.checkExpect(m.redrawAll, false);
+    m.wallChanged(1);
+    t.checkExpect(m.redrawAll, true);
+    t.checkExpect(m.numChangedWalls, 0);
+  }
+
+  // test the drawChanges method of Maze
+  void testDrawChanges(Tester t) {
+    Maze m = new Maze(2, 2, false);
+    TestingUI tui = new TestingUI();
+    tui.maze = m;
+    // cells this large are drawn as images
+    tui.pxPerCell = UI.MIN_PX_PER_CELL_AS_IMAGES;
+    tui.makeScene();
+    t.checkExpect(tui.edgesDrawn, 4);
+    t.checkExpect(tui.layer, null);
+    t.checkExpect(m.redrawAll, false);
+    // nothing changed, nothing drawn
+    tui.edgesDrawn = 0;
+    t.checkExpect(m.drawChanges(tui), 0);
+    // a knocked down wall leaves one wall standing around each of its cells
+    while (m.numEdges == 0) {
+      m.kruskalStep();
+    }
+    t.checkExpect(m.numChangedWalls, 1);
+    t.checkExpect(m.drawChanges(tui), 3);
+    t.checkExpect(tui.edgesDrawn, 2);
+    t.checkExpect(m.numChangedWalls, 0);
+    // solution cells show up as the tick passes them
+    m.makeSolution();
+    m.drawBFSSolution(tui);
+    m.redrawAll = false;
+    tui.squaresDrawn.clear();
+    m.tick = 1;
+    m.drawChanges(tui);
+    t.checkExpect(tui.squaresDrawn.size(), 4 - m.solution.numVisited() + 1);
+    t.checkExpect(tui.squaresDrawn.get(new Posn(0, 0)), UI.NODE_IN_SOL_COLOR);
+    tui.squaresDrawn.clear();
+    m.tick = 10;
+    m.drawChanges(tui);
+    t.checkExpect(tui.squaresDrawn.size(), m.solution.numVisited() - 1);
+    t.checkExpect(tui.squaresDrawn.get(new Posn(1, 1)), UI.NODE_IN_SOL_COLOR);
+    tui.squaresDrawn.clear();
+    t.checkExpect(m.drawChanges(tui), 0);
+    t.checkExpect(tui.squaresDrawn.size(), 0);
+  }
+
+  // test the cellColor method of Maze
+  void testCellColor(Tester t) {
+    Maze m = new Maze(2, 2, true);
+    t.checkExpect(m.cellColor(0), UI.START_NODE_COLOR);
+    t.checkExpect(m.cellColor(1), null);
+    t.checkExpect(m.cellColor(3), UI.TARGET_NODE_COLOR);
+    m.animateSolution(m.solveBFS());
+    t.checkExpect(m.cellColor(0), UI.START_NODE_COLOR);
+    m.tick = 10;
+    t.checkExpect(m.cellColor(0), UI.NODE_IN_SOL_COLOR);
+    t.checkExpect(m.cellColor(3), UI.NODE_IN_SOL_COLOR);
   }
 
   // test the solveDFS method of Maze
   void testSolveDFS(Tester t) {
     Maze m = new Maze(2, 2);
-    HashMap<Posn, Integer> out = m.solveDFS();
-    Posn intermediate;
-    if (m.adjacencyList.get(new Posn(0, 1)).contains(new Posn(0, 0))
-        && m.adjacencyList.get(new Posn(0, 1)).contains(new Posn(1, 1))) {
-      intermediate = new Posn(0, 1);
+    SolveResult out = m.solveDFS();
+    int intermediate;
+    if (m.isConnected(new Posn(0, 1), new Posn(0, 0))
+        && m.isConnected(new Posn(0, 1), new Posn(1, 1))) {
+      intermediate = 2;
     }
     else {
-      intermediate = new Posn(1, 0);
+      intermediate = 1;
     }
-    t.checkExpect(out.get(intermediate) > 8.5, true);
-    t.checkExpect(out.get(new Posn(0, 0)), 4);
-    t.checkExpect(out.get(new Posn(1, 1)) > 9.5, true);
+    t.checkExpect(out.state[intermediate], SolveResult.ON_PATH);
+    t.checkExpect(out.state[0], SolveResult.ON_PATH);
+    t.checkExpect(out.visitIndex[0], 0);
+    t.checkExpect(out.state[3], SolveResult.ON_PATH);
+    t.checkExpect(out.visitIndex[3] >= 2, true);
+    t.checkExpect(out.path, new int[] { 0, intermediate, 3 });
   }
 
   // test the solveBFS method of Maze
   void testSolveBFS(Tester t) {
     Maze m = new Maze(2, 2);
-    HashMap<Posn, Integer> out = m.solveBFS();
-    Posn intermediate;
-    if (m.adjacencyList.get(new Posn(0, 1)).contains(new Posn(0, 0))
-        && m.adjacencyList.get(new Posn(0, 1)).contains(new Posn(1, 1))) {
-      intermediate = new Posn(0, 1);
+    SolveResult out = m.solveBFS();
+    int intermediate;
+    if (m.isConnected(new Posn(0, 1), new Posn(0, 0))
+        && m.isConnected(new Posn(0, 1), new Posn(1, 1))) {
+      intermediate = 2;
     }
     else {
-      intermediate = new Posn(1, 0);
+      intermediate = 1;
+    }
+    t.checkExpect(out.state[intermediate], SolveResult.ON_PATH);
+    t.checkExpect(out.state[0], SolveResult.ON_PATH);
+    t.checkExpect(out.visitIndex[0], 0);
+    t.checkExpect(out.state[3], SolveResult.ON_PATH);
+    t.checkExpect(out.visitIndex[3] >= 2, true);
+    t.checkExpect(out.path, new int[] { 0, intermediate, 3 });
+  }
+
+  // test the insert and pollMin methods of IndexedMinHeap
+  void testIndexedMinHeapOrder(Tester t) {
+    IndexedMinHeap h = new IndexedMinHeap();
+    h.reset(10);
+    t.checkExpect(h.isEmpty(), true);
+    long[] keys = { 50, 20, 90, 10, 70, 30, 60, 80, 40, 0 };
+    for (int cell = 0; cell < 10; cell++) {
+      h.insert(cell, keys[cell]);
+    }
+    t.checkExpect(h.contains(4), true);
+    int[] popped = new int[10];
+    for (int i = 0; i < 10; i++) {
+      popped[i] = h.pollMin();
+    }
+    t.checkExpect(popped, new int[] { 9, 3, 1, 5, 8, 0, 6, 4, 7, 2 });
+    t.checkExpect(h.isEmpty(), true);
+    t.checkExpect(h.contains(4), false);
+  }
+
+  // test the decreaseKey method of IndexedMinHeap
+  void testIndexedMinHeapDecreaseKey(Tester t) {
+    IndexedMinHeap h = new IndexedMinHeap();
+    h.reset(5);
+    for (int cell = 0; cell < 5; cell++) {
+      h.insert(cell, 10 * cell);
+    }
+    h.decreaseKey(4, 5);
+    h.decreaseKey(3, -1);
+    t.checkExpect(h.pollMin(), 3);
+    t.checkExpect(h.pollMin(), 0);
+    t.checkExpect(h.pollMin(), 4);
+    t.checkExpect(h.pollMin(), 1);
+  }
+
+  // test the reset method of IndexedMinHeap
+  void testIndexedMinHeapReset(Tester t) {
+    IndexedMinHeap h = new IndexedMinHeap();
+    h.reset(4);
+    h.insert(2, 7);
+    h.insert(3, 1);
+    int[] heap = h.heap;
+    h.reset(4);
+    t.checkExpect(h.isEmpty(), true);
+    t.checkExpect(h.contains(2), false);
+    t.checkExpect(h.contains(3), false);
+    // no new arrays for a heap that's big enough
+    t.checkExpect(h.heap == heap, true);
+  }
+
+  // test the push and pollMin methods of RadixHeap
+  void testRadixHeapOrder(Tester t) {
+    RadixHeap h = new RadixHeap();
+    t.checkExpect(h.isEmpty(), true);
+    int[] keys = { 50, 20, 90, 10, 70, 30, 60, 80, 40, 0 };
+    for (int cell = 0; cell < 10; cell++) {
+      h.push(keys[cell], cell);
+    }
+    int[] popped = new int[10];
+    int[] poppedKeys = new int[10];
+    for (int i = 0; i < 10; i++) {
+      popped[i] = h.pollMin();
+      poppedKeys[i] = h.lastKey();
+    }
+    t.checkExpect(popped, new int[] { 9, 3, 1, 5, 8, 0, 6, 4, 7, 2 });
+    t.checkExpect(poppedKeys, new int[] { 0, 10, 20, 30, 40, 50, 60, 70, 80, 90 });
+    t.checkExpect(h.isEmpty(), true);
+  }
+
+  // test RadixHeap with pushes between pops, as dijkstra does
+  void testRadixHeapMonotone(Tester t) {
+    RadixHeap h = new RadixHeap();
+    SplittableRandom rand = new SplittableRandom(4);
+    PriorityQueue<Integer> expected = new PriorityQueue<Integer>();
+    boolean sorted = true;
+    int prev = 0;
+    for (int i = 0; i < 3000; i++) {
+      // more than 16 keys per bucket makes the buckets grow
+      int key = h.lastKey() + rand.nextInt(1000);
+      h.push(key, key);
+      expected.add(key);
+      if (rand.nextInt(3) == 0) {
+        int got = h.pollMin();
+        sorted = sorted && got == expected.poll() && got == h.lastKey() && got >= prev;
+        prev = got;
+      }
+    }
+    while (!h.isEmpty()) {
+      int got = h.pollMin();
+      sorted = sorted && got == expected.poll() && got >= prev;
+      prev = got;
+    }
+    t.checkExpect(sorted, true);
+    t.checkExpect(expected.isEmpty(), true);
+    // equal keys and a reset
+    h.push(5, 1);
+    h.push(5, 2);
+    h.reset();
+    t.checkExpect(h.isEmpty(), true);
+    t.checkExpect(h.lastKey(), 0);
+    h.push(3, 7);
+    t.checkExpect(h.pollMin(), 7);
+  }
+
+  // test the astar method of SearchEngine
+  void testSearchEngineAStar(Tester t) {
+    SearchEngine s = new SearchEngine();
+    t.checkExpect(s.astar(this.exampleTree(), 0, 8), true);
+    t.checkExpect(SolveResult.fromSearch(s, 9, 0, 8).path, new int[] { 0, 3, 6, 7, 8 });
+    t.checkExpect(s.distance[8], 4);
+    t.checkExpect(s.order[s.numVisited - 1], 8);
+    t.checkExpect(s.astar(new MazeGrid(2, 2), 0, 3), false);
+    // on a grid with loops A* still finds a shortest path
+    MazeGrid open = new MazeGrid(4, 4);
+    for (int wall = 0; wall < 32; wall++) {
+      if (open.isInnerWall(wall)) {
+        open.open(wall);
+      }
+    }
+    t.checkExpect(s.astar(open, 0, 15), true);
+    t.checkExpect(SolveResult.fromSearch(s, 16, 0, 15).path.length, 7);
+    // with no walls the heuristic is exact and nothing off the path is expanded
+    t.checkExpect(s.numVisited, 7);
+  }
+
+  // test the dijkstra method of SearchEngine
+  void testSearchEngineDijkstra(Tester t) {
+    SearchEngine s = new SearchEngine();
+    // every cell costing 1 is plain BFS
+    t.checkExpect(s.dijkstra(this.exampleTree(), null, 5, 8), true);
+    t.checkExpect(SolveResult.fromSearch(s, 9, 5, 8).path,
+        new int[] { 5, 4, 1, 0, 3, 6, 7, 8 });
+    t.checkExpect(s.distance[8], 7);
+    t.checkExpect(s.order[s.numVisited - 1], 8);
+    t.checkExpect(s.dijkstra(new MazeGrid(2, 2), null, 0, 3), false);
+    // around a loop, the cheaper way wins even when it is longer
+    MazeGrid g = new MazeGrid(2, 3);
+    for (int wall = 0; wall < 12; wall++) {
+      if (g.isInnerWall(wall)) {
+        g.open(wall);
+      }
+    }
+    int[] cost = { 1, 9, 1, 1, 1, 1 };
+    t.checkExpect(s.dijkstra(g, cost, 0, 2), true);
+    t.checkExpect(SolveResult.fromSearch(s, 6, 0, 2).path, new int[] { 0, 3, 4, 5, 2 });
+    t.checkExpect(s.distance[2], 4);
+    cost[1] = 2;
+    t.checkExpect(s.dijkstra(g, cost, 0, 2), true);
+    t.checkExpect(SolveResult.fromSearch(s, 6, 0, 2).path, new int[] { 0, 1, 2 });
+    t.checkExpect(s.distance[2], 3);
+  }
+
+  // test dijkstra against bellman-ford on a braided maze with random costs
+  void testSearchEngineDijkstraMatchesBellmanFord(Tester t) {
+    MazeGrid g = new Maze(15, 18, MazeAlgorithm.KRUSKAL, 7).grid;
+    Braider.braid(g, 0.8, new SplittableRandom(1));
+    int[] cost = Terrain.random(g.numCells, 20, new SplittableRandom(2));
+    int[] expected = new int[g.numCells];
+    Arrays.fill(expected, Integer.MAX_VALUE);
+    expected[0] = 0;
+    int[] out = new int[4];
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int cell = 0; cell < g.numCells; cell++) {
+        if (expected[cell] != Integer.MAX_VALUE) {
+          int count = g.neighbors(cell, out);
+          for (int i = 0; i < count; i++) {
+            if (expected[cell] + cost[out[i]] < expected[out[i]]) {
+              expected[out[i]] = expected[cell] + cost[out[i]];
+              changed = true;
+            }
+          }
+        }
+      }
+    }
+    SearchEngine s = new SearchEngine();
+    t.checkExpect(s.dijkstra(g, cost, 0, -1), false);
+    t.checkExpect(Arrays.copyOf(s.distance, g.numCells), expected);
+    t.checkExpect(s.numVisited, g.numCells);
+    // the path adds up to its distance
+    s.dijkstra(g, cost, 0, g.numCells - 1);
+    int[] path = SolveResult.fromSearch(s, g.numCells, 0, g.numCells - 1).path;
+    int total = 0;
+    for (int i = 1; i < path.length; i++) {
+      total += cost[path[i]];
+    }
+    t.checkExpect(total, expected[g.numCells - 1]);
+  }
+
+  // test the braid method of Braider
+  void testBraiderBraid(Tester t) {
+    MazeGrid g = new Maze(20, 25, MazeAlgorithm.KRUSKAL, 5).grid;
+    int deadEnds = new MazeAnalysis(g).deadEnds();
+    t.checkExpect(Braider.braid(new MazeGrid(g), 0.0, new SplittableRandom(1)), 0);
+    // half of them
+    MazeGrid half = new MazeGrid(g);
+    int opened = Braider.braid(half, 0.5, new SplittableRandom(1));
+    t.checkExpect(opened > 0 && opened <= Math.round(0.5 * deadEnds), true);
+    t.checkExpect(new MazeAnalysis(half).deadEnds() <= deadEnds - Math.round(0.5 * deadEnds),
+        true);
+    // all of them, and every wall opened makes a loop
+    MazeGrid all = new MazeGrid(g);
+    opened = Braider.braid(all, 1.0, new SplittableRandom(1));
+    MazeAnalysis a = new MazeAnalysis(all);
+    t.checkExpect(a.deadEnds(), 0);
+    int[] degrees = a.degreeCounts();
+    t.checkExpect(degrees[1] + 2 * degrees[2] + 3 * degrees[3] + 4 * degrees[4],
+        2 * (g.numCells - 1 + opened));
+    t.checkExpect(new JunctionGraph(all).tree, false);
+    // the same seed braids the same way
+    MazeGrid again = new MazeGrid(g);
+    Braider.braid(again, 1.0, new SplittableRandom(1));
+    t.checkExpect(again.passages, all.passages);
+  }
+
+  // test the wallOnSide method of Braider
+  void testBraiderWallOnSide(Tester t) {
+    MazeGrid g = new MazeGrid(3, 3);
+    t.checkExpect(Braider.wallOnSide(g, 4, 0), MazeGrid.wallId(4, MazeGrid.RIGHT));
+    t.checkExpect(Braider.wallOnSide(g, 4, 1), MazeGrid.wallId(4, MazeGrid.DOWN));
+    t.checkExpect(Braider.wallOnSide(g, 4, 2), MazeGrid.wallId(3, MazeGrid.RIGHT));
+    t.checkExpect(Braider.wallOnSide(g, 4, 3), MazeGrid.wallId(1, MazeGrid.DOWN));
+    t.checkExpect(Braider.wallOnSide(g, 0, 2), -1);
+    t.checkExpect(Braider.wallOnSide(g, 0, 3), -1);
+    t.checkExpect(Braider.wallOnSide(g, 8, 0), -1);
+    t.checkExpect(Braider.wallOnSide(g, 8, 1), -1);
+  }
+
+  // test the random method of Terrain
+  void testTerrainRandom(Tester t) {
+    int[] cost = Terrain.random(1000, 5, new SplittableRandom(3));
+    int min = Integer.MAX_VALUE;
+    int max = 0;
+    for (int c : cost) {
+      min = Math.min(min, c);
+      max = Math.max(max, c);
+    }
+    t.checkExpect(min, 1);
+    t.checkExpect(max, 5);
+    t.checkExpect(Terrain.random(1000, 5, new SplittableRandom(3)), cost);
+  }
+
+  // test the bidirectionalBfs method of SearchEngine
+  void testSearchEngineBidirectional(Tester t) {
+    SearchEngine s = new SearchEngine();
+    t.checkExpect(s.bidirectionalBfs(this.exampleTree(), 0, 8), true);
+    t.checkExpect(SolveResult.fromSearch(s, 9, 0, 8).path, new int[] { 0, 3, 6, 7, 8 });
+    // start expands 0 and finds 1 and 3, then the goal side has the smaller
+    // frontier and expands 8, 7 and 6, and 6 sees 3
+    t.checkExpect(Arrays.copyOf(s.order, s.numVisited), new int[] { 0, 8, 7, 6 });
+    // the other way round
+    t.checkExpect(s.bidirectionalBfs(this.exampleTree(), 8, 0), true);
+    t.checkExpect(SolveResult.fromSearch(s, 9, 8, 0).path, new int[] { 8, 7, 6, 3, 0 });
+    // neighbors and a cell to itself
+    t.checkExpect(s.bidirectionalBfs(this.exampleTree(), 4, 5), true);
+    t.checkExpect(SolveResult.fromSearch(s, 9, 4, 5).path, new int[] { 4, 5 });
+    t.checkExpect(s.bidirectionalBfs(this.exampleTree(), 2, 2), true);
+    t.checkExpect(SolveResult.fromSearch(s, 9, 2, 2).path, new int[] { 2 });
+    // no way through
+    t.checkExpect(s.bidirectionalBfs(new MazeGrid(2, 2), 0, 3), false);
+  }
+
+  // test the solveBidirectional method of Maze
+  void testSolveBidirectional(Tester t) {
+    for (int seed = 0; seed < 5; seed++) {
+      Maze m = new Maze(70, 90, MazeAlgorithm.KRUSKAL, seed);
+      SolveResult both = m.solveBidirectional();
+      SolveResult bfs = m.solveBFS();
+      t.checkExpect(both.path, bfs.path);
+      t.checkExpect(both.state[0], SolveResult.ON_PATH);
+      t.checkExpect(both.state[m.numCells - 1], SolveResult.ON_PATH);
+    }
+  }
+
+  // test the constructor of PathIndex
+  void testPathIndexConstructor(Tester t) {
+    PathIndex idx = new PathIndex(this.exampleTree());
+    t.checkExpect(idx.depth, new int[] { 0, 1, 2, 1, 2, 3, 2, 3, 4 });
+    t.checkExpect(idx.up[0], new int[] { 0, 0, 1, 0, 1, 4, 3, 6, 7 });
+    // the deepest cell is 4 levels down, so jumps of 1, 2 and 4 are enough
+    t.checkExpect(idx.up.length, 3);
+    t.checkExpect(idx.up[1][8], 6);
+    t.checkExpect(idx.up[2][8], 0);
+    t.checkExpect(idx.parent(5), 4);
+    t.checkExpect(idx.ancestor(8, 3), 3);
+    t.checkExpect(idx.ancestor(8, 0), 8);
+  }
+
+  // test the lca and distance methods of PathIndex
+  void testPathIndexLCA(Tester t) {
+    PathIndex idx = new PathIndex(this.exampleTree());
+    t.checkExpect(idx.lca(8, 5), 0);
+    t.checkExpect(idx.lca(2, 5), 1);
+    t.checkExpect(idx.lca(5, 1), 1);
+    t.checkExpect(idx.lca(6, 6), 6);
+    t.checkExpect(idx.distance(8, 5), 7);
+    t.checkExpect(idx.distance(2, 5), 3);
+    t.checkExpect(idx.distance(6, 6), 0);
+  }
+
+  // test the path method of PathIndex
+  void testPathIndexPath(Tester t) {
+    PathIndex idx = new PathIndex(this.exampleTree());
+    t.checkExpect(idx.path(8, 5), new int[] { 8, 7, 6, 3, 0, 1, 4, 5 });
+    t.checkExpect(idx.path(2, 5), new int[] { 2, 1, 4, 5 });
+    t.checkExpect(idx.path(1, 8), new int[] { 1, 0, 3, 6, 7, 8 });
+    t.checkExpect(idx.path(4, 4), new int[] { 4 });
+  }
+
+  // test PathIndex against BFS on a bigger maze
+  void testPathIndexMatchesBFS(Tester t) {
+    Maze m = new Maze(60, 90, MazeAlgorithm.KRUSKAL, 8);
+    PathIndex idx = m.buildPathIndex();
+    SearchEngine s = new SearchEngine();
+    SplittableRandom rand = new SplittableRandom(3);
+    for (int i = 0; i < 50; i++) {
+      int a = rand.nextInt(m.numCells);
+      int b = rand.nextInt(m.numCells);
+      s.bfs(m.grid, a, b);
+      int[] expected = SolveResult.fromSearch(s, m.numCells, a, b).path;
+      t.checkExpect(idx.path(a, b), expected);
+      t.checkExpect(idx.distance(a, b), expected.length - 1);
+    }
+  }
+
+  // test the freeze method of Maze
+  void testFreeze(Tester t) {
+    Maze unfinished = new Maze(4, 4, false);
+    FrozenMaze f = unfinished.freeze();
+    // freezing finishes the maze first
+    t.checkExpect(unfinished.finishedMaze(), true);
+    t.checkExpect(f.numRows(), 4);
+    t.checkExpect(f.numCols(), 4);
+    t.checkExpect(f.numCells(), 16);
+    t.checkExpect(f.seed, unfinished.seed);
+    t.checkExpect(f.algorithm, MazeAlgorithm.KRUSKAL);
+    t.checkExpect(this.isPerfectMaze(f.thaw()), true);
+    for (int wall = 0; wall < 32; wall++) {
+      t.checkExpect(f.isOpen(wall), unfinished.grid.isOpen(wall));
+    }
+    int[] out1 = new int[4];
+    int[] out2 = new int[4];
+    for (int cell = 0; cell < 16; cell++) {
+      t.checkExpect(f.neighbors(cell, out1), unfinished.grid.neighbors(cell, out2));
+      t.checkExpect(out1, out2);
+      t.checkExpect(f.degree(cell), unfinished.grid.degree(cell));
+    }
+  }
+
+  // test that a FrozenMaze doesn't change when its maze or a thawed copy does
+  void testFrozenMazeIsolated(Tester t) {
+    Maze m = new Maze(3, 3, false);
+    FrozenMaze f = m.freeze();
+    long[] before = f.thaw().passages;
+    for (int wall = 0; wall < 18; wall++) {
+      if (m.grid.isInnerWall(wall)) {
+        m.grid.open(wall);
+      }
+    }
+    f.thaw().open(1);
+    t.checkExpect(f.thaw().passages, before);
+  }
+
+  // test solving a FrozenMaze from several threads at once
+  void testFrozenMazeConcurrentReaders(Tester t) {
+    FrozenMaze f = new Maze(120, 150, MazeAlgorithm.KRUSKAL, 17).freeze();
+    int threads = 4;
+    int queries = 50;
+    // the answers of a single thread
+    SearchEngine serial = new SearchEngine();
+    int[] expected = new int[queries];
+    for (int q = 0; q < queries; q++) {
+      serial.bfs(f, q, f.numCells() - 1 - q);
+      expected[q] = SolveResult.fromSearch(serial, f.numCells(), q, f.numCells() - 1 - q)
+          .path.length;
+    }
+    PathIndex idx = new PathIndex(f);
+    int[][] actual = new int[threads][queries];
+    Thread[] workers = new Thread[threads];
+    for (int i = 0; i < threads; i++) {
+      int[] answers = actual[i];
+      workers[i] = new Thread(() -> {
+        SearchEngine search = new SearchEngine();
+        for (int q = 0; q < queries; q++) {
+          search.bfs(f, q, f.numCells() - 1 - q);
+          answers[q] = SolveResult.fromSearch(search, f.numCells(), q, f.numCells() - 1 - q)
+              .path.length;
+        }
+      });
+      workers[i].start();
+    }
+    for (Thread worker : workers) {
+      try {
+        worker.join();
+      }
+      catch (InterruptedException e) {
+        t.checkExpect(e, null);
+      }
+    }
+    for (int i = 0; i < threads; i++) {
+      t.checkExpect(actual[i], expected);
+    }
+    for (int q = 0; q < queries; q++) {
+      t.checkExpect(idx.distance(q, f.numCells() - 1 - q) + 1, expected[q]);
+    }
+  }
+
+  // test the distanceField method of MazeAnalysis
+  void testMazeAnalysisDistanceField(Tester t) {
+    MazeAnalysis a = new MazeAnalysis(this.exampleTree());
+    t.checkExpect(a.distanceField(0), new int[] { 0, 1, 2, 1, 2, 3, 2, 3, 4 });
+    t.checkExpect(a.farthest, 8);
+    t.checkExpect(a.distanceField(5), new int[] { 3, 2, 3, 4, 1, 0, 5, 6, 7 });
+    t.checkExpect(a.farthest, 8);
+    MazeGrid g = new MazeGrid(2, 2);
+    g.open(g.wallBetween(0, 1));
+    a = new MazeAnalysis(g);
+    t.checkExpect(a.distanceField(1), new int[] { 1, 0, -1, -1 });
+    t.checkExpect(a.farthest, 0);
+  }
+
+  // test the diameter method of MazeAnalysis
+  void testMazeAnalysisDiameter(Tester t) {
+    MazeAnalysis a = new MazeAnalysis(this.exampleTree());
+    t.checkExpect(a.diameter(), 7);
+    t.checkExpect(a.diameterStart, 8);
+    t.checkExpect(a.diameterEnd, 5);
+    t.checkExpect(new MazeAnalysis(new MazeGrid(1, 1)).diameter(), 0);
+    // agrees with the longest path found by brute force
+    Maze m = new Maze(12, 15, MazeAlgorithm.KRUSKAL, 3);
+    PathIndex idx = m.buildPathIndex();
+    int longest = 0;
+    for (int i = 0; i < m.numCells; i++) {
+      for (int j = 0; j < m.numCells; j++) {
+        longest = Math.max(longest, idx.distance(i, j));
+      }
+    }
+    a = m.analyze();
+    t.checkExpect(a.diameter(), longest);
+    t.checkExpect(idx.distance(a.diameterStart, a.diameterEnd), longest);
+  }
+
+  // test the degreeCounts and deadEnds methods of MazeAnalysis
+  void testMazeAnalysisDegrees(Tester t) {
+    MazeAnalysis a = new MazeAnalysis(this.exampleTree());
+    t.checkExpect(a.degreeCounts(), new int[] { 0, 3, 5, 1, 0 });
+    t.checkExpect(a.deadEnds(), 3);
+    t.checkExpect(new MazeAnalysis(new MazeGrid(2, 3)).degreeCounts(),
+        new int[] { 6, 0, 0, 0, 0 });
+    // a perfect maze has one fewer passage than cells
+    Maze m = new Maze(20, 30, MazeAlgorithm.ELLER, 8);
+    int[] counts = m.analyze().degreeCounts();
+    t.checkExpect(counts[0] + counts[1] + counts[2] + counts[3] + counts[4], 600);
+    t.checkExpect(counts[1] + 2 * counts[2] + 3 * counts[3] + 4 * counts[4], 2 * 599);
+  }
+
+  // test the corridorLengths method of MazeAnalysis
+  void testMazeAnalysisCorridors(Tester t) {
+    t.checkExpect(new MazeAnalysis(this.exampleTree()).corridorLengths(),
+        new int[] { 0, 1, 0, 0, 1 });
+    // a straight line is one corridor between two dead ends
+    MazeGrid line = new MazeGrid(1, 5);
+    for (int i = 0; i < 4; i++) {
+      line.open(line.wallBetween(i, i + 1));
+    }
+    t.checkExpect(new MazeAnalysis(line).corridorLengths(), new int[] { 0, 0, 0, 1 });
+    // a loop has no junctions at all
+    MazeGrid loop = new MazeGrid(2, 2);
+    loop.open(loop.wallBetween(0, 1));
+    loop.open(loop.wallBetween(1, 3));
+    loop.open(loop.wallBetween(3, 2));
+    loop.open(loop.wallBetween(2, 0));
+    t.checkExpect(new MazeAnalysis(loop).corridorLengths(), new int[] { 0, 0, 0, 0, 1 });
+    // every degree 2 cell is in exactly one corridor
+    MazeAnalysis a = new Maze(25, 25, MazeAlgorithm.KRUSKAL, 5).analyze();
+    int[] hist = a.corridorLengths();
+    int inCorridors = 0;
+    for (int k = 0; k < hist.length; k++) {
+      inCorridors += k * hist[k];
     }
-    t.checkExpect(out.get(intermediate) > 8.5, true);
-    t.checkExpect(out.get(new Posn(0, 0)), 4);
-    t.checkExpect(out.get(new Posn(1, 1)) > 9.5, true);
+    t.checkExpect(inCorridors, a.degreeCounts()[2]);
   }
 
-  // test the reconstruct  method of Maze
-  void testReconstruct(Tester t) {
+  // test the search method of ParallelBfs
+  void testParallelBfsSearch(Tester t) {
+    ForkJoinPool pool = new ForkJoinPool(4);
+    // a perfect maze, with tiny levels forced onto the pool
+    Maze m = new Maze(40, 50, MazeAlgorithm.KRUSKAL, 9);
+    ParallelBfs bfs = new ParallelBfs(m.grid, pool, 1, 1);
+    t.checkExpect(bfs.search(7, -1), false);
+    t.checkExpect(bfs.distance, m.analyze().distanceField(7));
+    t.checkExpect(bfs.parallelLevels > 0, true);
+    // an open grid has wide frontiers
+    MazeGrid open = new MazeGrid(60, 70);
+    for (int wall = 0; wall < 2 * open.numCells; wall++) {
+      if (open.isInnerWall(wall)) {
+        open.open(wall);
+      }
+    }
+    bfs = new ParallelBfs(open, pool, 8, 4);
+    t.checkExpect(bfs.search(2000, -1), false);
+    t.checkExpect(bfs.distance, new MazeAnalysis(open).distanceField(2000));
+    // serial only
+    bfs = new ParallelBfs(open, pool);
+    t.checkExpect(bfs.search(0, -1), false);
+    t.checkExpect(bfs.parallelLevels, 0);
+    t.checkExpect(bfs.distance[open.numCells - 1], 59 + 69);
+    pool.shutdown();
+  }
+
+  // test that ParallelBfs stops at the goal and finds a valid path
+  void testParallelBfsPath(Tester t) {
+    ForkJoinPool pool = new ForkJoinPool(3);
+    ParallelBfs bfs = new ParallelBfs(this.exampleTree(), pool, 1, 1);
+    t.checkExpect(bfs.search(8, 5), true);
+    t.checkExpect(bfs.path(5), new int[] { 8, 7, 6, 3, 0, 1, 4, 5 });
+    t.checkExpect(bfs.search(4, 4), true);
+    t.checkExpect(bfs.path(4), new int[] { 4 });
+    // cells past the goal's level are never reached
+    t.checkExpect(bfs.search(0, 1), true);
+    t.checkExpect(bfs.distance[8], -1);
+    t.checkExpect(new ParallelBfs(new MazeGrid(2, 2), pool).search(0, 3), false);
+    // a path through an open grid
+    MazeGrid open = new MazeGrid(30, 30);
+    for (int wall = 0; wall < 2 * open.numCells; wall++) {
+      if (open.isInnerWall(wall)) {
+        open.open(wall);
+      }
+    }
+    bfs = new ParallelBfs(open, pool, 4, 2);
+    t.checkExpect(bfs.search(0, 899), true);
+    int[] path = bfs.path(899);
+    t.checkExpect(path.length, 59);
+    boolean valid = path[0] == 0 && path[58] == 899;
+    for (int i = 1; i < path.length; i++) {
+      int wall = open.wallBetween(path[i - 1], path[i]);
+      valid = valid && wall >= 0 && open.isOpen(wall);
+    }
+    t.checkExpect(valid, true);
+    pool.shutdown();
+  }
+
+  // test the constructor of JunctionGraph
+  void testJunctionGraphConstructor(Tester t) {
+    JunctionGraph j = new JunctionGraph(this.exampleTree());
+    t.checkExpect(j.numNodes, 4);
+    t.checkExpect(Arrays.copyOf(j.nodeCell, 4), new int[] { 1, 2, 5, 8 });
+    t.checkExpect(j.numEdges, 3);
+    t.checkExpect(Arrays.copyOf(j.edgeFrom, 3), new int[] { 0, 0, 0 });
+    t.checkExpect(Arrays.copyOf(j.edgeTo, 3), new int[] { 1, 2, 3 });
+    t.checkExpect(Arrays.copyOf(j.edgeStart, 4), new int[] { 0, 0, 1, 5 });
+    t.checkExpect(Arrays.copyOf(j.edgeCells, 5), new int[] { 4, 0, 3, 6, 7 });
+    t.checkExpect(j.where, new int[] { ~1, 0, 1, ~2, ~0, 2, ~3, ~4, 3 });
+    t.checkExpect(j.adjStart, new int[] { 0, 3, 4, 5, 6 });
+    t.checkExpect(j.adjEdge, new int[] { 0, 1, 2, 0, 1, 2 });
+    t.checkExpect(j.adjNode, new int[] { 1, 2, 3, 0, 0, 0 });
+    t.checkExpect(j.adjWeight, new int[] { 1, 2, 5, 1, 2, 5 });
+    t.checkExpect(j.compressionRatio(), 9.0 / 4);
+    t.checkExpect(j.edgeAt(0), 1);
+    t.checkExpect(j.edgeAt(3), 2);
+    // a loop with no junctions is anchored at its first cell
+    MazeGrid loop = new MazeGrid(2, 2);
+    loop.open(loop.wallBetween(0, 1));
+    loop.open(loop.wallBetween(1, 3));
+    loop.open(loop.wallBetween(3, 2));
+    loop.open(loop.wallBetween(2, 0));
+    j = new JunctionGraph(loop);
+    t.checkExpect(j.numNodes, 1);
+    t.checkExpect(j.numEdges, 1);
+    t.checkExpect(Arrays.copyOf(j.edgeCells, 3), new int[] { 1, 3, 2 });
+    t.checkExpect(j.adjStart, new int[] { 0, 0 });
+  }
+
+  // test the distance and path methods of JunctionGraph
+  void testJunctionGraphPath(Tester t) {
+    JunctionGraph j = new JunctionGraph(this.exampleTree());
+    t.checkExpect(j.tree, true);
+    t.checkExpect(j.path(8, 5), new int[] { 8, 7, 6, 3, 0, 1, 4, 5 });
+    t.checkExpect(j.path(5, 8), new int[] { 5, 4, 1, 0, 3, 6, 7, 8 });
+    t.checkExpect(j.path(3, 4), new int[] { 3, 0, 1, 4 });
+    t.checkExpect(j.path(3, 7), new int[] { 3, 6, 7 });
+    t.checkExpect(j.path(7, 3), new int[] { 7, 6, 3 });
+    t.checkExpect(j.path(6, 8), new int[] { 6, 7, 8 });
+    t.checkExpect(j.path(2, 1), new int[] { 2, 1 });
+    t.checkExpect(j.path(4, 4), new int[] { 4 });
+    t.checkExpect(j.path(1, 1), new int[] { 1 });
+    t.checkExpect(j.distance(2, 8), 6);
+    t.checkExpect(new JunctionGraph(new MazeGrid(2, 2)).path(0, 3), null);
+    t.checkExpect(new JunctionGraph(new MazeGrid(2, 2)).distance(0, 3), -1);
+    // around a loop with no junctions
+    MazeGrid loop = new MazeGrid(2, 2);
+    loop.open(loop.wallBetween(0, 1));
+    loop.open(loop.wallBetween(1, 3));
+    loop.open(loop.wallBetween(3, 2));
+    loop.open(loop.wallBetween(2, 0));
+    j = new JunctionGraph(loop);
+    t.checkExpect(j.tree, false);
+    // both ways round are as short, straight along the corridor wins ties
+    t.checkExpect(j.path(1, 2), new int[] { 1, 3, 2 });
+    t.checkExpect(j.path(0, 3), new int[] { 0, 1, 3 });
+    t.checkExpect(j.path(3, 0), new int[] { 3, 1, 0 });
+  }
+
+  // test JunctionGraph against the other solvers
+  void testJunctionGraphMatchesSolvers(Tester t) {
+    Maze m = new Maze(30, 40, MazeAlgorithm.KRUSKAL, 12);
+    JunctionGraph j = m.buildJunctionGraph();
+    PathIndex idx = m.buildPathIndex();
+    SplittableRandom rand = new SplittableRandom(3);
+    for (int i = 0; i < 300; i++) {
+      int a = rand.nextInt(m.numCells);
+      int b = rand.nextInt(m.numCells);
+      t.checkExpect(j.path(a, b), idx.path(a, b));
+    }
+    // a grid with loops - the distances have to match BFS and the paths have
+    // to be made of open walls
+    MazeGrid g = new Maze(20, 20, MazeAlgorithm.KRUSKAL, 2).grid;
+    for (int wall = 0; wall < 2 * g.numCells; wall += 7) {
+      if (g.isInnerWall(wall)) {
+        g.open(wall);
+      }
+    }
+    j = new JunctionGraph(g);
+    MazeAnalysis a = new MazeAnalysis(g);
+    boolean valid = true;
+    for (int i = 0; i < 200; i++) {
+      int from = rand.nextInt(g.numCells);
+      int to = rand.nextInt(g.numCells);
+      int[] path = j.path(from, to);
+      valid = valid && path.length == a.distanceField(from)[to] + 1 && path[0] == from
+          && path[path.length - 1] == to;
+      for (int k = 1; k < path.length; k++) {
+        int wall = g.wallBetween(path[k - 1], path[k]);
+        valid = valid && wall >= 0 && g.isOpen(wall);
+      }
+    }
+    t.checkExpect(valid, true);
+  }
+
+  // test the distances method of BatchPathSolver
+  void testBatchPathSolverDistances(Tester t) {
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    FrozenMaze f = new Maze(80, 100, MazeAlgorithm.KRUSKAL, 4).freeze();
+    PathIndex idx = new PathIndex(f);
+    SplittableRandom rand = new SplittableRandom(6);
+    int[] starts = new int[1000];
+    int[] goals = new int[1000];
+    for (int i = 0; i < 1000; i++) {
+      starts[i] = rand.nextInt(f.numCells());
+      goals[i] = rand.nextInt(f.numCells());
+    }
+    // chunks that don't divide the batch evenly
+    int[] res = new BatchPathSolver(f, executor, 7).distances(starts, goals);
+    for (int i = 0; i < 1000; i++) {
+      t.checkExpect(res[i], idx.distance(starts[i], goals[i]));
+    }
+    // an empty batch
+    t.checkExpect(new BatchPathSolver(f, executor).distances(new int[0], new int[0]),
+        new int[0]);
+    // a maze with no way through
+    t.checkExpect(new BatchPathSolver(new MazeGrid(2, 2), executor)
+        .distances(new int[] { 0, 1 }, new int[] { 3, 1 }), new int[] { -1, 0 });
+    executor.shutdown();
+  }
+
+  // test that BatchPathSolver indexes perfect mazes and searches the others
+  void testBatchPathSolverLoops(Tester t) {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    Maze m = new Maze(40, 50, MazeAlgorithm.KRUSKAL, 9);
+    t.checkExpect(BatchPathSolver.isPerfect(m.grid), true);
+    t.checkExpect(new BatchPathSolver(m.grid, executor).index == null, false);
+    t.checkExpect(BatchPathSolver.isPerfect(new MazeGrid(2, 2)), false);
+    m.braid(1.0);
+    t.checkExpect(BatchPathSolver.isPerfect(m.grid), false);
+    BatchPathSolver batch = new BatchPathSolver(m.grid, executor, 5);
+    t.checkExpect(batch.index, null);
+    // the shortest paths, as a plain BFS finds them
+    SplittableRandom rand = new SplittableRandom(3);
+    int[] starts = new int[200];
+    int[] goals = new int[200];
+    for (int i = 0; i < 200; i++) {
+      starts[i] = rand.nextInt(m.numCells);
+      goals[i] = rand.nextInt(m.numCells);
+    }
+    int[] res = batch.distances(starts, goals);
+    int[][] paths = batch.paths(starts, goals);
+    SearchEngine s = new SearchEngine();
+    for (int i = 0; i < 200; i++) {
+      s.bfs(m.grid, starts[i], goals[i]);
+      int length = 0;
+      for (int cur = goals[i]; cur != starts[i]; cur = s.cameFrom[cur]) {
+        length++;
+      }
+      t.checkExpect(res[i], length);
+      t.checkExpect(paths[i].length, length + 1);
+    }
+    executor.shutdown();
+  }
+
+  // test the paths method of BatchPathSolver
+  void testBatchPathSolverPaths(Tester t) {
+    ExecutorService executor = BatchPathSolver.newExecutor();
+    BatchPathSolver batch = new BatchPathSolver(this.exampleTree(), executor, 2);
+    int[][] paths = batch.paths(new int[] { 8, 2, 4, 0 }, new int[] { 5, 5, 4, 8 });
+    t.checkExpect(paths[0], new int[] { 8, 7, 6, 3, 0, 1, 4, 5 });
+    t.checkExpect(paths[1], new int[] { 2, 1, 4, 5 });
+    t.checkExpect(paths[2], new int[] { 4 });
+    t.checkExpect(paths[3], new int[] { 0, 3, 6, 7, 8 });
+    t.checkExpect(new BatchPathSolver(new MazeGrid(2, 2), executor)
+        .paths(new int[] { 0 }, new int[] { 3 })[0], null);
+    executor.shutdown();
+  }
+
+  // test the solveAStar method of Maze
+  void testSolveAStar(Tester t) {
+    Maze m = new Maze(60, 80, MazeAlgorithm.KRUSKAL, 21);
+    SolveResult astar = m.solveAStar();
+    SolveResult bfs = m.solveBFS();
+    t.checkExpect(astar.path, bfs.path);
+    t.checkExpect(astar.numVisited() <= bfs.numVisited(), true);
+    t.checkExpect(astar.state[0], SolveResult.ON_PATH);
+    t.checkExpect(astar.state[m.numCells - 1], SolveResult.ON_PATH);
+  }
+
+  // test the braid and solveDijkstra methods of Maze
+  void testBraidAndSolveDijkstra(Tester t) {
+    Maze m = new Maze(30, 40, MazeAlgorithm.KRUSKAL, 14);
+    // on a perfect maze with no terrain dijkstra finds the only path
+    t.checkExpect(m.solveDijkstra().path, m.solveBFS().path);
+    int opened = m.braid(0.5);
+    t.checkExpect(m.numEdges, m.numCells - 1 + opened);
+    t.checkExpect(m.finishedMaze(), true);
+    // still the shortest path once there are loops
+    t.checkExpect(m.solveDijkstra().path.length, m.solveBFS().path.length);
+    m.randomTerrain(9);
+    SolveResult weighted = m.solveDijkstra();
+    t.checkExpect(weighted.state[0], SolveResult.ON_PATH);
+    t.checkExpect(weighted.state[m.numCells - 1], SolveResult.ON_PATH);
+    t.checkExpect(m.search.distance[m.numCells - 1] <= 9 * (m.solveBFS().path.length - 1),
+        true);
+    // the same seed gives the same braids and terrain
+    Maze again = new Maze(30, 40, MazeAlgorithm.KRUSKAL, 14);
+    again.braid(0.5);
+    again.randomTerrain(9);
+    t.checkExpect(again.grid.passages, m.grid.passages);
+    t.checkExpect(again.costs, m.costs);
+  }
+
+  // test the drawAStarSolution method of Maze
+  void testDrawAStarSolution(Tester t) {
+    TestingUI tui = new TestingUI();
     Maze m = new Maze(2, 2);
-    HashMap<Posn, Integer> output = new HashMap<Posn, Integer>();
-    HashMap<Posn, Posn> cameFromPosn = new HashMap<Posn, Posn>();
-    cameFromPosn.put(new Posn(1, 0), new Posn(0, 0));
-    cameFromPosn.put(new Posn(1, 1), new Posn(1, 0));
-    cameFromPosn.put(new Posn(0, 1), new Posn(0, 0));
-    ArrayList<Posn> processed = new ArrayList<Posn>();
-    processed.add(new Posn(0, 0));
-    processed.add(new Posn(0, 1));
-    processed.add(new Posn(1, 0));
-    processed.add(new Posn(1, 1));
-    HashMap<Posn, Integer> result = m.reconstruct(output, cameFromPosn, processed);
-    HashMap<Posn, Integer> expectedOutput = new HashMap<Posn, Integer>();
-    expectedOutput.put(new Posn(0, 0), 4);
-    expectedOutput.put(new Posn(0, 1), 5);
-    expectedOutput.put(new Posn(1, 0), 10);
-    expectedOutput.put(new Posn(1, 1), 11);
-    t.checkExpect(result, expectedOutput);
+    t.checkExpect(m.solution, null);
+    t.checkExpect(m.drawingSolution, false);
+    m.drawAStarSolution(tui);
+    t.checkExpect(m.solution.state.length, 4);
+    t.checkExpect(m.tick, 0.0);
+    t.checkExpect(m.drawingSolution, true);
+  }
+
+  // test the fromSearch method of SolveResult
+  void testSolveResultFromSearch(Tester t) {
+    SearchEngine s = new SearchEngine();
+    s.bfs(this.exampleTree(), 0, 8);
+    SolveResult r = SolveResult.fromSearch(s, 9, 0, 8);
+    t.checkExpect(r.order, new int[] { 0, 1, 3, 2, 4, 6, 5, 7, 8 });
+    t.checkExpect(r.numVisited(), 9);
+    t.checkExpect(r.path, new int[] { 0, 3, 6, 7, 8 });
+    t.checkExpect(r.state, new byte[] { 2, 1, 1, 2, 1, 1, 2, 2, 2 });
+    t.checkExpect(r.visitIndex, new int[] { 0, 1, 3, 2, 4, 6, 5, 7, 8 });
+    // a search that stopped early leaves cells unvisited
+    s.dfs(this.exampleTree(), 0, 8);
+    r = SolveResult.fromSearch(s, 9, 0, 8);
+    t.checkExpect(r.state, new byte[] { 2, 0, 0, 2, 0, 0, 2, 2, 2 });
+    t.checkExpect(r.visitIndex[1], -1);
+    // a path from a cell to itself
+    s.bfs(this.exampleTree(), 4, 4);
+    t.checkExpect(SolveResult.fromSearch(s, 9, 4, 4).path, new int[] { 4 });
+  }
+
+  // test the delay method of SolveResult
+  void testSolveResultDelay(Tester t) {
+    SearchEngine s = new SearchEngine();
+    s.dfs(this.exampleTree(), 0, 8);
+    SolveResult r = SolveResult.fromSearch(s, 9, 0, 8);
+    t.checkExpect(r.delay(0), 0);
+    t.checkExpect(r.delay(1), 0);
+    t.checkExpect(r.delay(8), 4);
+  }
+
+  // test the timeline and shownAt methods of SolveResult
+  void testSolveResultTimeline(Tester t) {
+    SearchEngine s = new SearchEngine();
+    s.dfs(this.exampleTree(), 0, 8);
+    SolveResult r = SolveResult.fromSearch(s, 9, 0, 8);
+    t.checkExpect(r.timeline(), new int[] { 1, 2, 4, 5, 0, 3, 6, 7, 8 });
+    t.checkExpect(r.timeline() == r.timeline(), true);
+    t.checkExpect(r.shownAt(0), 0);
+    t.checkExpect(r.shownAt(0.5), 5);
+    t.checkExpect(r.shownAt(1), 5);
+    t.checkExpect(r.shownAt(2.5), 7);
+    t.checkExpect(r.shownAt(100), 9);
+    // the cells shown are exactly the ones whose delay is below the tick
+    Maze m = new Maze(15, 20, MazeAlgorithm.KRUSKAL, 2);
+    SolveResult b = m.solveBFS();
+    boolean matches = true;
+    for (double tick = 0; tick < b.numVisited() + 2; tick += 0.75) {
+      int shown = b.shownAt(tick);
+      for (int i = 0; i < m.numCells; i++) {
+        matches = matches && (i < shown) == (b.delay(b.timeline()[i]) < tick);
+      }
+    }
+    t.checkExpect(matches, true);
+  }
+
+  // test that each frame of a solution animation draws only the new cells
+  void testDrawChangesTimeline(Tester t) {
+    Maze m = new Maze(10, 10, MazeAlgorithm.KRUSKAL, 6);
+    TestingUI tui = new TestingUI();
+    tui.maze = m;
+    tui.pxPerCell = UI.MIN_PX_PER_CELL_AS_IMAGES;
+    m.drawBFSSolution(tui);
+    tui.makeScene();
+    t.checkExpect(m.revealed, 0);
+    m.tick = 3;
+    tui.makeScene();
+    int first = m.revealed;
+    t.checkExpect(first, m.solution.shownAt(3));
+    tui.squaresDrawn.clear();
+    m.tick = 5;
+    tui.makeScene();
+    t.checkExpect(tui.squaresDrawn.size(), 2);
+    t.checkExpect(m.revealed, first + 2);
+    // a full redraw starts from the beginning of the timeline again
+    tui.squaresDrawn.clear();
+    m.drawSolution(tui);
+    t.checkExpect(m.revealed, first + 2);
+    t.checkExpect(tui.squaresDrawn.size(), first + 2);
   }
 
   // test the drawBFSSolution method of Maze
   void testDrawBFSSolution(Tester t) {
     TestingUI tui = new TestingUI();
     Maze m = new Maze(2, 2);
-    t.checkExpect(m.coloring, null);
-    t.checkExpect(m.delays, null);
+    t.checkExpect(m.solution, null);
     t.checkExpect(m.tick, 0.0);
     t.checkExpect(m.drawingSolution, false);
     m.drawBFSSolution(tui);
-    t.checkExpect(m.coloring.size(), 4);
-    t.checkExpect(m.delays.size(), 4);
+    t.checkExpect(m.solution.state.length, 4);
+    t.checkExpect(m.solution.visitIndex.length, 4);
     t.checkExpect(m.tick, 0.0);
     t.checkExpect(m.drawingSolution, true);
   }
@@ -954,13 +8385,12 @@ class ExamplesMaze {
   void testDrawDFSSolution(Tester t) {
     TestingUI tui = new TestingUI();
     Maze m = new Maze(2, 2);
-    t.checkExpect(m.coloring, null);
-    t.checkExpect(m.delays, null);
+    t.checkExpect(m.solution, null);
     t.checkExpect(m.tick, 0.0);
     t.checkExpect(m.drawingSolution, false);
-    m.drawBFSSolution(tui);
-    t.checkExpect(m.coloring.size(), 4);
-    t.checkExpect(m.delays.size(), 4);
+    m.drawDFSSolution(tui);
+    t.checkExpect(m.solution.state.length, 4);
+    t.checkExpect(m.solution.visitIndex.length, 4);
     t.checkExpect(m.tick, 0.0);
     t.checkExpect(m.drawingSolution, true);
   }
@@ -1078,6 +8508,91 @@ class ExamplesMaze {
     t.checkExpect(ui.marginTop, 45);
   }
 
+  // test the processRowsAndCols method of UI with a maze bigger than the window
+  void testProcessRowsAndColsLarge(Tester t) {
+    UI ui = new UI(800, 450);
+    t.checkExpect(ui.firstRow, 0);
+    t.checkExpect(ui.lastRow, 18);
+    t.checkExpect(ui.firstCol, 0);
+    t.checkExpect(ui.lastCol, 32);
+    ui.processRowsAndCols(1000, 1000);
+    t.checkExpect(ui.pxPerCell, UI.MIN_PX_PER_CELL);
+    t.checkExpect(ui.marginSide, -600);
+    t.checkExpect(ui.marginTop, -775);
+    t.checkExpect(ui.firstRow, 387);
+    t.checkExpect(ui.lastRow, 613);
+    t.checkExpect(ui.firstCol, 300);
+    t.checkExpect(ui.lastCol, 701);
+    t.checkExpect(ui.numVisibleCells(), 226 * 401);
+  }
+
+  // test the centerOn and onMouseClicked methods of UI
+  void testCenterOn(Tester t) {
+    UI ui = new UI(800, 450);
+    ui.scene = new WorldScene(800, 450);
+    ui.centerOn(400, 225);
+    t.checkExpect(ui.marginSide, 80);
+    t.checkExpect(ui.marginTop, 45);
+    t.checkExpect(ui.scene, null);
+    ui.onMouseClicked(new Posn(500, 225));
+    t.checkExpect(ui.marginSide, -20);
+    t.checkExpect(ui.firstCol, 1);
+    t.checkExpect(ui.lastCol, 32);
+    // the maze always covers the middle of the window
+    ui.centerOn(2000, -1000);
+    t.checkExpect(ui.marginSide, -240);
+    t.checkExpect(ui.marginTop, 225);
+    t.checkExpect(ui.firstRow, 0);
+    t.checkExpect(ui.lastRow, 12);
+  }
+
+  // test the zoom method of UI
+  void testZoom(Tester t) {
+    UI ui = new UI(800, 450);
+    ui.zoom(2);
+    t.checkExpect(ui.pxPerCell, 40);
+    t.checkExpect(ui.marginSide, -240);
+    t.checkExpect(ui.marginTop, -135);
+    t.checkExpect(ui.firstCol, 6);
+    t.checkExpect(ui.lastCol, 27);
+    t.checkExpect(ui.firstRow, 3);
+    t.checkExpect(ui.lastRow, 15);
+    ui.zoom(0.5);
+    t.checkExpect(ui.pxPerCell, 20);
+    t.checkExpect(ui.marginSide, 80);
+    t.checkExpect(ui.marginTop, 45);
+    ui.zoom(0.01);
+    t.checkExpect(ui.pxPerCell, UI.MIN_PX_PER_CELL);
+    ui.zoom(1000);
+    t.checkExpect(ui.pxPerCell, UI.MAX_PX_PER_CELL);
+  }
+
+  // test the camera keys of UI
+  void testOnCameraKey(Tester t) {
+    UI ui = new UI(new Maze(18, 32, true), 800, 450);
+    ui.onKeyEvent("r");
+    ui.onKeyEvent("left");
+    t.checkExpect(ui.marginSide, 280);
+    ui.onKeyEvent("right");
+    ui.onKeyEvent("right");
+    t.checkExpect(ui.marginSide, -120);
+    ui.onKeyEvent("up");
+    t.checkExpect(ui.marginTop, 157);
+    ui.onKeyEvent("down");
+    t.checkExpect(ui.marginTop, 45);
+    ui.onKeyEvent("+");
+    t.checkExpect(ui.pxPerCell, 40);
+    ui.onKeyEvent("-");
+    t.checkExpect(ui.pxPerCell, 20);
+    ui.onKeyEvent("=");
+    ui.onKeyEvent("0");
+    t.checkExpect(ui.pxPerCell, 20);
+    t.checkExpect(ui.marginSide, 80);
+    // moving the camera doesn't stop a replay
+    t.checkExpect(ui.maze.replay == null, false);
+    t.checkExpect(ui.onCameraKey("x"), false);
+  }
+
   // test the makeScene method of UI
   void testMakeScene(Tester t) {
     /*
@@ -1125,6 +8640,152 @@ class ExamplesMaze {
      */
   }
 
+  // test that makeScene only draws what changed into the last scene - into the
+  // pixels of its layer for small cells, and as images on top for large ones
+  void testMakeSceneIncremental(Tester t) {
+    Maze m = new Maze(3, 3, false);
+    // cells of 12 px from (22, 4)
+    UI ui = new UI(m, 80, 45);
+    WorldScene first = ui.makeScene();
+    ComputedPixelImage layer = ui.layer;
+    t.checkExpect(ui.sceneMaze, m);
+    t.checkExpect(layer.getPixel(28, 10), UI.START_NODE_COLOR);
+    t.checkExpect(layer.getPixel(34, 10), Color.black);
+    t.checkExpect(layer.getPixel(40, 10), Color.white);
+    // the same scene and layer are drawn on
+    m.addEdge(new Edge(0, 0, false), new Posn(0, 0), new Posn(1, 0));
+    t.checkExpect(ui.makeScene() == first, true);
+    t.checkExpect(ui.layer, layer);
+    t.checkExpect(layer.getPixel(34, 10), Color.white);
+    t.checkExpect(layer.getPixel(34, 4), Color.black);
+    t.checkExpect(layer.getPixel(40, 10), Color.white);
+    t.checkExpect(ui.overlays, 0);
+    // starting a solution draws everything again
+    m.makeSolution();
+    m.drawBFSSolution(ui);
+    t.checkExpect(ui.makeScene() == first, false);
+    // into the same layer, where the pixels drawn over are drawn again
+    t.checkExpect(ui.layer, layer);
+    t.checkExpect(layer.getPixel(34, 10), Color.white);
+    // so does a new maze
+    first = ui.scene;
+    ui.onKeyEvent("n");
+    t.checkExpect(ui.makeScene() == first, false);
+    t.checkExpect(ui.sceneMaze, ui.maze);
+    // and moving the camera
+    first = ui.scene;
+    ui.onKeyEvent("+");
+    t.checkExpect(ui.makeScene() == first, false);
+    // animating the generation, a solution, a pan and a replay keep the layer
+    // what drawing all of it again would draw
+    Maze anim = new Maze(20, 30, false);
+    UI aui = new UI(anim, 200, 150, true);
+    t.checkExpect(aui.pxPerCell, 5);
+    aui.makeScene();
+    this.tickAndCompare(t, aui, 20);
+    anim.makeSolution();
+    aui.makeScene();
+    t.checkExpect(this.layerMatches(aui, anim.rasterizer(5)), true);
+    anim.drawBFSSolution(aui);
+    this.tickAndCompare(t, aui, 10);
+    aui.onKeyEvent("+");
+    aui.onKeyEvent("right");
+    this.tickAndCompare(t, aui, 5);
+    aui.onKeyEvent("r");
+    this.tickAndCompare(t, aui, 10);
+    aui.onKeyEvent("w");
+    this.tickAndCompare(t, aui, 3);
+    // large cells are images, drawn on top of the scene
+    Maze big = new Maze(3, 3, false);
+    TestingUI tui = new TestingUI();
+    tui.maze = big;
+    tui.pxPerCell = UI.MIN_PX_PER_CELL_AS_IMAGES;
+    first = tui.makeScene();
+    t.checkExpect(tui.layer, null);
+    t.checkExpect(tui.overlays, 0);
+    while (big.numEdges == 0) {
+      big.kruskalStep();
+    }
+    t.checkExpect(tui.makeScene() == first, true);
+    t.checkExpect(tui.overlays > 0, true);
+    // until there are too many of them
+    tui.overlays = 2 * tui.numVisibleCells() + 1;
+    t.checkExpect(tui.makeScene() == first, false);
+    t.checkExpect(tui.overlays, 0);
+  }
+
+  // test that the layer holds what MazeRasterizer draws, wherever the camera is
+  void testDrawLayer(Tester t) {
+    Maze m = new Maze(5, 7, MazeAlgorithm.KRUSKAL, 4);
+    UI ui = new UI(m, 100, 50);
+    t.checkExpect(ui.pxPerCell, 8);
+    ui.makeScene();
+    t.checkExpect(this.layerMatches(ui, new MazeRasterizer(m.grid, 8)), true);
+    // zoomed in and panned, with some of a solution shown
+    ui.onKeyEvent("+");
+    ui.onKeyEvent("right");
+    m.drawBFSSolution(ui);
+    m.tick = 6;
+    ui.makeScene();
+    MazeRasterizer raster = new MazeRasterizer(m.grid, 16);
+    raster.setSolution(m.solution, 6);
+    t.checkExpect(ui.marginSide < 0, true);
+    t.checkExpect(this.layerMatches(ui, raster), true);
+    t.checkExpect(m.revealed, m.solution.shownAt(6));
+    // a replay shows the walls of its frame
+    m.startReplay(false);
+    m.seek(12);
+    ui.scene = null;
+    ui.makeScene();
+    raster = new MazeRasterizer(m.replay.gridAt(12), 16);
+    raster.setSolution(m.solution, 6);
+    t.checkExpect(this.layerMatches(ui, raster), true);
+  }
+
+  // tick the given UI the given number of times, checking after each frame
+  // that its layer matches a full drawing of what its maze shows
+  void tickAndCompare(Tester t, UI ui, int ticks) {
+    for (int i = 0; i < ticks; i++) {
+      ui.onTick();
+      ui.makeScene();
+      t.checkExpect(this.layerMatches(ui, ui.maze.rasterizer(ui.pxPerCell)), true);
+    }
+  }
+
+  // does every pixel of the layer of the given UI match the image the given
+  // rasterizer draws of the whole maze, with nothing outside it?
+  boolean layerMatches(UI ui, MazeRasterizer raster) {
+    BufferedImage image = raster.render(ForkJoinPool.commonPool());
+    for (int y = 0; y < ui.height; y++) {
+      for (int x = 0; x < ui.width; x++) {
+        int mx = x - ui.marginSide;
+        int my = y - ui.marginTop;
+        int rgb = ui.layer.getPixel(x, y).getRGB();
+        if (mx >= 0 && mx < raster.width && my >= 0 && my < raster.height
+            ? rgb != image.getRGB(mx, my) : rgb != 0) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  // test the drawOpening method of UI
+  void testDrawOpening(Tester t) {
+    Maze m = new Maze(2, 2, false);
+    UI ui = new UI(m, 800, 450);
+    ui.scene = new WorldScene(800, 450);
+    WorldScene demoScene = new WorldScene(800, 450);
+    ui.drawOpening(0, 0, 0, 1, Color.white);
+    demoScene.placeImageXY(
+        new RectangleImage(1, 180, OutlineMode.SOLID, Color.white).movePinhole(0, -90), 400, 45);
+    t.checkExpect(ui.scene, demoScene);
+    ui.drawOpening(0, 1, 1, 1, Color.green);
+    demoScene.placeImageXY(
+        new RectangleImage(180, 1, OutlineMode.SOLID, Color.green).movePinhole(-90, 0), 400, 225);
+    t.checkExpect(ui.scene, demoScene);
+  }
+
   // test the drawSquareAt method of UI
   void testDrawSquareAt(Tester t) {
     Maze m = new Maze(2, 2, false);
@@ -1173,8 +8834,8 @@ class ExamplesMaze {
     t.checkExpect(m.numEdges, 0);
     ui.onTick();
     int numMatching = 0;
-    for (Posn p : m.reps.keySet()) {
-      if (p.equals(m.reps.get(p))) {
+    for (int i = 0; i < m.kruskal.sets.size(); i++) {
+      if (m.kruskal.sets.parent[i] == i) {
         numMatching += 1;
       }
     }
@@ -1199,6 +8860,40 @@ class ExamplesMaze {
     this.testOnNPressed(t);
     this.testOnBPressed(t);
     this.testOnDPressed(t);
+    this.testOnSPressed(t);
+    this.testOnRPressed(t);
+    this.testOnWPressed(t);
+  }
+
+  // test the onKeyEvent method when "r" or "R" is pressed
+  void testOnRPressed(Tester t) {
+    Maze m = new Maze(4, 4, true);
+    UI ui = new UI(m);
+    ui.onKeyEvent("r");
+    t.checkExpect(ui.animatingMazeGeneration, true);
+    t.checkExpect(m.replay == null, false);
+    t.checkExpect(m.replayFrame, 0);
+    ui.onTick();
+    t.checkExpect(m.replayFrame, 1);
+    // any other key shows the whole maze again
+    ui.onKeyEvent("b");
+    t.checkExpect(m.replay, null);
+    t.checkExpect(m.numEdges, 15);
+    t.checkExpect(m.drawingSolution, true);
+  }
+
+  // test the onKeyEvent method when "w" or "W" is pressed
+  void testOnWPressed(Tester t) {
+    Maze m = new Maze(4, 4, true);
+    UI ui = new UI(m);
+    ui.onKeyEvent("W");
+    t.checkExpect(m.replayFrame, 15);
+    ui.onTick();
+    t.checkExpect(m.replayFrame, 14);
+    ui.onKeyEvent("w");
+    ui.onTick();
+    t.checkExpect(m.replayFrame, 15);
+    t.checkExpect(m.replay, null);
   }
 
   // test the onKeyEvent method when "a" or "A" is pressed
@@ -1228,14 +8923,13 @@ class ExamplesMaze {
     TestingUI tui = new TestingUI();
     Maze m = new Maze(2, 2);
     tui.maze = m;
-    t.checkExpect(m.coloring, null);
-    t.checkExpect(m.delays, null);
+    t.checkExpect(m.solution, null);
     t.checkExpect(m.tick, 0.0);
     t.checkExpect(m.drawingSolution, false);
     // testingui doesn't override onKeyEvent therefore it's safe to use for testing
     tui.onKeyEvent("B");
-    t.checkExpect(m.coloring.size(), 4);
-    t.checkExpect(m.delays.size(), 4);
+    t.checkExpect(m.solution.state.length, 4);
+    t.checkExpect(m.solution.visitIndex.length, 4);
     t.checkExpect(m.tick, 0.0);
     t.checkExpect(m.drawingSolution, true);
   }
@@ -1245,14 +8939,27 @@ class ExamplesMaze {
     TestingUI tui = new TestingUI();
     Maze m = new Maze(2, 2);
     tui.maze = m;
-    t.checkExpect(m.coloring, null);
-    t.checkExpect(m.delays, null);
+    t.checkExpect(m.solution, null);
     t.checkExpect(m.tick, 0.0);
     t.checkExpect(m.drawingSolution, false);
     // testingui doesn't override onKeyEvent therefore it's safe to use for testing
     tui.onKeyEvent("D");
-    t.checkExpect(m.coloring.size(), 4);
-    t.checkExpect(m.delays.size(), 4);
+    t.checkExpect(m.solution.state.length, 4);
+    t.checkExpect(m.solution.visitIndex.length, 4);
+    t.checkExpect(m.tick, 0.0);
+    t.checkExpect(m.drawingSolution, true);
+  }
+
+  // test the OnKeyEvent method when "s" or "S" is pressed
+  void testOnSPressed(Tester t) {
+    TestingUI tui = new TestingUI();
+    Maze m = new Maze(2, 2);
+    tui.maze = m;
+    t.checkExpect(m.solution, null);
+    t.checkExpect(m.drawingSolution, false);
+    // testingui doesn't override onKeyEvent therefore it's safe to use for testing
+    tui.onKeyEvent("S");
+    t.checkExpect(m.solution.state.length, 4);
     t.checkExpect(m.tick, 0.0);
     t.checkExpect(m.drawingSolution, true);
   }